@@ -0,0 +1,53 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.KeyDerivationFunction;
+import at.favre.lib.crypto.bkdf.StretchedKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the engines available for the bcrypt step: the bcrypt library (default) and the built-in EksBlowfish
+ * selected with the <code>at.favre.lib.crypto.bkdf.useEksBlowfish</code> system property, measured with
+ * {@link KeyDerivationFunction#stretch(byte[], byte[], int)} (the HKDF part is negligible).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BcryptEngineBenchmark {
+
+    @Param({"6", "8"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private KeyDerivationFunction kdf;
+    private byte[] salt;
+    private byte[] ikm;
+
+    @Setup
+    public void setup() {
+        kdf = new KeyDerivationFunction.Default(Versions.byName(version));
+        SecureRandom random = new SecureRandom();
+        salt = new byte[16];
+        ikm = new byte[32];
+        random.nextBytes(salt);
+        random.nextBytes(ikm);
+    }
+
+    @Benchmark
+    public StretchedKey bcryptLibrary() {
+        return kdf.stretch(salt, ikm, cost);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dat.favre.lib.crypto.bkdf.useEksBlowfish=true")
+    public StretchedKey eksBlowfish() {
+        return kdf.stretch(salt, ikm, cost);
+    }
+}
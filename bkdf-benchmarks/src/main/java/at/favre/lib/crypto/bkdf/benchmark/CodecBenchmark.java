@@ -0,0 +1,165 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.Base64Url;
+import at.favre.lib.crypto.bkdf.CompoundHashData;
+import at.favre.lib.crypto.bkdf.HashData;
+import at.favre.lib.crypto.bkdf.HashMessageInspector;
+import at.favre.lib.crypto.bkdf.HashMessageReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing and encoding of {@link HashData} and {@link CompoundHashData} in blob ("Format 1") and
+ * base64 ("Format 2") form, as well as the raw base64 codec of this library against the one from the Bytes library. No bcrypt is involved, so run this with the gc profiler to see allocation per op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private HashData hashData;
+    private byte[] hashBlob;
+    private String hashEncoded;
+
+    private final HashMessageReader reader = new HashMessageReader();
+    private final HashMessageInspector inspector = new HashMessageInspector();
+    private final byte[] scratch = new byte[64];
+    private ByteBuffer writeBuffer;
+
+    private CompoundHashData compoundHashData;
+    private byte[] compoundBlob;
+    private String compoundEncoded;
+
+    @Setup
+    public void setup() {
+        String hash = BKDF.createPasswordHasher(Versions.byName(version)).hash("correct horse battery staple".toCharArray(), 4);
+        hashData = HashData.parse(hash);
+        hashBlob = hashData.getAsBlobMessageFormat();
+        hashEncoded = hashData.getAsEncodedMessageFormat();
+
+        compoundHashData = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(7, hash);
+        compoundBlob = compoundHashData.getAsBlobMessageFormat();
+        compoundEncoded = compoundHashData.getAsEncodedMessageFormat();
+        writeBuffer = ByteBuffer.allocate(128);
+    }
+
+    @Benchmark
+    public HashData parseHashDataBlob() {
+        return HashData.parse(hashBlob);
+    }
+
+    @Benchmark
+    public HashData parseHashDataEncoded() {
+        return HashData.parse(hashEncoded);
+    }
+
+    @Benchmark
+    public byte[] encodeHashDataBlob() {
+        return hashData.getAsBlobMessageFormat();
+    }
+
+    @Benchmark
+    public String encodeHashDataEncoded() {
+        return hashData.getAsEncodedMessageFormat();
+    }
+
+    @Benchmark
+    public CompoundHashData parseCompoundBlob() {
+        return CompoundHashData.parse(compoundBlob);
+    }
+
+    @Benchmark
+    public CompoundHashData parseCompoundEncoded() {
+        return CompoundHashData.parse(compoundEncoded);
+    }
+
+    @Benchmark
+    public byte[] encodeCompoundBlob() {
+        return compoundHashData.getAsBlobMessageFormat();
+    }
+
+    @Benchmark
+    public String encodeCompoundEncoded() {
+        return compoundHashData.getAsEncodedMessageFormat();
+    }
+
+    @Benchmark
+    public int readHashDataBlobFlyweight() {
+        reader.wrap(hashBlob, 0);
+        reader.copySaltTo(scratch, 0);
+        return reader.cost(0) + reader.versionCode(0) + scratch[0];
+    }
+
+    @Benchmark
+    public int readCompoundBlobFlyweight() {
+        reader.wrap(compoundBlob, 0);
+        reader.copySaltTo(scratch, 0);
+        return reader.configCount() + reader.cost(reader.configCount() - 1) + scratch[0];
+    }
+
+    @Benchmark
+    public ByteBuffer writeHashDataBlobToBuffer() {
+        writeBuffer.clear();
+        hashData.writeTo(writeBuffer);
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeCompoundBlobToBuffer() {
+        writeBuffer.clear();
+        compoundHashData.writeTo(writeBuffer);
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeBase64WithBytes() {
+        return Bytes.parseBase64(hashEncoded).array();
+    }
+
+    @Benchmark
+    public byte[] decodeBase64WithBase64Url() {
+        return Base64Url.decode(hashEncoded);
+    }
+
+    @Benchmark
+    public int decodeBase64WithBase64UrlIntoBuffer() {
+        return Base64Url.decode(hashEncoded, scratch, 0);
+    }
+
+    @Benchmark
+    public String encodeBase64WithBytes() {
+        return Bytes.wrap(hashBlob).encodeBase64Url();
+    }
+
+    @Benchmark
+    public String encodeBase64WithBase64Url() {
+        return Base64Url.encode(hashBlob, 0, hashBlob.length);
+    }
+
+    @Benchmark
+    public int inspectHashDataEncoded() {
+        inspector.inspect(hashEncoded);
+        return inspector.cost(0);
+    }
+
+    @Benchmark
+    public long inspectCompoundEncoded() {
+        inspector.inspect(compoundEncoded);
+        return inspector.iterations();
+    }
+
+    @Benchmark
+    public boolean isCompoundEncoded() {
+        return HashMessageInspector.isCompound(compoundEncoded);
+    }
+}
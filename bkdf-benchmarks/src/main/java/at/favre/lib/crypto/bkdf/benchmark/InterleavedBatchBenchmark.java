@@ -0,0 +1,82 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.BatchResult;
+import at.favre.lib.crypto.bkdf.BkdfExecutors;
+import at.favre.lib.crypto.bkdf.HashData;
+import at.favre.lib.crypto.bkdf.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-core throughput of {@link PasswordHasher#hashAll(List, int, ExecutorService)} with the built-in
+ * EksBlowfish (interleaved bcrypt lanes) on a single thread compared to the same batch with the bcrypt library and to
+ * hashing the same passwords one by one with the bcrypt library and the built-in single-lane EksBlowfish. Scores are
+ * per password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(InterleavedBatchBenchmark.BATCH_SIZE)
+public class InterleavedBatchBenchmark {
+    static final int BATCH_SIZE = 8;
+
+    @Param({"6", "8"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private PasswordHasher hasher;
+    private ExecutorService singleThread;
+    private List<char[]> passwords;
+
+    @Setup
+    public void setup() {
+        hasher = BKDF.createPasswordHasher(Versions.byName(version));
+        singleThread = BkdfExecutors.newHashingExecutor(1, BATCH_SIZE);
+        passwords = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            passwords.add(("correct horse battery staple " + i).toCharArray());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        singleThread.shutdown();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dat.favre.lib.crypto.bkdf.useEksBlowfish=true")
+    public List<BatchResult<HashData>> interleaved() {
+        return hasher.hashAll(passwords, cost, singleThread);
+    }
+
+    @Benchmark
+    public List<BatchResult<HashData>> batchLibrary() {
+        return hasher.hashAll(passwords, cost, singleThread);
+    }
+
+    @Benchmark
+    public void singleLaneLibrary(Blackhole blackhole) {
+        for (char[] password : passwords) {
+            blackhole.consume(hasher.hashRaw(password, cost));
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dat.favre.lib.crypto.bkdf.useEksBlowfish=true")
+    public void singleLaneEksBlowfish(Blackhole blackhole) {
+        for (char[] password : passwords) {
+            blackhole.consume(hasher.hashRaw(password, cost));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.KeyDerivationFunction;
+import at.favre.lib.crypto.bkdf.StretchedKey;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link KeyDerivationFunction#deriveMulti(byte[], byte[], int, List)} with a varying amount of
+ * output configs. The expand benchmark measures only the HKDF expand part on an already stretched key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyDerivationFunctionBenchmark {
+
+    @Param({"4", "8", "10"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    @Param({"1", "4", "16", "64"})
+    public int configCount;
+
+    private KeyDerivationFunction kdf;
+    private byte[] salt;
+    private byte[] ikm;
+    private List<KeyDerivationFunction.KdfConfig> configList;
+    private StretchedKey stretchedKey;
+
+    @Setup
+    public void setup() {
+        kdf = BKDF.createKdf(Versions.byName(version));
+        salt = new byte[16];
+        ikm = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+        configList = new ArrayList<>(configCount);
+        for (int i = 0; i < configCount; i++) {
+            configList.add(new KeyDerivationFunction.KdfConfig(("key-" + i).getBytes(StandardCharsets.UTF_8), 32));
+        }
+        stretchedKey = kdf.stretch(salt, ikm, cost);
+    }
+
+    @TearDown
+    public void tearDown() {
+        stretchedKey.destroy();
+    }
+
+    @Benchmark
+    public List<byte[]> deriveMulti() {
+        return kdf.deriveMulti(salt, ikm, cost, configList);
+    }
+
+    @Benchmark
+    public void expand(Blackhole blackhole) {
+        for (KeyDerivationFunction.KdfConfig config : configList) {
+            blackhole.consume(stretchedKey.expand(config.infoParam, config.outLengthByte));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.CompoundHashData;
+import at.favre.lib.crypto.bkdf.PasswordHashUpgrader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PasswordHashUpgrader#upgradePasswordHashTo(int, String)} from <code>cost</code> to
+ * <code>cost + 2</code> (i.e. 2 additional chain links).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashUpgraderBenchmark {
+
+    @Param({"4", "8"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private PasswordHashUpgrader upgrader;
+    private String hash;
+
+    @Setup
+    public void setup() {
+        upgrader = BKDF.createPasswordHashUpgrader();
+        hash = BKDF.createPasswordHasher(Versions.byName(version)).hash("correct horse battery staple".toCharArray(), cost);
+    }
+
+    @Benchmark
+    public CompoundHashData upgradePasswordHashTo() {
+        return upgrader.upgradePasswordHashTo(cost + 2, hash);
+    }
+}
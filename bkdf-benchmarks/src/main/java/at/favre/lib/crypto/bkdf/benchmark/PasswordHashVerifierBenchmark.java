@@ -0,0 +1,87 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.CachingPasswordHashVerifier;
+import at.favre.lib.crypto.bkdf.CompoundHashData;
+import at.favre.lib.crypto.bkdf.HashData;
+import at.favre.lib.crypto.bkdf.PasswordHashVerifier;
+import at.favre.lib.crypto.bkdf.Version;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PasswordHashVerifier#verify(char[], String)} for plain and compound hashes. The compound hash
+ * is created by upgrading a hash of <code>cost - 1</code> to <code>cost</code> which results in a chain of 2. The
+ * six link chain consists of configs with <code>cost - 3</code> (at least 4), i.e. 3/4 of the work of the plain hash
+ * for cost 8 and above, to show the per link overhead removed by {@link at.favre.lib.crypto.bkdf.HashChainCompactor}.
+ * The cached variant repeats the same credentials like a chatty HTTP Basic auth client, see {@link CachingPasswordHashVerifier}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashVerifierBenchmark {
+
+    @Param({"5", "8", "10"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private PasswordHashVerifier verifier;
+    private PasswordHashVerifier cachingVerifier;
+    private char[] password;
+    private String plainHash;
+    private HashData plainHashData;
+    private String compoundHash;
+    private String sixLinkChainHash;
+
+    @Setup
+    public void setup() {
+        Version v = Versions.byName(version);
+        password = "correct horse battery staple".toCharArray();
+        verifier = BKDF.createPasswordHashVerifier();
+        cachingVerifier = new CachingPasswordHashVerifier(verifier, 1024, 1, TimeUnit.HOURS);
+        plainHash = BKDF.createPasswordHasher(v).hash(password, cost);
+        plainHashData = HashData.parse(plainHash);
+        compoundHash = BKDF.createPasswordHashUpgrader()
+                .upgradePasswordHashTo(cost, BKDF.createPasswordHasher(v).hash(password, cost - 1))
+                .getAsEncodedMessageFormat();
+
+        int linkCost = Math.max(4, cost - 3);
+        String chain = BKDF.createPasswordHasher(v).hash(password, linkCost);
+        for (int i = 0; i < 5; i++) {
+            CompoundHashData upgraded = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(v, linkCost, chain);
+            chain = upgraded.getAsEncodedMessageFormat();
+        }
+        sixLinkChainHash = chain;
+    }
+
+    @Benchmark
+    public boolean verifyPlain() {
+        return verifier.verify(password, plainHash);
+    }
+
+    @Benchmark
+    public boolean verifyPlainHashData() {
+        return verifier.verify(password, plainHashData);
+    }
+
+    @Benchmark
+    public boolean verifyCompound() {
+        return verifier.verify(password, compoundHash);
+    }
+
+    @Benchmark
+    public boolean verifySixLinkChain() {
+        return verifier.verify(password, sixLinkChainHash);
+    }
+
+    @Benchmark
+    public boolean verifyPlainCached() {
+        return cachingVerifier.verify(password, plainHash);
+    }
+}
@@ -0,0 +1,45 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.HashData;
+import at.favre.lib.crypto.bkdf.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PasswordHasher#hashRaw(char[], int)} including salt generation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    @Param({"4", "8", "10"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private PasswordHasher hasher;
+    private char[] password;
+
+    @Setup
+    public void setup() {
+        hasher = BKDF.createPasswordHasher(Versions.byName(version));
+        password = "correct horse battery staple".toCharArray();
+    }
+
+    @Benchmark
+    public HashData hashRaw() {
+        return hasher.hashRaw(password, cost);
+    }
+
+    @Benchmark
+    public String hash() {
+        return hasher.hash(password, cost);
+    }
+}
@@ -0,0 +1,79 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.SaltSupplier;
+import at.favre.lib.crypto.bkdf.StripedSaltSupplier;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares drawing salts from a single {@link SecureRandom} shared by all threads (like
+ * {@link at.favre.lib.crypto.bkdf.BKDF#createPasswordHasher(at.favre.lib.crypto.bkdf.Version, SecureRandom)}) with
+ * the {@link StripedSaltSupplier} at 1, 8 and 64 threads. No bcrypt is involved, so this isolates the contention of
+ * the random generator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaltSupplierBenchmark {
+
+    private SaltSupplier shared;
+    private SaltSupplier striped;
+
+    @State(Scope.Thread)
+    public static class Salt {
+        final byte[] bytes = new byte[16];
+    }
+
+    @Setup
+    public void setup() {
+        shared = new SaltSupplier.Default(new SecureRandom());
+        striped = new StripedSaltSupplier();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] shared01Thread(Salt salt) {
+        shared.nextSalt(salt.bytes);
+        return salt.bytes;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] shared08Threads(Salt salt) {
+        shared.nextSalt(salt.bytes);
+        return salt.bytes;
+    }
+
+    @Benchmark
+    @Threads(64)
+    public byte[] shared64Threads(Salt salt) {
+        shared.nextSalt(salt.bytes);
+        return salt.bytes;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] striped01Thread(Salt salt) {
+        striped.nextSalt(salt.bytes);
+        return salt.bytes;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] striped08Threads(Salt salt) {
+        striped.nextSalt(salt.bytes);
+        return salt.bytes;
+    }
+
+    @Benchmark
+    @Threads(64)
+    public byte[] striped64Threads(Salt salt) {
+        striped.nextSalt(salt.bytes);
+        return salt.bytes;
+    }
+}
@@ -0,0 +1,23 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.Version;
+
+/**
+ * Maps the JMH string parameter to the actual {@link Version} constant
+ */
+final class Versions {
+
+    private Versions() {
+    }
+
+    static Version byName(String name) {
+        switch (name) {
+            case "HKDF_HMAC512":
+                return Version.HKDF_HMAC512;
+            case "HKDF_HMAC512_BCRYPT_24_BYTE":
+                return Version.HKDF_HMAC512_BCRYPT_24_BYTE;
+            default:
+                throw new IllegalArgumentException("unknown version " + name);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package at.favre.lib.crypto.bkdf.benchmark;
+
+import at.favre.lib.crypto.bkdf.BKDF;
+import at.favre.lib.crypto.bkdf.BkdfWorkspace;
+import at.favre.lib.crypto.bkdf.KeyDerivationFunction;
+import at.favre.lib.crypto.bkdf.PasswordHashVerifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares verify and derive with and without a reusable {@link BkdfWorkspace}, and verify with password and stored
+ * hash in direct buffers. Run with the gc profiler (<code>-prof gc</code>) to see the allocation rate per operation,
+ * which is zero for the workspace verify.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkspaceBenchmark {
+
+    @Param({"4", "8"})
+    public int cost;
+
+    @Param({"HKDF_HMAC512", "HKDF_HMAC512_BCRYPT_24_BYTE"})
+    public String version;
+
+    private PasswordHashVerifier verifier;
+    private KeyDerivationFunction kdf;
+    private BkdfWorkspace workspace;
+    private char[] password;
+    private byte[] salt;
+    private String hash;
+    private ByteBuffer utf8Password;
+    private ByteBuffer storedHash;
+
+    @Setup
+    public void setup() {
+        password = "correct horse battery staple".toCharArray();
+        salt = new byte[16];
+        verifier = BKDF.createPasswordHashVerifier();
+        kdf = BKDF.createKdf(Versions.byName(version));
+        workspace = new BkdfWorkspace();
+        hash = BKDF.createPasswordHasher(Versions.byName(version)).hash(password, cost);
+        utf8Password = directBuffer(new String(password).getBytes(StandardCharsets.UTF_8));
+        storedHash = directBuffer(hash.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer directBuffer(byte[] content) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return verifier.verify(password, hash);
+    }
+
+    @Benchmark
+    public boolean verifyWorkspace() {
+        return verifier.verify(password, hash, workspace);
+    }
+
+    @Benchmark
+    public boolean verifyDirectBuffers() {
+        return verifier.verify(utf8Password, storedHash, workspace);
+    }
+
+    @Benchmark
+    public byte[] derive() {
+        return kdf.derive(salt, password, cost, null, 32);
+    }
+
+    @Benchmark
+    public byte[] deriveWorkspace() {
+        return kdf.derive(salt, password, cost, null, 32, workspace);
+    }
+}
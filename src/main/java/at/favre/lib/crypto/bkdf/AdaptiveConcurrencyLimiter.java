@@ -0,0 +1,303 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the amount of concurrent bcrypt computations and adapts the limit to the observed latency with an
+ * additive-increase/multiplicative-decrease (AIMD) algorithm. Use it with {@link LimitedPasswordHasher},
+ * {@link LimitedPasswordHashVerifier} and {@link LimitedKeyDerivationFunction}.
+ * <p>
+ * Every computation reports its duration per bcrypt iteration, so different cost factors are comparable. The lowest
+ * observed value (slowly drifting upwards to follow changes of the host) is the baseline. If a computation is more
+ * than <code>tolerance</code> times slower than the baseline the cores are oversubscribed (e.g. the host is shared or
+ * throttled by a cgroup quota) and the limit is multiplied by 0.9; otherwise, if at least half of the limit is in use,
+ * the limit grows by one per limit-many computations.
+ * <p>
+ * If the limit is reached, new computations fail fast with a {@link ConcurrencyLimitExceededException} instead of
+ * queueing. A caller deadline can be set with {@link #withDeadline(long, TimeUnit)}; computations which would start
+ * after it fail with a {@link DeadlineExceededException} without doing any work. Both extend
+ * {@link RejectedExecutionException}.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class AdaptiveConcurrencyLimiter {
+    /**
+     * Default factor by which a computation may be slower than the baseline before the limit is decreased
+     */
+    public static final double DEFAULT_TOLERANCE = 2.0;
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double BASELINE_DRIFT = 0.001;
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final Ticker ticker;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong deadlineExceeded = new AtomicLong();
+    private volatile int limit;
+    private double preciseLimit;
+    private double baselineNanosPerIteration;
+
+    /**
+     * Create a new limiter starting at one computation per available core, which may shrink to 1 and grow up to
+     * 4 times the available cores.
+     */
+    public AdaptiveConcurrencyLimiter() {
+        this(BkdfExecutors.availableCores(), 1, BkdfExecutors.availableCores() * 4, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Create a new limiter
+     *
+     * @param initialLimit concurrent computations allowed at the start
+     * @param minLimit     lower bound of the limit; must be at least 1
+     * @param maxLimit     upper bound of the limit
+     * @param tolerance    factor by which a computation may be slower than the baseline; must be greater than 1
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this(initialLimit, minLimit, maxLimit, tolerance, Ticker.SYSTEM);
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, Ticker ticker) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        if (!(tolerance > 1.0)) {
+            throw new IllegalArgumentException("tolerance must be greater than 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.ticker = ticker;
+        this.limit = initialLimit;
+        this.preciseLimit = initialLimit;
+    }
+
+    /**
+     * Set a deadline for all computations started by the current thread (including ones submitted by the async and
+     * batch methods of the limited wrappers) until the returned scope is closed:
+     *
+     * <pre>
+     *     try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.withDeadline(2, TimeUnit.SECONDS)) {
+     *         verifier.verify(password, hash);
+     *     }
+     * </pre>
+     *
+     * @param timeout from now
+     * @param unit    of timeout
+     * @return scope which restores the previous deadline on close
+     */
+    public static DeadlineScope withDeadline(long timeout, TimeUnit unit) {
+        return withDeadlineAt(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Same as {@link #withDeadline(long, TimeUnit)} with an absolute deadline
+     *
+     * @param deadlineNanoTime compared to {@link System#nanoTime()}
+     * @return scope which restores the previous deadline on close
+     */
+    public static DeadlineScope withDeadlineAt(long deadlineNanoTime) {
+        return restoreDeadline(deadlineNanoTime);
+    }
+
+    /**
+     * The deadline of the current thread
+     *
+     * @return absolute deadline or null if none is set
+     */
+    static Long currentDeadline() {
+        return DEADLINE.get();
+    }
+
+    /**
+     * Set given deadline (which may be null) for the current thread, used to carry a deadline to another thread
+     */
+    static DeadlineScope restoreDeadline(Long deadlineNanoTime) {
+        DeadlineScope scope = new DeadlineScope(DEADLINE.get());
+        if (deadlineNanoTime == null) {
+            DEADLINE.remove();
+        } else {
+            DEADLINE.set(deadlineNanoTime);
+        }
+        return scope;
+    }
+
+    /**
+     * Wrap given task so it runs with the deadline of the current thread
+     */
+    static <T> Callable<T> propagateDeadline(final Callable<T> task) {
+        final Long deadline = currentDeadline();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try (DeadlineScope ignored = restoreDeadline(deadline)) {
+                    return task.call();
+                }
+            }
+        };
+    }
+
+    /**
+     * Acquire a permit for a single computation. Every successful call must be followed by exactly one call of
+     * {@link #release(long, long)}.
+     *
+     * @return start time to pass to {@link #release(long, long)}
+     * @throws DeadlineExceededException        if the deadline of the current thread passed
+     * @throws ConcurrencyLimitExceededException if the current limit is reached
+     */
+    public long acquire() {
+        Long deadline = DEADLINE.get();
+        if (deadline != null && System.nanoTime() - deadline >= 0) {
+            deadlineExceeded.incrementAndGet();
+            throw new DeadlineExceededException();
+        }
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                throw new ConcurrencyLimitExceededException(limit);
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return ticker.nanos();
+    }
+
+    /**
+     * Release a permit and adapt the limit to the duration of the computation.
+     *
+     * @param start      as returned by {@link #acquire()}
+     * @param iterations amount of bcrypt iterations of the computation (i.e. 2^cost); 0 if it failed, so the duration
+     *                   is not used for adaption
+     */
+    public void release(long start, long iterations) {
+        long nanos = ticker.nanos() - start;
+        int concurrency = inFlight.getAndDecrement();
+        if (iterations > 0) {
+            adapt((double) nanos / iterations, concurrency);
+        }
+    }
+
+    private synchronized void adapt(double nanosPerIteration, int concurrency) {
+        if (baselineNanosPerIteration == 0 || nanosPerIteration < baselineNanosPerIteration) {
+            baselineNanosPerIteration = nanosPerIteration;
+        } else {
+            baselineNanosPerIteration += (nanosPerIteration - baselineNanosPerIteration) * BASELINE_DRIFT;
+        }
+
+        if (nanosPerIteration > baselineNanosPerIteration * tolerance) {
+            preciseLimit = Math.max(minLimit, preciseLimit * BACKOFF_RATIO);
+        } else if (concurrency * 2 >= limit) {
+            preciseLimit = Math.min(maxLimit, preciseLimit + 1.0 / preciseLimit);
+        }
+        limit = (int) preciseLimit;
+    }
+
+    /**
+     * The current limit of concurrent computations
+     *
+     * @return limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Get a snapshot of the counters of this limiter
+     *
+     * @return current stats
+     */
+    public Stats getStats() {
+        double baseline;
+        synchronized (this) {
+            baseline = baselineNanosPerIteration;
+        }
+        return new Stats(limit, inFlight.get(), rejected.get(), deadlineExceeded.get(), baseline);
+    }
+
+    /**
+     * Restores the previous deadline of the thread on close, see {@link #withDeadline(long, TimeUnit)}
+     */
+    public static final class DeadlineScope implements AutoCloseable {
+        private final Long previous;
+
+        private DeadlineScope(Long previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                DEADLINE.remove();
+            } else {
+                DEADLINE.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Thrown if a computation was rejected because the current limit of concurrent computations is reached
+     */
+    public static final class ConcurrencyLimitExceededException extends RejectedExecutionException {
+        ConcurrencyLimitExceededException(int limit) {
+            super("bkdf concurrency limit of " + limit + " reached");
+        }
+    }
+
+    /**
+     * Thrown if a computation was not started because the deadline of the caller passed
+     */
+    public static final class DeadlineExceededException extends RejectedExecutionException {
+        DeadlineExceededException() {
+            super("deadline exceeded before bkdf computation started");
+        }
+    }
+
+    /**
+     * Counters of an {@link AdaptiveConcurrencyLimiter}
+     */
+    public static final class Stats {
+        /**
+         * The current limit
+         */
+        public final int limit;
+        /**
+         * Currently running computations
+         */
+        public final int inFlight;
+        /**
+         * Computations rejected because the limit was reached
+         */
+        public final long rejected;
+        /**
+         * Computations not started because the deadline passed
+         */
+        public final long deadlineExceeded;
+        /**
+         * The baseline duration per bcrypt iteration without contention
+         */
+        public final double baselineNanosPerIteration;
+
+        Stats(int limit, int inFlight, long rejected, long deadlineExceeded, double baselineNanosPerIteration) {
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.rejected = rejected;
+            this.deadlineExceeded = deadlineExceeded;
+            this.baselineNanosPerIteration = baselineNanosPerIteration;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{limit=" + limit + ", inFlight=" + inFlight + ", rejected=" + rejected
+                    + ", deadlineExceeded=" + deadlineExceeded + ", baselineNanosPerIteration=" + baselineNanosPerIteration + '}';
+        }
+    }
+}
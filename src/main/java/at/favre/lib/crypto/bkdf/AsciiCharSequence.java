@@ -0,0 +1,61 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only {@link CharSequence} view of the remaining bytes of a {@link ByteBuffer} with one char per byte (i.e.
+ * ASCII, or ISO-8859-1 for bytes above 0x7F). Used to parse a stored hash received as bytes, e.g. from a direct buffer,
+ * with the same code as a String without copying it.
+ * <p>
+ * The view is fixed to the position and limit of the buffer at creation, later changes of the content are visible.
+ */
+final class AsciiCharSequence implements CharSequence {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Create a view of the remaining bytes of given buffer
+     *
+     * @param buffer to wrap, its position is not changed
+     */
+    AsciiCharSequence(ByteBuffer buffer) {
+        this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    private AsciiCharSequence(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " out of length " + length);
+        }
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + " to " + end + " out of length " + length);
+        }
+        return new AsciiCharSequence(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
@@ -13,22 +13,25 @@ public final class BKDF {
 
     /**
      * Create a password hasher to use BKDF password hash scheme.
-     * Uses default version schema and {@link SecureRandom}
+     * Uses default version schema and the shared {@link StripedSaltSupplier}
      *
      * @return new instance
      */
     public static PasswordHasher createPasswordHasher() {
-        return createPasswordHasher(Version.DEFAULT_VERSION, new SecureRandom());
+        return createPasswordHasher(Version.DEFAULT_VERSION);
     }
 
     /**
      * Create a password hasher to use BKDF password hash scheme with given config version.
      *
+     * Uses the shared {@link StripedSaltSupplier}, so many hashers can be created and used concurrently without
+     * contending on a single {@link SecureRandom}.
+     *
      * @param version used config version
      * @return new instance
      */
     public static PasswordHasher createPasswordHasher(Version version) {
-        return createPasswordHasher(version, new SecureRandom());
+        return createPasswordHasher(version, StripedSaltSupplier.shared());
     }
 
     /**
@@ -42,6 +45,17 @@ public final class BKDF {
         return new PasswordHasher.Default(version, secureRandom);
     }
 
+    /**
+     * Create a password hasher to use BKDF password hash scheme with given config version and source of salts.
+     *
+     * @param version      used config version
+     * @param saltSupplier to draw the salts from, e.g. {@link StripedSaltSupplier}
+     * @return new instance
+     */
+    public static PasswordHasher createPasswordHasher(Version version, SaltSupplier saltSupplier) {
+        return new PasswordHasher.Default(version, saltSupplier);
+    }
+
     /**
      * Create a new instance of password hash verifier.
      * <p>
@@ -53,6 +67,29 @@ public final class BKDF {
         return new PasswordHashVerifier.Default(createPasswordHashUpgrader());
     }
 
+    /**
+     * Create a new instance of password hash verifier with a hash policy, used by
+     * {@link PasswordHashVerifier#verifyAndRehash(char[], String)} to upgrade weak hashes on sign in.
+     *
+     * @param hashPolicy the target configuration of the stored hashes
+     * @return new instance
+     */
+    public static PasswordHashVerifier createPasswordHashVerifier(HashPolicy hashPolicy) {
+        return new PasswordHashVerifier.Default(createPasswordHashUpgrader(), hashPolicy, StripedSaltSupplier.shared());
+    }
+
+    /**
+     * Create a new instance of password hash verifier which rejects stored hashes exceeding given limits before doing
+     * any bcrypt work, see {@link VerificationLimits}.
+     *
+     * @param hashPolicy         the target configuration of the stored hashes; may be null
+     * @param verificationLimits the maximum work a single verification may cause
+     * @return new instance
+     */
+    public static PasswordHashVerifier createPasswordHashVerifier(HashPolicy hashPolicy, VerificationLimits verificationLimits) {
+        return new PasswordHashVerifier.Default(createPasswordHashUpgrader(), hashPolicy, verificationLimits, StripedSaltSupplier.shared());
+    }
+
     /**
      * Create a password hasher upgrader, which can be used to upgrade the cost factor of existing password hashes.
      *
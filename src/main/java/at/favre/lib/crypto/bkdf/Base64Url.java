@@ -0,0 +1,278 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base64 codec for the small, fixed-size BKDF messages (see {@link HashData#getAsEncodedMessageFormat()}) which decodes
+ * and encodes directly between caller provided buffers without intermediate objects.
+ * <p>
+ * Encoding uses the rfc4648 "URL and Filename Safe Alphabet" with padding, exactly like
+ * {@link at.favre.lib.bytes.Bytes#encodeBase64Url()}. Decoding is as lenient as
+ * {@link at.favre.lib.bytes.Bytes#parseBase64(CharSequence)}: both the standard and url-safe alphabet are accepted,
+ * padding is optional and whitespace is ignored.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Base64Url {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] ALPHABET_ASCII = new String(ALPHABET).getBytes(StandardCharsets.US_ASCII);
+    private static final byte INVALID = -1;
+    private static final byte SKIP = -2;
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, INVALID);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+        }
+        DECODE_TABLE['+'] = 62;
+        DECODE_TABLE['/'] = 63;
+        DECODE_TABLE[' '] = SKIP;
+        DECODE_TABLE['\t'] = SKIP;
+        DECODE_TABLE['\n'] = SKIP;
+        DECODE_TABLE['\r'] = SKIP;
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * The length of the encoded (padded) output for given amount of bytes
+     *
+     * @param byteLength of the raw data
+     * @return char length
+     */
+    public static int encodedLength(int byteLength) {
+        return ((byteLength + 2) / 3) * 4;
+    }
+
+    /**
+     * The maximum length of the decoded output of given encoded string. If the encoded string does not contain
+     * whitespace this is the exact length.
+     *
+     * @param encoded base64 string
+     * @return max byte length
+     */
+    public static int maxDecodedLength(CharSequence encoded) {
+        return (int) (trimmedLength(encoded) * 6L / 8L);
+    }
+
+    /**
+     * Decode given string to a new array
+     *
+     * @param encoded base64 (url-safe or standard, padding optional)
+     * @return decoded bytes
+     * @throws IllegalArgumentException if the input is not valid base64
+     */
+    public static byte[] decode(CharSequence encoded) {
+        byte[] out = new byte[maxDecodedLength(encoded)];
+        int length = decode(encoded, out, 0);
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Decode given string directly into given (reusable) array.
+     *
+     * @param encoded   base64 (url-safe or standard, padding optional)
+     * @param dst       target array with at least {@link #maxDecodedLength(CharSequence)} bytes after offset
+     * @param dstOffset where to start writing
+     * @return number of written bytes
+     * @throws IllegalArgumentException       if the input is not valid base64
+     * @throws ArrayIndexOutOfBoundsException if the target is too small
+     */
+    public static int decode(CharSequence encoded, byte[] dst, int dstOffset) {
+        int length = decode(encoded, dst, dstOffset, Integer.MAX_VALUE);
+        if (length < 0) {
+            throw new IllegalArgumentException("invalid base64 encoding");
+        }
+        return length;
+    }
+
+    /**
+     * Decode only the start of given string, stopping as soon as at least given amount of bytes are written. Since
+     * decoding happens in groups of 3 bytes, up to 2 more bytes than requested may be written.
+     *
+     * @param encoded  base64 (url-safe or standard, padding optional)
+     * @param dst      target array with at least <code>minBytes + 2</code> bytes
+     * @param minBytes stop after this many bytes
+     * @return number of written bytes (less than minBytes if the input is shorter) or -1 if the prefix is not valid base64
+     */
+    static int decodePrefix(CharSequence encoded, byte[] dst, int minBytes) {
+        return decode(encoded, dst, 0, minBytes);
+    }
+
+    /**
+     * Get the 6 bit value of a single base64 character (url-safe or standard).
+     *
+     * @param c to decode
+     * @return value between 0 and 63 or a negative value if not part of the alphabet
+     */
+    static int decodeChar(char c) {
+        return c < 128 ? DECODE_TABLE[c] : INVALID;
+    }
+
+    private static int decode(CharSequence encoded, byte[] dst, int dstOffset, int minBytes) {
+        int limit = trimmedLength(encoded);
+        int out = dstOffset;
+        int word = 0;
+        int charCount = 0;
+
+        for (int i = 0; i < limit; i++) {
+            int bits = decodeChar(encoded.charAt(i));
+            if (bits == SKIP) {
+                continue;
+            }
+            if (bits == INVALID) {
+                return -1;
+            }
+            word = (word << 6) | bits;
+            if ((++charCount & 3) == 0) {
+                dst[out++] = (byte) (word >> 16);
+                dst[out++] = (byte) (word >> 8);
+                dst[out++] = (byte) word;
+                if (out - dstOffset >= minBytes) {
+                    return out - dstOffset;
+                }
+            }
+        }
+
+        switch (charCount & 3) {
+            case 1:
+                return -1;
+            case 2:
+                dst[out++] = (byte) (word >> 4);
+                break;
+            case 3:
+                dst[out++] = (byte) (word >> 10);
+                dst[out++] = (byte) (word >> 2);
+                break;
+            default:
+                break;
+        }
+        return out - dstOffset;
+    }
+
+    private static int trimmedLength(CharSequence encoded) {
+        int limit = encoded.length();
+        while (limit > 0) {
+            char c = encoded.charAt(limit - 1);
+            if (c != '=' && c != '\n' && c != '\r' && c != ' ' && c != '\t') {
+                break;
+            }
+            limit--;
+        }
+        return limit;
+    }
+
+    /**
+     * Encode given bytes to a url-safe, padded base64 string.
+     *
+     * @param src    data
+     * @param offset where to start reading
+     * @param length how many bytes to encode
+     * @return encoded string
+     */
+    public static String encode(byte[] src, int offset, int length) {
+        // ascii bytes instead of char[] so compact strings (jdk9+) can use the array without compressing it first
+        byte[] out = new byte[encodedLength(length)];
+        int o = 0;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int word = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+            out[o++] = ALPHABET_ASCII[word >>> 18];
+            out[o++] = ALPHABET_ASCII[(word >>> 12) & 0x3F];
+            out[o++] = ALPHABET_ASCII[(word >>> 6) & 0x3F];
+            out[o++] = ALPHABET_ASCII[word & 0x3F];
+        }
+        if (i < end) {
+            int word = (src[i] & 0xFF) << 16 | (i + 1 < end ? (src[i + 1] & 0xFF) << 8 : 0);
+            out[o++] = ALPHABET_ASCII[word >>> 18];
+            out[o++] = ALPHABET_ASCII[(word >>> 12) & 0x3F];
+            out[o++] = i + 1 < end ? ALPHABET_ASCII[(word >>> 6) & 0x3F] : (byte) '=';
+            out[o] = '=';
+        }
+        return new String(out, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encode given bytes to url-safe, padded base64 directly into given array.
+     *
+     * @param src       data
+     * @param offset    where to start reading
+     * @param length    how many bytes to encode
+     * @param dst       target with at least {@link #encodedLength(int)} chars after offset
+     * @param dstOffset where to start writing
+     * @return number of written chars
+     */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        int out = dstOffset;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int word = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+            dst[out++] = ALPHABET[word >>> 18];
+            dst[out++] = ALPHABET[(word >>> 12) & 0x3F];
+            dst[out++] = ALPHABET[(word >>> 6) & 0x3F];
+            dst[out++] = ALPHABET[word & 0x3F];
+        }
+        int remaining = end - i;
+        if (remaining == 1) {
+            int word = (src[i] & 0xFF) << 16;
+            dst[out++] = ALPHABET[word >>> 18];
+            dst[out++] = ALPHABET[(word >>> 12) & 0x3F];
+            dst[out++] = '=';
+            dst[out++] = '=';
+        } else if (remaining == 2) {
+            int word = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8;
+            dst[out++] = ALPHABET[word >>> 18];
+            dst[out++] = ALPHABET[(word >>> 12) & 0x3F];
+            dst[out++] = ALPHABET[(word >>> 6) & 0x3F];
+            dst[out++] = '=';
+        }
+        return out - dstOffset;
+    }
+
+    /**
+     * Encode given bytes to url-safe, padded base64 and append it to given builder.
+     *
+     * @param src    data
+     * @param offset where to start reading
+     * @param length how many bytes to encode
+     * @param dst    to append to
+     * @return the passed builder
+     */
+    public static StringBuilder encode(byte[] src, int offset, int length, StringBuilder dst) {
+        dst.ensureCapacity(dst.length() + encodedLength(length));
+        try {
+            encode(src, offset, length, (Appendable) dst);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return dst;
+    }
+
+    /**
+     * Encode given bytes to url-safe, padded base64 and append it to given appendable (e.g. a writer).
+     *
+     * @param src    data
+     * @param offset where to start reading
+     * @param length how many bytes to encode
+     * @param dst    to append to
+     * @throws IOException if the appendable throws
+     */
+    public static void encode(byte[] src, int offset, int length, Appendable dst) throws IOException {
+        int end = offset + length;
+        for (int i = offset; i < end; i += 3) {
+            int remaining = end - i;
+            int word = (src[i] & 0xFF) << 16
+                    | (remaining > 1 ? (src[i + 1] & 0xFF) << 8 : 0)
+                    | (remaining > 2 ? (src[i + 2] & 0xFF) : 0);
+            dst.append(ALPHABET[word >>> 18]);
+            dst.append(ALPHABET[(word >>> 12) & 0x3F]);
+            dst.append(remaining > 1 ? ALPHABET[(word >>> 6) & 0x3F] : '=');
+            dst.append(remaining > 2 ? ALPHABET[word & 0x3F] : '=');
+        }
+    }
+}
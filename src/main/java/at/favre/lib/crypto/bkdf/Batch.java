@@ -0,0 +1,129 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the same operation on every element of a batch in parallel and collects the results in input order.
+ * <p>
+ * On a {@link ForkJoinPool} the input range is recursively split down to single elements (every element is a full
+ * bcrypt computation, so there is no point in coarser leaves). Any other executor gets one task per element.
+ */
+final class Batch {
+
+    private Batch() {
+    }
+
+    /**
+     * The operation to apply to every element
+     *
+     * @param <I> input type
+     * @param <O> output type
+     */
+    interface Operation<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * Apply given operation to all inputs.
+     *
+     * @param inputs    to process
+     * @param operation to apply to every input
+     * @param executor  to run on
+     * @param <I>       input type
+     * @param <O>       output type
+     * @return one result per input in the same order
+     */
+    static <I, O> List<BatchResult<O>> execute(List<? extends I> inputs, Operation<I, O> operation, ExecutorService executor) {
+        if (inputs.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<? extends I> inputCopy = new ArrayList<>(inputs);
+        @SuppressWarnings("unchecked")
+        BatchResult<O>[] results = new BatchResult[inputCopy.size()];
+
+        if (executor instanceof ForkJoinPool) {
+            ((ForkJoinPool) executor).invoke(new RangeTask<>(inputCopy, operation, results, 0, results.length));
+        } else {
+            executeOnExecutor(inputCopy, operation, executor, results);
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    private static <I, O> void executeOnExecutor(List<? extends I> inputs, final Operation<I, O> operation, ExecutorService executor, BatchResult<O>[] results) {
+        List<Future<O>> futures = new ArrayList<>(inputs.size());
+        for (final I input : inputs) {
+            try {
+                futures.add(executor.submit(new Callable<O>() {
+                    @Override
+                    public O call() throws Exception {
+                        return operation.apply(input);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                futures.add(null);
+                results[futures.size() - 1] = BatchResult.failure(e);
+            }
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Future<O> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                results[i] = BatchResult.success(future.get());
+            } catch (ExecutionException e) {
+                results[i] = BatchResult.failure(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                results[i] = BatchResult.failure(e);
+            }
+        }
+    }
+
+    private static <I, O> BatchResult<O> applySafe(Operation<I, O> operation, I input) {
+        try {
+            return BatchResult.success(operation.apply(input));
+        } catch (Exception e) {
+            return BatchResult.failure(e);
+        }
+    }
+
+    private static final class RangeTask<I, O> extends RecursiveAction {
+        private final List<? extends I> inputs;
+        private final Operation<I, O> operation;
+        private final BatchResult<O>[] results;
+        private final int from;
+        private final int to;
+
+        RangeTask(List<? extends I> inputs, Operation<I, O> operation, BatchResult<O>[] results, int from, int to) {
+            this.inputs = inputs;
+            this.operation = operation;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = applySafe(operation, inputs.get(from));
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask<>(inputs, operation, results, from, mid),
+                        new RangeTask<>(inputs, operation, results, mid, to));
+            }
+        }
+    }
+}
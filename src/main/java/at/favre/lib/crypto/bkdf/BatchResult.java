@@ -0,0 +1,79 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.Objects;
+
+/**
+ * The outcome of a single element of a batch operation, e.g. {@link PasswordHashVerifier#verifyAll(java.util.List)}.
+ * Either holds the computed value or the exception which was thrown while processing the element, so that a single
+ * failure does not abort the whole batch.
+ *
+ * @param <T> type of the result value
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BatchResult<T> {
+    private final T value;
+    private final Throwable error;
+
+    private BatchResult(T value, Throwable error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    static <T> BatchResult<T> success(T value) {
+        return new BatchResult<>(value, null);
+    }
+
+    static <T> BatchResult<T> failure(Throwable error) {
+        return new BatchResult<>(null, Objects.requireNonNull(error));
+    }
+
+    /**
+     * If this element was processed without error
+     *
+     * @return true if {@link #get()} can be called
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Get the result value of this element
+     *
+     * @return value
+     * @throws IllegalStateException if processing failed; the original exception is set as cause
+     */
+    public T get() {
+        if (error != null) {
+            throw new IllegalStateException("batch element failed: " + error.getMessage(), error);
+        }
+        return value;
+    }
+
+    /**
+     * Get the exception thrown while processing this element
+     *
+     * @return the error or null if successful
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BatchResult<?> that = (BatchResult<?>) o;
+        return Objects.equals(value, that.value) &&
+                Objects.equals(error, that.error);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(value, error);
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "BatchResult{value=" + value + "}" : "BatchResult{error=" + error + "}";
+    }
+}
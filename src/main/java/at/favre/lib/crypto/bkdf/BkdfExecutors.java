@@ -0,0 +1,120 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for executors suited to run CPU bound BKDF work (i.e. bcrypt) off the caller's thread, see e.g.
+ * {@link PasswordHashVerifier#verifyAsync(char[], String)}.
+ * <p>
+ * Hashing executors have a fixed amount of threads sized to the available cores and a bounded queue. If the queue is
+ * full, new tasks are rejected immediately with a {@link RejectedExecutionException} instead of piling up unbounded
+ * latency, so callers can fail fast (e.g. respond with HTTP 503).
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BkdfExecutors {
+
+    /**
+     * Amount of tasks per thread the default executor can queue before rejecting
+     */
+    public static final int DEFAULT_QUEUE_SIZE_PER_THREAD = 64;
+
+    private BkdfExecutors() {
+    }
+
+    /**
+     * Get the lazily created, shared hashing executor of this library. It uses daemon threads and is never shut down.
+     * See {@link #newHashingExecutor()} for the configuration.
+     *
+     * @return shared instance
+     */
+    public static ExecutorService sharedHashingExecutor() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Get the lazily created, shared fork/join pool used by the batch operations (e.g.
+     * {@link PasswordHashVerifier#verifyAll(java.util.List)}) if no executor is given. Its parallelism equals the
+     * available cores.
+     *
+     * @return shared instance
+     */
+    public static ForkJoinPool sharedBatchPool() {
+        return SharedBatchPoolHolder.INSTANCE;
+    }
+
+    /**
+     * Create a new hashing executor with one thread per available core and a queue of
+     * {@link #DEFAULT_QUEUE_SIZE_PER_THREAD} tasks per thread.
+     * <p>
+     * The core count is taken from {@link Runtime#availableProcessors()} which respects cgroup cpu quotas on JDK 10+
+     * (and 8u191+), so the executor will not oversubscribe a throttled container.
+     *
+     * @return new instance; the caller is responsible for shutting it down
+     */
+    public static ExecutorService newHashingExecutor() {
+        int threads = availableCores();
+        return newHashingExecutor(threads, threads * DEFAULT_QUEUE_SIZE_PER_THREAD);
+    }
+
+    /**
+     * Create a new hashing executor with given amount of threads and queue capacity.
+     *
+     * @param threads       fixed amount of worker threads; must be at least 1
+     * @param queueCapacity how many tasks may wait for a free thread before new ones are rejected; must be at least 1
+     * @return new instance; the caller is responsible for shutting it down
+     */
+    public static ExecutorService newHashingExecutor(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("threads and queue capacity must be at least 1");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new HashingThreadFactory(), new RejectWhenFull());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static int availableCores() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class SharedHolder {
+        private static final ExecutorService INSTANCE = newHashingExecutor();
+    }
+
+    private static final class SharedBatchPoolHolder {
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool(availableCores());
+    }
+
+    private static final class HashingThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+        private final int poolId = POOL_COUNTER.incrementAndGet();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "bkdf-hashing-" + poolId + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class RejectWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("bkdf hashing executor is shut down");
+            }
+            throw new RejectedExecutionException("bkdf hashing executor saturated: all " + executor.getMaximumPoolSize()
+                    + " threads busy and " + executor.getQueue().size() + " tasks queued");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.Objects;
+
+/**
+ * Global registration of the {@link BkdfListener} called by all default implementations of this library.
+ * <p>
+ * By default {@link BkdfListener#NOOP} is registered, in which case the instrumentation is reduced to a reference
+ * comparison per phase which the JIT can predict (no timestamps, no calls).
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BkdfInstrumentation {
+    private static volatile BkdfListener listener = BkdfListener.NOOP;
+
+    private BkdfInstrumentation() {
+    }
+
+    /**
+     * Register the listener to notify; replaces the current one.
+     *
+     * @param listener to register; use {@link BkdfListener#NOOP} to disable
+     */
+    public static void setListener(BkdfListener listener) {
+        BkdfInstrumentation.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * The currently registered listener
+     *
+     * @return listener; never null
+     */
+    public static BkdfListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Take the start timestamp of a phase or operation.
+     *
+     * @return current nano time or 0 if instrumentation is disabled
+     */
+    static long start() {
+        return listener != BkdfListener.NOOP ? System.nanoTime() : 0L;
+    }
+
+    static void phase(BkdfListener.Operation operation, BkdfListener.Phase phase, Version version, int costFactor, long start) {
+        BkdfListener current = listener;
+        if (current != BkdfListener.NOOP && start != 0L) {
+            current.onPhase(operation, phase, version, costFactor, System.nanoTime() - start);
+        }
+    }
+
+    static void operation(BkdfListener.Operation operation, Version version, int costFactor, int chainLength, long start) {
+        BkdfListener current = listener;
+        if (current != BkdfListener.NOOP && start != 0L) {
+            current.onOperation(operation, version, costFactor, chainLength, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package at.favre.lib.crypto.bkdf;
+
+/**
+ * Service provider interface to observe the timing of BKDF operations, e.g. to export metrics. Register an
+ * implementation with {@link BkdfInstrumentation#setListener(BkdfListener)}; a ready to use implementation is
+ * {@link HistogramRecorder}.
+ * <p>
+ * The default implementations report the duration of every phase (see {@link Phase}) while it runs and the duration of
+ * the whole operation when it completes successfully. Implementations are called on the hashing threads, so they
+ * must be thread-safe, fast and must not throw.
+ */
+public interface BkdfListener {
+
+    /**
+     * Listener which ignores all events. While it is registered, no timestamps are taken at all.
+     */
+    BkdfListener NOOP = new BkdfListener() {
+        @Override
+        public void onPhase(Operation operation, Phase phase, Version version, int costFactor, long durationNanos) {
+        }
+
+        @Override
+        public void onOperation(Operation operation, Version version, int costFactor, int chainLength, long durationNanos) {
+        }
+    };
+
+    /**
+     * The type of the public operation
+     */
+    enum Operation {
+        /**
+         * Creating a new password hash, see {@link PasswordHasher}
+         */
+        HASH,
+        /**
+         * Verifying a password hash (plain or compound), see {@link PasswordHashVerifier}
+         */
+        VERIFY,
+        /**
+         * Upgrading a password hash without password, see {@link PasswordHashUpgrader}
+         */
+        UPGRADE,
+        /**
+         * Deriving key material, see {@link KeyDerivationFunction}
+         */
+        DERIVE
+    }
+
+    /**
+     * A step within an operation
+     */
+    enum Phase {
+        /**
+         * Decoding and parsing of the stored message
+         */
+        PARSE,
+        /**
+         * HKDF extract of the password (or previous hash in a compound chain)
+         */
+        HKDF_EXTRACT,
+        /**
+         * The bcrypt computation
+         */
+        BCRYPT,
+        /**
+         * Deriving the salt of a link in a compound chain
+         */
+        DERIVE_SALT,
+        /**
+         * HKDF expand of the stretched key material
+         */
+        HKDF_EXPAND,
+        /**
+         * Encoding of the created message
+         */
+        ENCODE
+    }
+
+    /**
+     * Called after a phase completed. Phases of compound chains are reported once per link.
+     *
+     * @param operation     the phase is part of
+     * @param phase         which completed
+     * @param version       used in this phase
+     * @param costFactor    used in this phase (log2)
+     * @param durationNanos wall clock duration of the phase
+     */
+    void onPhase(Operation operation, Phase phase, Version version, int costFactor, long durationNanos);
+
+    /**
+     * Called after an operation completed successfully.
+     *
+     * @param operation     which completed
+     * @param version       of the (last) config of the hash
+     * @param costFactor    of the (last) config of the hash (log2)
+     * @param chainLength   amount of configs of the hash; 1 if it is not a compound hash
+     * @param durationNanos wall clock duration of the whole operation
+     */
+    void onOperation(Operation operation, Version version, int costFactor, int chainLength, long durationNanos);
+}
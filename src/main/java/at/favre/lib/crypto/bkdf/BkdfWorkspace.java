@@ -0,0 +1,291 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable scratch memory for repeated hash, verify and derive operations: the bcrypt state (P-array and S-boxes),
+ * reusable HMACs and buffers for the encoded password, the extracted key, salt, hash and message.
+ * <p>
+ * Pass a workspace to e.g. {@link PasswordHashVerifier#verify(char[], String, BkdfWorkspace)} to avoid the
+ * temporary allocations of an operation. The bcrypt state is only used by the built-in bcrypt, selected with the
+ * system property <code>at.favre.lib.crypto.bkdf.useEksBlowfish=true</code>: then verifying a "Format 2" hash of a
+ * registered {@link Version} allocates no heap memory at all in the steady state, otherwise the bcrypt library
+ * still allocates its own state. All secret data in the workspace is wiped at the end of every operation.
+ * <p>
+ * The workspace is also the only place a password given as {@link CharSequence} or utf-8 {@link ByteBuffer} (e.g.
+ * {@link PasswordHasher#hash(ByteBuffer, int, BkdfWorkspace)}) is encoded or copied to, there is no other copy.
+ * <pre>
+ *     BkdfWorkspace workspace = BkdfWorkspace.threadLocal();
+ *     boolean verified = verifier.verify(password, storedHash, workspace);
+ * </pre>
+ * <p>
+ * This class is not thread-safe: a workspace must only be used by one operation at a time, e.g. one per worker
+ * thread, see {@link #threadLocal()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BkdfWorkspace {
+    /**
+     * Max length of a "Format 1" message: version, cost, 16 byte salt and 24 byte hash
+     */
+    static final int MAX_MESSAGE_LENGTH_BYTE = 2 + HashData.SALT_LENGTH_BYTE + Version.MAX_BCRYPT_HASH_LENGTH_BYTE;
+
+    private static final ThreadLocal<BkdfWorkspace> THREAD_LOCAL = new ThreadLocal<BkdfWorkspace>() {
+        @Override
+        protected BkdfWorkspace initialValue() {
+            return new BkdfWorkspace();
+        }
+    };
+
+    final EksBlowfish.State bcrypt = new EksBlowfish.State();
+    final HashMessageInspector inspector = new HashMessageInspector();
+    // every char is encoded to at most 3 utf-8 bytes (surrogate pairs to 4 bytes for 2 chars)
+    final byte[] passwordBytes = new byte[PasswordHasher.MAX_PASSWORD_LENGTH * 3];
+    final byte[] extracted = new byte[EksBlowfish.MAX_KEY_LENGTH_BYTE];
+    final byte[] salt = new byte[HashData.SALT_LENGTH_BYTE];
+    final byte[] hash = new byte[Version.MAX_BCRYPT_HASH_LENGTH_BYTE];
+    final byte[] message = new byte[MAX_MESSAGE_LENGTH_BYTE];
+    // arrays instead of maps, since iterating them in wipe() must not allocate
+    private KeyedHmac[] extractors = new KeyedHmac[0];
+    private KeyedHmac[] expanders = new KeyedHmac[0];
+
+    /**
+     * Create a new workspace. It needs about 5 KB of memory.
+     */
+    public BkdfWorkspace() {
+    }
+
+    /**
+     * Get the workspace of the current thread, lazily created on first use.
+     *
+     * @return workspace only used by the calling thread
+     */
+    public static BkdfWorkspace threadLocal() {
+        return THREAD_LOCAL.get();
+    }
+
+    /**
+     * Get the reusable HMAC for HKDF extract with given digest, lazily created on first use
+     *
+     * @param digestAlgorithm e.g. "SHA-512"
+     * @return hmac keyed with the default salt; its key must not be changed
+     */
+    KeyedHmac extractor(String digestAlgorithm) {
+        KeyedHmac extractor = find(extractors, digestAlgorithm);
+        if (extractor == null) {
+            extractor = KeyedHmac.reusable(digestAlgorithm);
+            extractors = append(extractors, extractor);
+        }
+        return extractor;
+    }
+
+    /**
+     * Get the reusable HMAC for HKDF expand with given digest, lazily created on first use
+     *
+     * @param digestAlgorithm e.g. "SHA-512"
+     * @return hmac; must be initialized with the pseudo random key before use
+     */
+    KeyedHmac expander(String digestAlgorithm) {
+        KeyedHmac expander = find(expanders, digestAlgorithm);
+        if (expander == null) {
+            expander = KeyedHmac.reusable(digestAlgorithm);
+            expanders = append(expanders, expander);
+        }
+        return expander;
+    }
+
+    private static KeyedHmac find(KeyedHmac[] hmacs, String digestAlgorithm) {
+        for (KeyedHmac hmac : hmacs) {
+            if (hmac.digestAlgorithm().equals(digestAlgorithm)) {
+                return hmac;
+            }
+        }
+        return null;
+    }
+
+    private static KeyedHmac[] append(KeyedHmac[] hmacs, KeyedHmac hmac) {
+        KeyedHmac[] result = Arrays.copyOf(hmacs, hmacs.length + 1);
+        result[hmacs.length] = hmac;
+        return result;
+    }
+
+    /**
+     * Encode given password to utf-8 into {@link #passwordBytes}. Like {@link String#getBytes(java.nio.charset.Charset)},
+     * unpaired surrogates are replaced with '?'.
+     *
+     * @param password at most {@link PasswordHasher#MAX_PASSWORD_LENGTH} chars
+     * @return amount of written bytes
+     */
+    int encodePassword(char[] password) {
+        checkPasswordLength(password.length);
+        int o = 0;
+        for (int i = 0; i < password.length; ) {
+            int codePoint = Character.codePointAt(password, i);
+            i += Character.charCount(codePoint);
+            o = putUtf8(codePoint, o);
+        }
+        return o;
+    }
+
+    /**
+     * Same as {@link #encodePassword(char[])} but reads the chars directly from given sequence, e.g. a
+     * {@link java.nio.CharBuffer} (without changing its position).
+     *
+     * @param password at most {@link PasswordHasher#MAX_PASSWORD_LENGTH} chars
+     * @return amount of written bytes
+     */
+    int encodePassword(CharSequence password) {
+        int length = password.length();
+        checkPasswordLength(length);
+        int o = 0;
+        for (int i = 0; i < length; ) {
+            int codePoint = Character.codePointAt(password, i);
+            i += Character.charCount(codePoint);
+            o = putUtf8(codePoint, o);
+        }
+        return o;
+    }
+
+    /**
+     * Copy the remaining bytes of given already utf-8 encoded password into {@link #passwordBytes} without changing
+     * the position of the buffer. The bytes are used as they are, so they must be well-formed utf-8 (the same as
+     * rejected by a {@link java.nio.charset.CharsetDecoder} reporting malformed input); otherwise the password would
+     * not match the hash of any char[] password.
+     *
+     * @param utf8Password encoding of at most {@link PasswordHasher#MAX_PASSWORD_LENGTH} chars
+     * @return amount of written bytes
+     * @throws IllegalArgumentException if the password is too long or not well-formed utf-8
+     */
+    int encodePassword(ByteBuffer utf8Password) {
+        int length = utf8Password.remaining();
+        if (length > passwordBytes.length) {
+            throw passwordTooLong();
+        }
+        int position = utf8Password.position();
+        // count the chars the same way a decoder would create them: one per sequence, two for a 4 byte sequence
+        int chars = 0;
+        for (int i = 0; i < length; ) {
+            int sequenceLength = utf8SequenceLength(utf8Password, position + i, length - i);
+            chars += sequenceLength == 4 ? 2 : 1;
+            i += sequenceLength;
+        }
+        checkPasswordLength(chars);
+        for (int i = 0; i < length; i++) {
+            passwordBytes[i] = utf8Password.get(position + i);
+        }
+        return length;
+    }
+
+    /**
+     * Validates the utf-8 sequence starting at given index (rfc3629, i.e. no overlong encodings, surrogates or code
+     * points above U+10FFFF).
+     *
+     * @return length of the sequence in bytes
+     */
+    private static int utf8SequenceLength(ByteBuffer buffer, int index, int remaining) {
+        int lead = buffer.get(index) & 0xFF;
+        int sequenceLength;
+        // the allowed range of the second byte, which excludes overlong encodings, surrogates and too large values
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead < 0x80) {
+            return 1;
+        } else if (lead >= 0xC2 && lead <= 0xDF) {
+            sequenceLength = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            sequenceLength = 3;
+            min = lead == 0xE0 ? 0xA0 : min;
+            max = lead == 0xED ? 0x9F : max;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            sequenceLength = 4;
+            min = lead == 0xF0 ? 0x90 : min;
+            max = lead == 0xF4 ? 0x8F : max;
+        } else {
+            throw malformedPassword();
+        }
+        if (sequenceLength > remaining) {
+            throw malformedPassword();
+        }
+        for (int i = 1; i < sequenceLength; i++) {
+            int b = buffer.get(index + i) & 0xFF;
+            if (b < min || b > max) {
+                throw malformedPassword();
+            }
+            min = 0x80;
+            max = 0xBF;
+        }
+        return sequenceLength;
+    }
+
+    /**
+     * Encode given password with the matching method of this workspace, used where all input types share one
+     * implementation.
+     *
+     * @param password a char[], {@link CharSequence} or utf-8 encoded {@link ByteBuffer}
+     * @return amount of written bytes
+     */
+    int encodeAnyPassword(Object password) {
+        if (password instanceof char[]) {
+            return encodePassword((char[]) password);
+        } else if (password instanceof ByteBuffer) {
+            return encodePassword((ByteBuffer) password);
+        }
+        return encodePassword((CharSequence) password);
+    }
+
+    private static void checkPasswordLength(int length) {
+        if (length > PasswordHasher.MAX_PASSWORD_LENGTH) {
+            throw passwordTooLong();
+        }
+    }
+
+    static IllegalArgumentException malformedPassword() {
+        return new IllegalArgumentException("password must be well-formed utf-8");
+    }
+
+    private static IllegalArgumentException passwordTooLong() {
+        return new IllegalArgumentException("password length must not be greater than " + PasswordHasher.MAX_PASSWORD_LENGTH);
+    }
+
+    private int putUtf8(int codePoint, int offset) {
+        byte[] out = passwordBytes;
+        int o = offset;
+        if (codePoint < 0x80) {
+            out[o++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            out[o++] = (byte) (0xC0 | (codePoint >> 6));
+            out[o++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            // unpaired surrogate
+            out[o++] = '?';
+        } else if (codePoint < 0x10000) {
+            out[o++] = (byte) (0xE0 | (codePoint >> 12));
+            out[o++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            out[o++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            out[o++] = (byte) (0xF0 | (codePoint >> 18));
+            out[o++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            out[o++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            out[o++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        return o;
+    }
+
+    /**
+     * Overwrite all buffers and key material; called at the end of every operation using this workspace.
+     */
+    void wipe() {
+        Arrays.fill(passwordBytes, (byte) 0);
+        Arrays.fill(extracted, (byte) 0);
+        Arrays.fill(salt, (byte) 0);
+        Arrays.fill(hash, (byte) 0);
+        Arrays.fill(message, (byte) 0);
+        // the key of the extractors is the public default salt, it is kept
+        for (KeyedHmac extractor : extractors) {
+            extractor.reset();
+        }
+        for (KeyedHmac expander : expanders) {
+            expander.wipe();
+        }
+    }
+}
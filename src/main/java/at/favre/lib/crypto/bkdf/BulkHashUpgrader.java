@@ -0,0 +1,435 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Upgrades large amounts of stored password hashes offline to a target cost factor using multiple worker threads.
+ * <p>
+ * Records are read from the caller's {@link Iterator} on the calling thread and handed to the workers through a
+ * bounded queue, so reading blocks if the workers cannot keep up (backpressure) and memory stays constant
+ * independent of the input size. Every upgraded hash is emitted to a {@link Sink}.
+ * <p>
+ * The upgrader periodically persists a checkpoint with a {@link CheckpointStore}: the amount of records (counted
+ * from the start of the input) which are completely processed. A restarted job with the same input order skips
+ * these records. Records which already are at or above the target strength are skipped and not emitted.
+ * <p>
+ * See {@link PasswordHashUpgrader#upgradePasswordHashTo(int, String)} for the upgrade protocol itself.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BulkHashUpgrader {
+    /**
+     * Default amount of completed records between two persisted checkpoints
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    private static final Item POISON = new Item(-1, null);
+
+    private final PasswordHashUpgrader upgrader;
+    private final int targetCostFactor;
+    private final int threads;
+    private final int queueCapacity;
+    private final int checkpointInterval;
+    private final CheckpointStore checkpointStore;
+
+    /**
+     * Create new instance with one worker per available core and a checkpoint every
+     * {@link #DEFAULT_CHECKPOINT_INTERVAL} records.
+     *
+     * @param upgrader         used to upgrade a single hash
+     * @param targetCostFactor the new final cost factor, see {@link PasswordHashUpgrader#upgradePasswordHashTo(int, String)}
+     * @param checkpointStore  to persist and load the progress
+     */
+    public BulkHashUpgrader(PasswordHashUpgrader upgrader, int targetCostFactor, CheckpointStore checkpointStore) {
+        this(upgrader, targetCostFactor, BkdfExecutors.availableCores(), BkdfExecutors.availableCores() * 4,
+                DEFAULT_CHECKPOINT_INTERVAL, checkpointStore);
+    }
+
+    /**
+     * Create new instance
+     *
+     * @param upgrader           used to upgrade a single hash
+     * @param targetCostFactor   the new final cost factor, see {@link PasswordHashUpgrader#upgradePasswordHashTo(int, String)}
+     * @param threads            amount of worker threads
+     * @param queueCapacity      how many records may be read ahead of the workers
+     * @param checkpointInterval amount of completed records between two persisted checkpoints
+     * @param checkpointStore    to persist and load the progress
+     */
+    public BulkHashUpgrader(PasswordHashUpgrader upgrader, int targetCostFactor, int threads, int queueCapacity,
+                            int checkpointInterval, CheckpointStore checkpointStore) {
+        if (targetCostFactor < 4 || targetCostFactor > 31) {
+            throw new IllegalArgumentException("cost-factor must be between 4 and 31 (same as for bcrypt itself)");
+        }
+        if (threads < 1 || queueCapacity < 1 || checkpointInterval < 1) {
+            throw new IllegalArgumentException("threads, queue capacity and checkpoint interval must be at least 1");
+        }
+        this.upgrader = Objects.requireNonNull(upgrader);
+        this.targetCostFactor = targetCostFactor;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointStore = Objects.requireNonNull(checkpointStore);
+    }
+
+    /**
+     * Upgrade all records and block until done.
+     * <p>
+     * The input order must be stable between runs, otherwise resuming from a checkpoint skips the wrong records.
+     *
+     * @param records to upgrade (e.g. a cursor over the user table)
+     * @param sink    receives the results; it is called concurrently from the worker threads
+     * @return statistics of this run
+     * @throws InterruptedException  if the calling thread was interrupted; the checkpoint reflects the progress so far
+     * @throws IllegalStateException if the sink or checkpoint store failed; the checkpoint reflects the progress so far
+     * @throws RuntimeException      thrown by the records iterator; the workers are stopped and the checkpoint reflects
+     *                               the progress so far
+     */
+    public Stats upgrade(Iterator<Record> records, Sink sink) throws InterruptedException {
+        long resumeFrom = checkpointStore.load();
+        BlockingQueue<Item> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Progress progress = new Progress(resumeFrom, sink);
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(queue, progress, sink), "bkdf-bulk-upgrade-" + (i + 1));
+            workers[i].start();
+        }
+
+        long sequence = 0;
+        boolean drained = false;
+        try {
+            while (records.hasNext() && progress.fatalError.get() == null) {
+                Record record = records.next();
+                if (sequence < resumeFrom) {
+                    sequence++;
+                    continue;
+                }
+                queue.put(new Item(sequence++, record));
+            }
+            for (int i = 0; i < workers.length; i++) {
+                queue.put(POISON);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            drained = true;
+        } finally {
+            // on any failure (interrupt or e.g. a closed cursor) the workers would otherwise wait for poison forever
+            if (!drained) {
+                for (Thread worker : workers) {
+                    worker.interrupt();
+                }
+                joinUninterruptibly(workers);
+            }
+            progress.checkpoint();
+        }
+
+        Throwable fatal = progress.fatalError.get();
+        if (fatal != null) {
+            throw new IllegalStateException("bulk upgrade aborted after " + progress.watermark + " records", fatal);
+        }
+
+        return new Stats(Math.min(resumeFrom, sequence), progress.upgraded.get(), progress.skipped.get(), progress.failed.get());
+    }
+
+    private static void joinUninterruptibly(Thread[] workers) {
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Upgrade all records and block until done, see {@link #upgrade(Iterator, Sink)}.
+     *
+     * @param records to upgrade
+     * @param sink    receives the results; it is called concurrently from the worker threads
+     * @return statistics of this run
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    public Stats upgrade(Iterable<Record> records, Sink sink) throws InterruptedException {
+        return upgrade(records.iterator(), sink);
+    }
+
+    /**
+     * Checks if given hash is already at or above the target strength (i.e. the sum of iterations of all configs) by
+     * only inspecting the header. Malformed hashes are never at the target, so the upgrade will report them as failed.
+     */
+    boolean isAtOrAboveTarget(HashMessageInspector inspector, String bkdfPasswordHashFormat2) {
+        return inspector.inspect(bkdfPasswordHashFormat2) != HashMessageInspector.Format.UNKNOWN
+                && inspector.iterations() >= 1L << targetCostFactor;
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Item> queue;
+        private final Progress progress;
+        private final Sink sink;
+        private final HashMessageInspector inspector = new HashMessageInspector();
+
+        Worker(BlockingQueue<Item> queue, Progress progress, Sink sink) {
+            this.queue = queue;
+            this.progress = progress;
+            this.sink = sink;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Item item;
+                while ((item = queue.take()) != POISON) {
+                    if (progress.fatalError.get() != null) {
+                        continue;
+                    }
+                    try {
+                        process(item.record);
+                        progress.complete(item.sequence);
+                    } catch (Exception e) {
+                        progress.fatalError.compareAndSet(null, e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void process(Record record) throws Exception {
+            String upgraded;
+            try {
+                if (isAtOrAboveTarget(inspector, record.bkdfPasswordHashFormat2)) {
+                    progress.skipped.incrementAndGet();
+                    return;
+                }
+                upgraded = upgrader.upgradePasswordHashTo(targetCostFactor, record.bkdfPasswordHashFormat2).getAsEncodedMessageFormat();
+            } catch (RuntimeException e) {
+                progress.failed.incrementAndGet();
+                sink.failed(record.id, e);
+                return;
+            }
+            sink.upgraded(record.id, upgraded);
+            progress.upgraded.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tracks the low watermark: the count of records from the start of the input which are all completed, even if
+     * the workers finish them out of order.
+     */
+    private final class Progress {
+        private final Sink sink;
+        private final Set<Long> completedAboveWatermark = new HashSet<>();
+        private final AtomicLong upgraded = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicReference<Throwable> fatalError = new AtomicReference<>();
+        private long watermark;
+        private long lastSaved;
+
+        Progress(long resumeFrom, Sink sink) {
+            this.watermark = resumeFrom;
+            this.lastSaved = resumeFrom;
+            this.sink = sink;
+        }
+
+        synchronized void complete(long sequence) throws Exception {
+            if (sequence != watermark) {
+                completedAboveWatermark.add(sequence);
+                return;
+            }
+            watermark++;
+            while (completedAboveWatermark.remove(watermark)) {
+                watermark++;
+            }
+            if (watermark - lastSaved >= checkpointInterval) {
+                save();
+            }
+        }
+
+        synchronized void checkpoint() {
+            if (watermark == lastSaved) {
+                return;
+            }
+            try {
+                save();
+            } catch (Exception e) {
+                fatalError.compareAndSet(null, e);
+            }
+        }
+
+        private void save() throws Exception {
+            sink.flush();
+            checkpointStore.save(watermark);
+            lastSaved = watermark;
+        }
+    }
+
+    private static final class Item {
+        final long sequence;
+        final Record record;
+
+        Item(long sequence, Record record) {
+            this.sequence = sequence;
+            this.record = record;
+        }
+    }
+
+    /**
+     * A single stored password hash and the id of the row it belongs to
+     */
+    public static final class Record {
+        public final String id;
+        public final String bkdfPasswordHashFormat2;
+
+        /**
+         * Create new instance
+         *
+         * @param id                      of the entity owning the hash, e.g. the user id
+         * @param bkdfPasswordHashFormat2 the current hash, can be in compound or normal password hash format
+         */
+        public Record(String id, String bkdfPasswordHashFormat2) {
+            this.id = id;
+            this.bkdfPasswordHashFormat2 = bkdfPasswordHashFormat2;
+        }
+    }
+
+    /**
+     * Receives the results of the bulk upgrade. All methods are called concurrently from the worker threads, so
+     * implementations must be thread-safe.
+     */
+    public interface Sink {
+        /**
+         * Called for every successfully upgraded hash
+         *
+         * @param id                      of the record
+         * @param bkdfPasswordHashFormat2 the new compound hash
+         * @throws Exception aborts the whole run; the record will not be included in the checkpoint
+         */
+        void upgraded(String id, String bkdfPasswordHashFormat2) throws Exception;
+
+        /**
+         * Called for every record which could not be upgraded, e.g. because the stored hash is malformed
+         *
+         * @param id    of the record
+         * @param cause of the failure
+         * @throws Exception aborts the whole run; the record will not be included in the checkpoint
+         */
+        void failed(String id, Exception cause) throws Exception;
+
+        /**
+         * Called before a checkpoint is persisted. Buffering sinks (e.g. batched database updates) must write all
+         * pending results before returning.
+         *
+         * @throws Exception aborts the whole run
+         */
+        void flush() throws Exception;
+    }
+
+    /**
+     * Persists the amount of completely processed records
+     */
+    public interface CheckpointStore {
+        /**
+         * Load the last saved checkpoint
+         *
+         * @return amount of records to skip; 0 if there is no checkpoint
+         */
+        long load();
+
+        /**
+         * Persist a checkpoint
+         *
+         * @param completedRecords amount of records from the start of the input which are completely processed
+         * @throws Exception aborts the whole run
+         */
+        void save(long completedRecords) throws Exception;
+    }
+
+    /**
+     * Stores the checkpoint as decimal string in a file. The file is replaced atomically on every save.
+     */
+    public static final class FileCheckpointStore implements CheckpointStore {
+        private final Path file;
+
+        /**
+         * Create new instance
+         *
+         * @param file where the checkpoint is stored; does not need to exist
+         */
+        public FileCheckpointStore(File file) {
+            this.file = file.toPath();
+        }
+
+        @Override
+        public long load() {
+            if (!Files.exists(file)) {
+                return 0;
+            }
+            try {
+                return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+            } catch (IOException e) {
+                throw new IllegalStateException("could not read checkpoint " + file, e);
+            }
+        }
+
+        @Override
+        public void save(long completedRecords) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, Long.toString(completedRecords).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Statistics of a single {@link #upgrade(Iterator, Sink)} run
+     */
+    public static final class Stats {
+        /**
+         * Records skipped because they were already completed in a previous run
+         */
+        public final long resumed;
+        /**
+         * Records successfully upgraded and emitted
+         */
+        public final long upgraded;
+        /**
+         * Records skipped because they are already at or above the target strength
+         */
+        public final long skipped;
+        /**
+         * Records which could not be upgraded
+         */
+        public final long failed;
+
+        Stats(long resumed, long upgraded, long skipped, long failed) {
+            this.resumed = resumed;
+            this.upgraded = upgraded;
+            this.skipped = skipped;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{resumed=" + resumed + ", upgraded=" + upgraded + ", skipped=" + skipped + ", failed=" + failed + '}';
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link KeyDerivationFunction} which caches the expensive stretched key (see {@link StretchedKey}) of recently used
+ * inputs, so repeated derivations with the same salt, password and cost factor (e.g. unlocking the same vault many
+ * times) only cost a cheap HKDF expand.
+ * <p>
+ * Entries are keyed by salt, cost factor, {@link Version} and an HMAC of the password with a random key which only
+ * exists in this instance; the password itself is never stored. The cache is bounded by the amount of entries (least
+ * recently used entries are evicted first) and the time since an entry was created. Evicted stretched keys are
+ * overwritten (see {@link StretchedKey#destroy()}).
+ * <p>
+ * Note that caching keeps secret key material in memory for up to the configured time; choose the bounds accordingly.
+ * This class is thread-safe; concurrent misses of the same input may each compute the stretched key.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CachingKeyDerivationFunction implements KeyDerivationFunction {
+    private final KeyDerivationFunction delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Ticker ticker;
+    private final KeyedDigest keyedDigest;
+    private final LinkedHashMap<CacheKey, Entry> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a new cache in front of given kdf
+     *
+     * @param delegate   which computes the stretched keys on a miss
+     * @param maxEntries maximum amount of cached stretched keys; must be at least 1
+     * @param ttl        how long an entry may be used after it was created; must be greater than 0
+     * @param unit       of ttl
+     */
+    public CachingKeyDerivationFunction(KeyDerivationFunction delegate, int maxEntries, long ttl, TimeUnit unit) {
+        this(delegate, maxEntries, unit.toNanos(ttl), Ticker.SYSTEM, new SecureRandom());
+    }
+
+    CachingKeyDerivationFunction(KeyDerivationFunction delegate, int maxEntries, long ttlNanos, Ticker ticker, SecureRandom secureRandom) {
+        if (maxEntries < 1 || ttlNanos <= 0) {
+            throw new IllegalArgumentException("max entries and ttl must be greater than 0");
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        this.ticker = ticker;
+        this.keyedDigest = new KeyedDigest(secureRandom);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte) {
+        byte[] ikm = Bytes.from(password, StandardCharsets.UTF_8).array();
+        try {
+            return derive(salt, ikm, costFactor, infoParam, outLengthByte);
+        } finally {
+            Arrays.fill(ikm, (byte) 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The workspace is not used: the stretched key of a cache miss is kept in the cache, so it has to be allocated.
+     */
+    @Override
+    public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte, BkdfWorkspace workspace) {
+        return derive(salt, password, costFactor, infoParam, outLengthByte);
+    }
+
+    @Override
+    public byte[] derive(byte[] salt, byte[] ikm, int costFactor, byte[] infoParam, int outLengthByte) {
+        return deriveMulti(salt, ikm, costFactor,
+                Collections.singletonList(new KdfConfig(infoParam, outLengthByte))).get(0);
+    }
+
+    @Override
+    public List<byte[]> deriveMulti(byte[] salt, byte[] ikm, int costFactor, List<KdfConfig> configList) {
+        if (Objects.requireNonNull(configList).isEmpty()) {
+            throw new IllegalArgumentException("config list must not be empty");
+        }
+
+        CacheKey key = createKey(salt, ikm, costFactor);
+        synchronized (cache) {
+            StretchedKey stretchedKey = get(key);
+            if (stretchedKey != null) {
+                return expand(stretchedKey, configList);
+            }
+        }
+
+        StretchedKey stretchedKey = delegate.stretch(salt, ikm, costFactor);
+        synchronized (cache) {
+            put(key, stretchedKey);
+            return expand(stretchedKey, configList);
+        }
+    }
+
+    private static List<byte[]> expand(StretchedKey stretchedKey, List<KdfConfig> configList) {
+        List<byte[]> outList = new ArrayList<>(configList.size());
+        for (KdfConfig kdfConfig : configList) {
+            outList.add(stretchedKey.expand(kdfConfig.infoParam, kdfConfig.outLengthByte));
+        }
+        return outList;
+    }
+
+    @Override
+    public StretchedKey stretch(byte[] salt, char[] password, int costFactor) {
+        byte[] ikm = Bytes.from(password, StandardCharsets.UTF_8).array();
+        try {
+            return stretch(salt, ikm, costFactor);
+        } finally {
+            Arrays.fill(ikm, (byte) 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns a copy of the cached key, so the caller can (and should) destroy it without affecting the cache.
+     */
+    @Override
+    public StretchedKey stretch(byte[] salt, byte[] ikm, int costFactor) {
+        CacheKey key = createKey(salt, ikm, costFactor);
+        synchronized (cache) {
+            StretchedKey stretchedKey = get(key);
+            if (stretchedKey != null) {
+                return stretchedKey.copy();
+            }
+        }
+
+        StretchedKey stretchedKey = delegate.stretch(salt, ikm, costFactor);
+        synchronized (cache) {
+            put(key, stretchedKey);
+            return stretchedKey.copy();
+        }
+    }
+
+    @Override
+    public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs) {
+        return deriveAll(inputs, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs, ExecutorService executor) {
+        return Batch.execute(inputs, new Batch.Operation<KdfInput, byte[]>() {
+            @Override
+            public byte[] apply(KdfInput input) {
+                return derive(input.salt, input.ikm, input.costFactor, input.infoParam, input.outLengthByte);
+            }
+        }, executor);
+    }
+
+    @Override
+    public Version getHashVersion() {
+        return delegate.getHashVersion();
+    }
+
+    private CacheKey createKey(byte[] salt, byte[] ikm, int costFactor) {
+        return new CacheKey(salt.clone(), costFactor, delegate.getHashVersion().getVersionCode(), keyedDigest.digest(ikm));
+    }
+
+    // must hold lock
+    private StretchedKey get(CacheKey key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (ticker.nanos() - entry.createdNanos >= ttlNanos) {
+            cache.remove(key);
+            evict(entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.stretchedKey;
+    }
+
+    // must hold lock
+    private void put(CacheKey key, StretchedKey stretchedKey) {
+        Entry previous = cache.put(key, new Entry(stretchedKey, ticker.nanos()));
+        if (previous != null) {
+            previous.stretchedKey.destroy();
+        }
+        Iterator<Entry> iterator = cache.values().iterator();
+        while (cache.size() > maxEntries && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            evict(eldest);
+        }
+    }
+
+    private void evict(Entry entry) {
+        entry.stretchedKey.destroy();
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Remove and wipe all expired entries. Expired entries are also removed lazily on access, call this periodically
+     * to not keep unused key material in memory longer than the ttl.
+     */
+    public void cleanUp() {
+        synchronized (cache) {
+            long now = ticker.nanos();
+            Iterator<Entry> iterator = cache.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now - entry.createdNanos >= ttlNanos) {
+                    iterator.remove();
+                    evict(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove and wipe all entries (not counted as eviction)
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            for (Entry entry : cache.values()) {
+                entry.stretchedKey.destroy();
+            }
+            cache.clear();
+        }
+    }
+
+    /**
+     * The current amount of cached entries, including expired entries not yet removed
+     *
+     * @return size
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Get a snapshot of the counters of this cache
+     *
+     * @return current stats
+     */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get());
+    }
+
+    private static final class Entry {
+        private final StretchedKey stretchedKey;
+        private final long createdNanos;
+
+        Entry(StretchedKey stretchedKey, long createdNanos) {
+            this.stretchedKey = stretchedKey;
+            this.createdNanos = createdNanos;
+        }
+    }
+
+    private static final class CacheKey {
+        private final byte[] salt;
+        private final int costFactor;
+        private final byte versionCode;
+        private final byte[] ikmMac;
+
+        CacheKey(byte[] salt, int costFactor, byte versionCode, byte[] ikmMac) {
+            this.salt = salt;
+            this.costFactor = costFactor;
+            this.versionCode = versionCode;
+            this.ikmMac = ikmMac;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return costFactor == cacheKey.costFactor &&
+                    versionCode == cacheKey.versionCode &&
+                    Arrays.equals(salt, cacheKey.salt) &&
+                    Arrays.equals(ikmMac, cacheKey.ikmMac);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Objects.hash(costFactor, versionCode);
+            result = 31 * result + Arrays.hashCode(salt);
+            result = 31 * result + Arrays.hashCode(ikmMac);
+            return result;
+        }
+    }
+
+    /**
+     * Counters of a {@link CachingKeyDerivationFunction}
+     */
+    public static final class Stats {
+        /**
+         * Lookups which found a valid cached stretched key
+         */
+        public final long hits;
+        /**
+         * Lookups which had to compute the stretched key
+         */
+        public final long misses;
+        /**
+         * Entries removed because the cache was full or the entry expired
+         */
+        public final long evictions;
+
+        Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+        }
+    }
+}
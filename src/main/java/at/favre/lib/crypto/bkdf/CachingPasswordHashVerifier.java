@@ -0,0 +1,379 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PasswordHashVerifier} which remembers successful verifications for a short time, so clients sending the same
+ * credentials with every request (e.g. HTTP Basic auth) only cost a HMAC instead of a full bcrypt verification.
+ * <p>
+ * Only positive results are cached, so wrong passwords always cost the full verification. Entries are stored per
+ * stored hash together with an HMAC-SHA256 of stored hash and password with a random key which only exists in this
+ * instance (i.e. the process). If the stored hash changes (e.g. password change or rehash) the old entry is not found
+ * anymore; use {@link #invalidate(String)} to revoke an entry before its ttl ends (e.g. on logout or account lock).
+ * <p>
+ * The cache is split into independently locked segments (selected by the stored hash) to reduce contention. Each
+ * segment evicts its least recently used entry when full.
+ * <p>
+ * Note that while an entry is cached, an attacker with access to the process memory could brute-force the password
+ * with HMAC instead of bcrypt speed; keep the ttl short.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CachingPasswordHashVerifier implements PasswordHashVerifier {
+    /**
+     * Default amount of independently locked segments
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    private final PasswordHashVerifier delegate;
+    private final long ttlNanos;
+    private final Ticker ticker;
+    private final KeyedDigest keyedDigest;
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a new cache in front of given verifier with {@link #DEFAULT_SEGMENTS} segments
+     *
+     * @param delegate   which does the actual verification on a miss
+     * @param maxEntries maximum amount of cached results; must be at least 1
+     * @param ttl        how long a successful verification is remembered; must be greater than 0
+     * @param unit       of ttl
+     */
+    public CachingPasswordHashVerifier(PasswordHashVerifier delegate, int maxEntries, long ttl, TimeUnit unit) {
+        this(delegate, maxEntries, DEFAULT_SEGMENTS, unit.toNanos(ttl), Ticker.SYSTEM, new SecureRandom());
+    }
+
+    CachingPasswordHashVerifier(PasswordHashVerifier delegate, int maxEntries, int segmentCount, long ttlNanos, Ticker ticker, SecureRandom secureRandom) {
+        if (maxEntries < 1 || segmentCount < 1 || ttlNanos <= 0) {
+            throw new IllegalArgumentException("max entries, segments and ttl must be greater than 0");
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.ttlNanos = ttlNanos;
+        this.ticker = ticker;
+        this.keyedDigest = new KeyedDigest(secureRandom);
+
+        int count = Integer.highestOneBit(Math.min(segmentCount, maxEntries));
+        int capacity = (maxEntries + count - 1) / count;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2) {
+        byte[] mac = keyedDigest.digestCredential(bkdfPasswordHashFormat2, password);
+        if (lookup(bkdfPasswordHashFormat2, mac) != null) {
+            return true;
+        }
+        boolean verified = delegate.verify(password, bkdfPasswordHashFormat2);
+        if (verified) {
+            put(bkdfPasswordHashFormat2, mac, false);
+        }
+        return verified;
+    }
+
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        byte[] mac = keyedDigest.digestCredential(bkdfPasswordHashFormat2, password);
+        if (lookup(bkdfPasswordHashFormat2, mac) != null) {
+            return true;
+        }
+        boolean verified = delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+        if (verified) {
+            put(bkdfPasswordHashFormat2, mac, false);
+        }
+        return verified;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cache entry is shared with the other verify methods for the same (utf-8 encoded) password.
+     */
+    @Override
+    public boolean verify(CharSequence password, CharSequence bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        String storedHash = bkdfPasswordHashFormat2.toString();
+        byte[] mac = keyedDigest.digestCredential(storedHash, password, workspace);
+        if (lookup(storedHash, mac) != null) {
+            return true;
+        }
+        boolean verified = delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+        if (verified) {
+            put(storedHash, mac, false);
+        }
+        return verified;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cache entry is shared with the other verify methods for the same (utf-8 encoded) password.
+     */
+    @Override
+    public boolean verify(ByteBuffer utf8Password, ByteBuffer bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        String storedHash = new AsciiCharSequence(bkdfPasswordHashFormat2).toString();
+        byte[] mac = keyedDigest.digestCredential(storedHash, utf8Password, workspace);
+        if (lookup(storedHash, mac) != null) {
+            return true;
+        }
+        boolean verified = delegate.verify(utf8Password, bkdfPasswordHashFormat2, workspace);
+        if (verified) {
+            put(storedHash, mac, false);
+        }
+        return verified;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cache entry is shared with {@link #verify(char[], String)} of the "Format 2" encoding of given hash data.
+     */
+    @Override
+    public boolean verify(char[] password, HashData hashData) {
+        String storedHash = hashData.getAsEncodedMessageFormat();
+        byte[] mac = keyedDigest.digestCredential(storedHash, password);
+        if (lookup(storedHash, mac) != null) {
+            return true;
+        }
+        boolean verified = delegate.verify(password, hashData);
+        if (verified) {
+            put(storedHash, mac, false);
+        }
+        return verified;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A cached result is only used if it was created by this method, i.e. the hash is known to satisfy the policy of
+     * the delegate.
+     */
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2) {
+        byte[] mac = keyedDigest.digestCredential(bkdfPasswordHashFormat2, password);
+        Entry entry = lookup(bkdfPasswordHashFormat2, mac);
+        if (entry != null && entry.satisfiesPolicy) {
+            return new VerificationResult(true, null);
+        }
+        VerificationResult result = delegate.verifyAndRehash(password, bkdfPasswordHashFormat2);
+        if (result.verified) {
+            put(bkdfPasswordHashFormat2, mac, !result.isRehashed());
+        }
+        return result;
+    }
+
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+        byte[] mac = keyedDigest.digestCredential(bkdfPasswordHashFormat2, password);
+        if (lookup(bkdfPasswordHashFormat2, mac) != null && !policy.needsRehash(bkdfPasswordHashFormat2)) {
+            return new VerificationResult(true, null);
+        }
+        VerificationResult result = delegate.verifyAndRehash(password, bkdfPasswordHashFormat2, policy);
+        if (result.verified) {
+            put(bkdfPasswordHashFormat2, mac, false);
+        }
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2) {
+        return verifyAsync(password, bkdfPasswordHashFormat2, BkdfExecutors.sharedHashingExecutor());
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(final char[] password, final String bkdfPasswordHashFormat2, ExecutorService executor) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return verify(password, bkdfPasswordHashFormat2);
+            }
+        });
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials) {
+        return verifyAll(credentials, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor) {
+        return Batch.execute(credentials, new Batch.Operation<Credential, Boolean>() {
+            @Override
+            public Boolean apply(Credential credential) {
+                return verify(credential.password, credential.bkdfPasswordHashFormat2);
+            }
+        }, executor);
+    }
+
+    /**
+     * Remove the cached result of given stored hash, e.g. after the account was locked
+     *
+     * @param storedHash as passed to {@link #verify(char[], String)}
+     * @return true if an entry was removed
+     */
+    public boolean invalidate(String storedHash) {
+        Segment segment = segmentFor(storedHash);
+        synchronized (segment) {
+            return segment.remove(storedHash) != null;
+        }
+    }
+
+    /**
+     * Remove all cached results
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Remove all expired entries. Expired entries are also removed lazily on access.
+     */
+    public void cleanUp() {
+        long now = ticker.nanos();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Entry> iterator = segment.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next().createdNanos >= ttlNanos) {
+                        iterator.remove();
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The current amount of cached results, including expired entries not yet removed
+     *
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get a snapshot of the counters of this cache
+     *
+     * @return current stats
+     */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get());
+    }
+
+    private Segment segmentFor(String storedHash) {
+        int h = storedHash.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    private Entry lookup(String storedHash, byte[] mac) {
+        Segment segment = segmentFor(storedHash);
+        synchronized (segment) {
+            Entry entry = segment.get(storedHash);
+            if (entry != null && ticker.nanos() - entry.createdNanos >= ttlNanos) {
+                segment.remove(storedHash);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry != null && MessageDigest.isEqual(entry.mac, mac)) {
+                hits.incrementAndGet();
+                return entry;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void put(String storedHash, byte[] mac, boolean satisfiesPolicy) {
+        Segment segment = segmentFor(storedHash);
+        synchronized (segment) {
+            segment.put(storedHash, new Entry(mac, ticker.nanos(), satisfiesPolicy));
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] mac;
+        private final long createdNanos;
+        private final boolean satisfiesPolicy;
+
+        Entry(byte[] mac, long createdNanos, boolean satisfiesPolicy) {
+            this.mac = mac;
+            this.createdNanos = createdNanos;
+            this.satisfiesPolicy = satisfiesPolicy;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<String, Entry> {
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Counters of a {@link CachingPasswordHashVerifier}
+     */
+    public static final class Stats {
+        /**
+         * Verifications answered from the cache
+         */
+        public final long hits;
+        /**
+         * Verifications passed to the delegate (including all failed ones)
+         */
+        public final long misses;
+        /**
+         * Entries removed because a segment was full or the entry expired
+         */
+        public final long evictions;
+
+        Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PasswordHashVerifier} which lets identical concurrent verifications (same stored hash and same password, e.g.
+ * during retry storms) share a single in-flight computation ("single-flight"). The first caller runs the
+ * verification on its own thread, all callers arriving while it runs wait for and receive the same result (or
+ * exception). The entry is removed as soon as the computation completes, so nothing is cached afterwards; combine with
+ * {@link CachingPasswordHashVerifier} for that.
+ * <p>
+ * Requests are matched by an HMAC-SHA256 of stored hash and password with a random key which only exists in this
+ * instance, so the table never contains a password. The table is a {@link ConcurrentHashMap}, i.e. lock-striped.
+ * <p>
+ * Only {@link #verify(char[], String)} and {@link #verify(char[], HashData)} (and the async and batch methods built on
+ * them) are coalesced; {@link #verifyAndRehash(char[], String, HashPolicy)} is passed through, since every caller
+ * should get its own fresh hash.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CoalescingPasswordHashVerifier implements PasswordHashVerifier {
+    private final PasswordHashVerifier delegate;
+    private final KeyedDigest keyedDigest;
+    private final ConcurrentMap<Key, FutureTask<Boolean>> inFlight;
+    private final AtomicLong computations = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Create a new coalescing verifier in front of given verifier
+     *
+     * @param delegate which does the actual verification
+     */
+    public CoalescingPasswordHashVerifier(PasswordHashVerifier delegate) {
+        this(delegate, new SecureRandom());
+    }
+
+    CoalescingPasswordHashVerifier(PasswordHashVerifier delegate, SecureRandom secureRandom) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.keyedDigest = new KeyedDigest(secureRandom);
+        this.inFlight = new ConcurrentHashMap<>(16, 0.75f, BkdfExecutors.availableCores());
+    }
+
+    @Override
+    public boolean verify(final char[] password, final String bkdfPasswordHashFormat2) {
+        return execute(keyedDigest.digestCredential(bkdfPasswordHashFormat2, password), new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delegate.verify(password, bkdfPasswordHashFormat2);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The shared verification runs on the first caller's thread with its workspace.
+     */
+    @Override
+    public boolean verify(final char[] password, final String bkdfPasswordHashFormat2, final BkdfWorkspace workspace) {
+        return execute(keyedDigest.digestCredential(bkdfPasswordHashFormat2, password), new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The shared verification runs on the first caller's thread with its workspace; it is coalesced with the other
+     * verify methods for the same (utf-8 encoded) password.
+     */
+    @Override
+    public boolean verify(final CharSequence password, final CharSequence bkdfPasswordHashFormat2, final BkdfWorkspace workspace) {
+        return execute(keyedDigest.digestCredential(bkdfPasswordHashFormat2.toString(), password, workspace), new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The shared verification runs on the first caller's thread with its workspace; it is coalesced with the other
+     * verify methods for the same (utf-8 encoded) password.
+     */
+    @Override
+    public boolean verify(final ByteBuffer utf8Password, final ByteBuffer bkdfPasswordHashFormat2, final BkdfWorkspace workspace) {
+        String storedHash = new AsciiCharSequence(bkdfPasswordHashFormat2).toString();
+        return execute(keyedDigest.digestCredential(storedHash, utf8Password, workspace), new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delegate.verify(utf8Password, bkdfPasswordHashFormat2, workspace);
+            }
+        });
+    }
+
+    @Override
+    public boolean verify(final char[] password, final HashData hashData) {
+        return execute(keyedDigest.digestCredential(hashData.getAsEncodedMessageFormat(), password), new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delegate.verify(password, hashData);
+            }
+        });
+    }
+
+    private boolean execute(byte[] mac, Callable<Boolean> verification) {
+        Key key = new Key(mac);
+        FutureTask<Boolean> task = new FutureTask<>(verification);
+        FutureTask<Boolean> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            computations.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            return await(task);
+        }
+        coalesced.incrementAndGet();
+        return await(existing);
+    }
+
+    private static boolean await(FutureTask<Boolean> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for coalesced verification", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2) {
+        return delegate.verifyAndRehash(password, bkdfPasswordHashFormat2);
+    }
+
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+        return delegate.verifyAndRehash(password, bkdfPasswordHashFormat2, policy);
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2) {
+        return verifyAsync(password, bkdfPasswordHashFormat2, BkdfExecutors.sharedHashingExecutor());
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(final char[] password, final String bkdfPasswordHashFormat2, ExecutorService executor) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return verify(password, bkdfPasswordHashFormat2);
+            }
+        });
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials) {
+        return verifyAll(credentials, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor) {
+        return Batch.execute(credentials, new Batch.Operation<Credential, Boolean>() {
+            @Override
+            public Boolean apply(Credential credential) {
+                return verify(credential.password, credential.bkdfPasswordHashFormat2);
+            }
+        }, executor);
+    }
+
+    /**
+     * The amount of currently running verifications
+     *
+     * @return count
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Get a snapshot of the counters of this verifier
+     *
+     * @return current stats
+     */
+    public Stats getStats() {
+        return new Stats(computations.get(), coalesced.get());
+    }
+
+    private static final class Key {
+        private final byte[] mac;
+        private final int hashCode;
+
+        Key(byte[] mac) {
+            this.mac = mac;
+            this.hashCode = Arrays.hashCode(mac);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Key && Arrays.equals(mac, ((Key) o).mac));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Counters of a {@link CoalescingPasswordHashVerifier}
+     */
+    public static final class Stats {
+        /**
+         * Verifications actually passed to the delegate
+         */
+        public final long computations;
+        /**
+         * Verifications which received the result of an identical in-flight verification instead
+         */
+        public final long coalesced;
+
+        Stats(long computations, long coalesced) {
+            this.computations = computations;
+            this.coalesced = coalesced;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{computations=" + computations + ", coalesced=" + coalesced + '}';
+        }
+    }
+}
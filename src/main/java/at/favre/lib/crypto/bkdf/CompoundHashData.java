@@ -1,7 +1,6 @@
 package at.favre.lib.crypto.bkdf;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.bytes.BytesValidators;
 
 import java.nio.ByteBuffer;
 import java.util.*;
@@ -34,7 +33,7 @@ public final class CompoundHashData {
      * @return new instance
      */
     public static CompoundHashData parse(String base64BkdfCompoundHashMsg) {
-        return parse(Bytes.parseBase64(base64BkdfCompoundHashMsg).array());
+        return parse(Base64Url.decode(base64BkdfCompoundHashMsg));
     }
 
     /**
@@ -86,9 +85,8 @@ public final class CompoundHashData {
             throw new IllegalArgumentException("config list must contain at least a single item");
         }
 
-        if (Bytes.wrap(rawSalt).validate(BytesValidators.exactLength(HashData.SALT_LENGTH_BYTE))
-                && Bytes.wrap(rawHash).validate(BytesValidators
-                .or(BytesValidators.exactLength(Version.MIN_BCRYPT_HASH_LENGTH_BYTE), BytesValidators.exactLength(Version.MIN_BCRYPT_HASH_LENGTH_BYTE + 1)))) {
+        if (rawSalt.length == HashData.SALT_LENGTH_BYTE
+                && (rawHash.length == Version.MIN_BCRYPT_HASH_LENGTH_BYTE || rawHash.length == Version.MAX_BCRYPT_HASH_LENGTH_BYTE)) {
             this.configList = Collections.unmodifiableList(configList);
             this.rawSalt = Objects.requireNonNull(rawSalt);
             this.rawHash = Objects.requireNonNull(rawHash);
@@ -123,19 +121,59 @@ public final class CompoundHashData {
      * @return blob message
      */
     public byte[] getAsBlobMessageFormat() {
-        int hashLength = configList.get(configList.size() - 1).version.getHashByteLength();
-        ByteBuffer buffer = ByteBuffer.allocate(1 + 1 + (configList.size() * 2) + rawSalt.length + hashLength);
+        byte[] out = new byte[encodedLength()];
+        writeTo(out, 0);
+        return out;
+    }
+
+    /**
+     * The byte length of the compound blob message, see {@link #getAsBlobMessageFormat()}
+     *
+     * @return length in bytes
+     */
+    public int encodedLength() {
+        return 1 + 1 + (configList.size() * 2) + rawSalt.length + configList.get(configList.size() - 1).version.getHashByteLength();
+    }
+
+    /**
+     * Write the compound blob message (see {@link #getAsBlobMessageFormat()}) directly into given buffer at its
+     * current position. The position will be advanced by {@link #encodedLength()}.
+     *
+     * @param buffer target with at least {@link #encodedLength()} remaining bytes
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
         buffer.put(PasswordHashUpgrader.COMPOUND_FORMAT_VERSION);
-        buffer.put((byte) Bytes.from((byte) configList.size()).toUnsignedByte());
-        for (Config config : configList) {
+        buffer.put((byte) configList.size());
+        for (int i = 0; i < configList.size(); i++) {
+            Config config = configList.get(i);
             buffer.put(config.version.getVersionCode());
             buffer.put(config.cost);
         }
-
         buffer.put(rawSalt);
         buffer.put(rawHash);
+    }
 
-        return buffer.array();
+    /**
+     * Write the compound blob message (see {@link #getAsBlobMessageFormat()}) directly into given array.
+     *
+     * @param dst    target with at least {@link #encodedLength()} bytes after offset
+     * @param offset where to start writing
+     * @return offset after the last written byte
+     */
+    public int writeTo(byte[] dst, int offset) {
+        int pos = offset;
+        dst[pos++] = PasswordHashUpgrader.COMPOUND_FORMAT_VERSION;
+        dst[pos++] = (byte) configList.size();
+        for (int i = 0; i < configList.size(); i++) {
+            Config config = configList.get(i);
+            dst[pos++] = config.version.getVersionCode();
+            dst[pos++] = config.cost;
+        }
+        System.arraycopy(rawSalt, 0, dst, pos, rawSalt.length);
+        pos += rawSalt.length;
+        System.arraycopy(rawHash, 0, dst, pos, rawHash.length);
+        return pos + rawHash.length;
     }
 
     /**
@@ -144,7 +182,8 @@ public final class CompoundHashData {
      * @return base64-url encoded string
      */
     public String getAsEncodedMessageFormat() {
-        return Bytes.wrap(getAsBlobMessageFormat()).encodeBase64Url();
+        byte[] blob = getAsBlobMessageFormat();
+        return Base64Url.encode(blob, 0, blob.length);
     }
 
     @Override
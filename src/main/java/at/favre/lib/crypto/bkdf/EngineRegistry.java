@@ -0,0 +1,379 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.crypto.bcrypt.BCrypt;
+import at.favre.lib.hkdf.HKDF;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable registry of precomputed {@link Engine}s (i.e. bcrypt hasher and HKDF instance) for every supported
+ * {@link Version}, indexed by the unsigned version code for O(1) lookup.
+ * <p>
+ * All engines are stateless and thread-safe, so they are shared by {@link PasswordHasher}, {@link PasswordHashVerifier},
+ * {@link PasswordHashUpgrader} and {@link KeyDerivationFunction}.
+ */
+final class EngineRegistry {
+    /**
+     * System property which, if set to <code>true</code>, selects the built-in {@link EksBlowfish} for the bcrypt
+     * step instead of the bcrypt library. Both produce identical hashes.
+     */
+    static final String PROPERTY_USE_EKS_BLOWFISH = "at.favre.lib.crypto.bkdf.useEksBlowfish";
+
+    private static final boolean USE_EKS_BLOWFISH = Boolean.getBoolean(PROPERTY_USE_EKS_BLOWFISH);
+    private static final Engine[] ENGINES = new Engine[256];
+
+    static {
+        for (Version version : Version.VERSIONS) {
+            ENGINES[version.getVersionCode() & 0xFF] = new Engine(version);
+        }
+    }
+
+    private EngineRegistry() {
+    }
+
+    /**
+     * Get the engine for given version code.
+     *
+     * @param versionCode see {@link Version#getVersionCode()}
+     * @return engine (never null, throws exception)
+     * @throws Version.UnsupportedBkdfVersionException if version code is not known
+     */
+    static Engine forCode(byte versionCode) {
+        Engine engine = ENGINES[versionCode & 0xFF];
+        if (engine == null) {
+            throw new Version.UnsupportedBkdfVersionException(versionCode);
+        }
+        return engine;
+    }
+
+    /**
+     * Checks if an engine is registered for given version code.
+     *
+     * @param versionCode see {@link Version#getVersionCode()}
+     * @return true if {@link #forCode(byte)} will not throw
+     */
+    static boolean isSupported(byte versionCode) {
+        return ENGINES[versionCode & 0xFF] != null;
+    }
+
+    /**
+     * Get the engine for given version. If the version is not one of the {@link Version#VERSIONS} (i.e. a custom
+     * {@link Version} implementation) a new, unregistered engine will be created.
+     *
+     * @param version to get the engine for
+     * @return engine (never null)
+     */
+    static Engine forVersion(Version version) {
+        Engine engine = ENGINES[version.getVersionCode() & 0xFF];
+        if (engine != null && (engine.version == version || engine.version.equals(version))) {
+            return engine;
+        }
+        return new Engine(version);
+    }
+
+    /**
+     * The precomputed, thread-safe primitives used for a specific {@link Version}
+     */
+    static final class Engine {
+        final Version version;
+        final HKDF hkdf;
+        final BCrypt.Hasher bcrypt;
+        final boolean useEksBlowfish;
+        // the digest of the hkdf's hmac, lazily detected; empty if unknown
+        private volatile String digestAlgorithm;
+        // hkdf extract with the default salt, lazily created; only if the digest is known
+        private volatile KeyedHmac extractor;
+
+        Engine(Version version) {
+            this(version, USE_EKS_BLOWFISH);
+        }
+
+        Engine(Version version, boolean useEksBlowfish) {
+            this.version = version;
+            this.useEksBlowfish = useEksBlowfish;
+            this.hkdf = version.getHkdf();
+            this.bcrypt = BCrypt.with(
+                    new BCrypt.Version(new byte[]{0x32, 0x61},
+                            version.getHashByteLength() == Version.MIN_BCRYPT_HASH_LENGTH_BYTE,
+                            true, BCrypt.Version.DEFAULT_MAX_PW_LENGTH_BYTE, null, null));
+        }
+
+        /**
+         * Validates the input and calculates the raw bcrypt hash of the user password (step 1 and 2 of the protocol).
+         *
+         * @param operation  reported to the {@link BkdfListener}
+         * @param password   from user (length must not be greater than {@link PasswordHasher#MAX_PASSWORD_LENGTH})
+         * @param salt16Byte 16 byte salt
+         * @param costFactor exponential cost (log2 factor) between 4 and 31
+         * @return raw bcrypt hash
+         */
+        byte[] hashPassword(BkdfListener.Operation operation, char[] password, byte[] salt16Byte, int costFactor) {
+            return hash(operation, passwordBytes(password, salt16Byte, costFactor), salt16Byte, costFactor);
+        }
+
+        /**
+         * Validates the input of {@link #hashPassword(BkdfListener.Operation, char[], byte[], int)} and encodes the
+         * password.
+         *
+         * @param password   from user (length must not be greater than {@link PasswordHasher#MAX_PASSWORD_LENGTH})
+         * @param salt16Byte 16 byte salt
+         * @param costFactor exponential cost (log2 factor) between 4 and 31
+         * @return utf-8 encoded password
+         */
+        byte[] passwordBytes(char[] password, byte[] salt16Byte, int costFactor) {
+            validate(password, salt16Byte, costFactor);
+            return Bytes.from(password, StandardCharsets.UTF_8).array();
+        }
+
+        private static void validate(char[] password, byte[] salt16Byte, int costFactor) {
+            if (password.length == 0) {
+                // same as hkdf extract, but before any bcrypt computation is started with it
+                throw new IllegalArgumentException("password must not be empty");
+            }
+            if (password.length > PasswordHasher.MAX_PASSWORD_LENGTH) {
+                throw new IllegalArgumentException("password length must not be greater than " + PasswordHasher.MAX_PASSWORD_LENGTH);
+            }
+            validate(salt16Byte, costFactor);
+        }
+
+        private static void validate(byte[] salt16Byte, int costFactor) {
+            if (salt16Byte == null || salt16Byte.length < 16) {
+                throw new IllegalArgumentException("invalid salt");
+            }
+            if (costFactor < 4 || costFactor > 31) {
+                throw new IllegalArgumentException("cost-factor must be between 4 and 31 (same as for bcrypt itself)");
+            }
+        }
+
+        /**
+         * Calculates the raw bcrypt hash without any validation.
+         *
+         * @param operation  reported to the {@link BkdfListener}
+         * @param pwBytes    password or previous hash in the chain
+         * @param salt16Byte 16 byte salt
+         * @param costFactor exponential cost (log2 factor) between 4 and 31
+         * @return raw bcrypt hash
+         */
+        byte[] hash(BkdfListener.Operation operation, byte[] pwBytes, byte[] salt16Byte, int costFactor) {
+            // extract 64 byte long hash with HKDF-HMAC-SHA512 (depending on version)
+            long start = BkdfInstrumentation.start();
+            byte[] extractedPw = extract(pwBytes);
+            BkdfInstrumentation.phase(operation, BkdfListener.Phase.HKDF_EXTRACT, version, costFactor, start);
+
+            start = BkdfInstrumentation.start();
+            byte[] rawHash = useEksBlowfish
+                    ? EksBlowfish.hashRaw(costFactor, salt16Byte, extractedPw, version.getHashByteLength())
+                    : bcrypt.hashRaw(costFactor, salt16Byte, extractedPw).rawHash;
+            BkdfInstrumentation.phase(operation, BkdfListener.Phase.BCRYPT, version, costFactor, start);
+            return rawHash;
+        }
+
+        /**
+         * Calculates the raw bcrypt hashes of multiple inputs with the same cost factor on the calling thread. With
+         * {@link #useEksBlowfish} their bcrypt steps are interleaved (see
+         * {@link EksBlowfish#hashRawInterleaved(int, byte[][], byte[][], int)}), otherwise they are computed one after
+         * another with the bcrypt library. Does no validation other than bcrypt itself.
+         *
+         * @param operation  reported to the {@link BkdfListener}
+         * @param pwBytes    password or previous hash in the chain per input
+         * @param salts      16 byte salt per input
+         * @param costFactor exponential cost (log2 factor) between 4 and 31
+         * @return raw bcrypt hash per input in the same order
+         */
+        byte[][] hashInterleaved(BkdfListener.Operation operation, byte[][] pwBytes, byte[][] salts, int costFactor) {
+            byte[][] extractedPws = new byte[pwBytes.length][];
+            try {
+                long start = BkdfInstrumentation.start();
+                for (int i = 0; i < pwBytes.length; i++) {
+                    extractedPws[i] = extract(pwBytes[i]);
+                }
+                BkdfInstrumentation.phase(operation, BkdfListener.Phase.HKDF_EXTRACT, version, costFactor, start);
+
+                start = BkdfInstrumentation.start();
+                byte[][] rawHashes;
+                if (useEksBlowfish) {
+                    rawHashes = EksBlowfish.hashRawInterleaved(costFactor, salts, extractedPws, version.getHashByteLength());
+                } else {
+                    rawHashes = new byte[pwBytes.length][];
+                    for (int i = 0; i < pwBytes.length; i++) {
+                        rawHashes[i] = bcrypt.hashRaw(costFactor, salts[i], extractedPws[i]).rawHash;
+                    }
+                }
+                BkdfInstrumentation.phase(operation, BkdfListener.Phase.BCRYPT, version, costFactor, start);
+                return rawHashes;
+            } finally {
+                for (byte[] extractedPw : extractedPws) {
+                    if (extractedPw != null) {
+                        Arrays.fill(extractedPw, (byte) 0);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Same as {@link #hashPassword(BkdfListener.Operation, char[], byte[], int)} but uses the buffers of given
+         * workspace instead of allocating (see {@link #hash(BkdfListener.Operation, byte[], int, byte[], int, BkdfWorkspace, byte[], int)});
+         * the caller must wipe the workspace.
+         *
+         * @param operation  reported to the {@link BkdfListener}
+         * @param password   from user as char[], {@link CharSequence} or utf-8 encoded {@link java.nio.ByteBuffer}
+         *                   (length must not be greater than {@link PasswordHasher#MAX_PASSWORD_LENGTH} chars)
+         * @param salt16Byte 16 byte salt
+         * @param costFactor exponential cost (log2 factor) between 4 and 31
+         * @param workspace  to use
+         * @param out        target for the raw bcrypt hash
+         * @param outOffset  where to start writing
+         */
+        void hashPassword(BkdfListener.Operation operation, Object password, byte[] salt16Byte, int costFactor,
+                          BkdfWorkspace workspace, byte[] out, int outOffset) {
+            int pwLength = workspace.encodeAnyPassword(password);
+            validate(salt16Byte, costFactor);
+            hash(operation, workspace.passwordBytes, pwLength, salt16Byte, costFactor, workspace, out, outOffset);
+        }
+
+        /**
+         * Same as {@link #hash(BkdfListener.Operation, byte[], byte[], int)} but uses the buffers of given workspace
+         * instead of allocating; the bcrypt state of the workspace is only used with {@link #useEksBlowfish}, the
+         * bcrypt library allocates its own. The caller must wipe the workspace.
+         *
+         * @param operation  reported to the {@link BkdfListener}
+         * @param pwBytes    password or previous hash in the chain
+         * @param pwLength   the first pwLength bytes of pwBytes are used
+         * @param salt16Byte 16 byte salt
+         * @param costFactor exponential cost (log2 factor) between 4 and 31
+         * @param workspace  to use
+         * @param out        target for the raw bcrypt hash
+         * @param outOffset  where to start writing
+         */
+        void hash(BkdfListener.Operation operation, byte[] pwBytes, int pwLength, byte[] salt16Byte, int costFactor,
+                  BkdfWorkspace workspace, byte[] out, int outOffset) {
+            if (pwLength < 1) {
+                // same as hkdf extract
+                throw new IllegalArgumentException("password must not be empty");
+            }
+            long start = BkdfInstrumentation.start();
+            int extractedLength;
+            String digestAlgorithm = digestAlgorithm();
+            if (digestAlgorithm.isEmpty()) {
+                byte[] extractedPw = hkdf.extract((byte[]) null, Arrays.copyOf(pwBytes, pwLength));
+                if (extractedPw.length > workspace.extracted.length) {
+                    throw new IllegalArgumentException("key must not be longer than " + EksBlowfish.MAX_KEY_LENGTH_BYTE + " bytes");
+                }
+                extractedLength = extractedPw.length;
+                System.arraycopy(extractedPw, 0, workspace.extracted, 0, extractedLength);
+                Arrays.fill(extractedPw, (byte) 0);
+            } else {
+                KeyedHmac extractor = workspace.extractor(digestAlgorithm);
+                extractor.mac(pwBytes, 0, pwLength, workspace.extracted, 0);
+                extractedLength = extractor.macLength();
+            }
+            BkdfInstrumentation.phase(operation, BkdfListener.Phase.HKDF_EXTRACT, version, costFactor, start);
+
+            start = BkdfInstrumentation.start();
+            if (useEksBlowfish) {
+                EksBlowfish.hashRaw(costFactor, salt16Byte, workspace.extracted, extractedLength, version.getHashByteLength(),
+                        workspace.bcrypt, out, outOffset);
+            } else {
+                byte[] extractedPw = Arrays.copyOf(workspace.extracted, extractedLength);
+                byte[] rawHash = bcrypt.hashRaw(costFactor, salt16Byte, extractedPw).rawHash;
+                System.arraycopy(rawHash, 0, out, outOffset, rawHash.length);
+                Arrays.fill(extractedPw, (byte) 0);
+                Arrays.fill(rawHash, (byte) 0);
+            }
+            BkdfInstrumentation.phase(operation, BkdfListener.Phase.BCRYPT, version, costFactor, start);
+        }
+
+        /**
+         * HKDF expand with the buffers of given workspace, the same as
+         * <code>hkdf.expand(prk, info | infoSuffix, out.length)</code>.
+         *
+         * @param prk        pseudo random key
+         * @param prkLength  the first prkLength bytes of prk are used
+         * @param info       optional context, may be null
+         * @param infoSuffix appended to info
+         * @param workspace  to use
+         * @param out        target, filled completely
+         */
+        void expand(byte[] prk, int prkLength, byte[] info, byte[] infoSuffix, BkdfWorkspace workspace, byte[] out) {
+            String digestAlgorithm = digestAlgorithm();
+            if (digestAlgorithm.isEmpty()) {
+                byte[] okm = hkdf.expand(Arrays.copyOf(prk, prkLength), Bytes.wrapNullSafe(info).append(infoSuffix).array(), out.length);
+                System.arraycopy(okm, 0, out, 0, out.length);
+                Arrays.fill(okm, (byte) 0);
+            } else {
+                KeyedHmac expander = workspace.expander(digestAlgorithm);
+                expander.init(prk, prkLength);
+                expander.expand(info, infoSuffix, out, 0, out.length);
+            }
+        }
+
+        /**
+         * HKDF extract with the default (all zero) salt, the same as <code>hkdf.extract((byte[]) null, ikm)</code> but
+         * with the keyed HMAC state precomputed once per engine, see {@link KeyedHmac}.
+         *
+         * @param ikm input key material, must not be empty
+         * @return pseudo random key
+         */
+        byte[] extract(byte[] ikm) {
+            KeyedHmac extractor = extractor();
+            if (extractor == null) {
+                return hkdf.extract((byte[]) null, ikm);
+            }
+            if (ikm == null || ikm.length < 1) {
+                // same as hkdf extract
+                throw new IllegalArgumentException("input key material must not be empty");
+            }
+            return extractor.mac(ikm);
+        }
+
+        /**
+         * Checks the length of HKDF expand before the expensive bcrypt step; if the digest of the hkdf is unknown
+         * only the lower bound is checked and hkdf expand checks the rest.
+         *
+         * @param outLengthByte requested length of the output key material
+         */
+        void validateOutLength(int outLengthByte) {
+            KeyedHmac extractor = extractor();
+            int maxLength = extractor != null ? 255 * extractor.macLength() : Integer.MAX_VALUE;
+            if (outLengthByte <= 0 || outLengthByte > maxLength) {
+                throw new IllegalArgumentException(extractor != null
+                        ? "out length must be between 1 and " + maxLength
+                        : "out length must be greater than 0");
+            }
+        }
+
+        private KeyedHmac extractor() {
+            KeyedHmac extractor = this.extractor;
+            if (extractor == null) {
+                String digestAlgorithm = digestAlgorithm();
+                if (digestAlgorithm.isEmpty()) {
+                    return null;
+                }
+                this.extractor = extractor = new KeyedHmac(digestAlgorithm, null);
+            }
+            return extractor;
+        }
+
+        /**
+         * Create the keyed HMAC for HKDF expand with given pseudo random key (see {@link KeyedHmac#expand(byte[], byte[], int)}).
+         *
+         * @param prk pseudo random key
+         * @return keyed hmac or null if the digest of the hkdf is unknown and {@link #hkdf} must be used directly
+         */
+        KeyedHmac expander(byte[] prk) {
+            String digestAlgorithm = digestAlgorithm();
+            return digestAlgorithm.isEmpty() ? null : new KeyedHmac(digestAlgorithm, prk);
+        }
+
+        private String digestAlgorithm() {
+            String algorithm = digestAlgorithm;
+            if (algorithm == null) {
+                algorithm = KeyedHmac.digestAlgorithmOf(hkdf);
+                digestAlgorithm = algorithm = algorithm != null ? algorithm : "";
+            }
+            return algorithm;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PasswordHashVerifier} which limits failed verifications per stored hash (or caller supplied account key),
+ * so online guessing attacks (e.g. credential stuffing) against a single account stop costing bcrypt CPU.
+ * <p>
+ * Every failed verification adds one failure to the key, one failure is forgiven per <code>decayInterval</code>.
+ * Once <code>maxFailures</code> are outstanding, further attempts are rejected with a {@link TooManyFailuresException}
+ * before any hashing work is done, until enough failures decayed; a successful verification clears the failures.
+ * The failure is charged atomically before the verification runs, so concurrent guesses against one key cannot
+ * exceed <code>maxFailures</code> verifications. The counter of each key is a single {@link AtomicLong} (a
+ * "theoretical arrival time" like in the generic cell rate algorithm), so tracking is lock-free. Malformed hashes
+ * (i.e. exceptions of the delegate) are not counted, their charged failure is refunded.
+ * <p>
+ * Rejections only save CPU for the account under attack, they do not slow down the attacker against other accounts.
+ * Note that rejecting is observable by the attacker and can be used to lock out a legitimate user; choose the limits
+ * accordingly. Delaying instead of rejecting is left to the caller (e.g. with
+ * {@link TooManyFailuresException#getRetryAfter(TimeUnit)}) so no thread is blocked.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class GuardedPasswordHashVerifier implements PasswordHashVerifier {
+    private static final int CLEAN_UP_THRESHOLD = 1 << 16;
+    private static final int CLEAN_UP_CHECK_MASK = 1023;
+
+    private final PasswordHashVerifier delegate;
+    private final int maxFailures;
+    private final long decayIntervalNanos;
+    private final Ticker ticker;
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong savedIterations = new AtomicLong();
+    private final AtomicLong savedNanos = new AtomicLong();
+    private final AtomicLong verifiedIterations = new AtomicLong();
+    private final AtomicLong verifiedNanos = new AtomicLong();
+
+    /**
+     * Create a new guard in front of given verifier
+     *
+     * @param delegate      which does the actual verification
+     * @param maxFailures   amount of outstanding failures after which attempts are rejected; must be at least 1
+     * @param decayInterval time after which a single failure is forgiven; must be greater than 0
+     * @param unit          of decayInterval
+     */
+    public GuardedPasswordHashVerifier(PasswordHashVerifier delegate, int maxFailures, long decayInterval, TimeUnit unit) {
+        this(delegate, maxFailures, unit.toNanos(decayInterval), Ticker.SYSTEM);
+    }
+
+    GuardedPasswordHashVerifier(PasswordHashVerifier delegate, int maxFailures, long decayIntervalNanos, Ticker ticker) {
+        if (maxFailures < 1 || decayIntervalNanos <= 0) {
+            throw new IllegalArgumentException("max failures and decay interval must be greater than 0");
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.maxFailures = maxFailures;
+        this.decayIntervalNanos = decayIntervalNanos;
+        this.ticker = ticker;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Failures are tracked per stored hash.
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2) {
+        return verify(bkdfPasswordHashFormat2, password, bkdfPasswordHashFormat2);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Failures are tracked per stored hash.
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        long start = reserve(bkdfPasswordHashFormat2, bkdfPasswordHashFormat2);
+        Boolean verified = null;
+        try {
+            verified = delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+            return verified;
+        } finally {
+            record(bkdfPasswordHashFormat2, bkdfPasswordHashFormat2, start, verified);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Failures are tracked per stored hash.
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public boolean verify(CharSequence password, CharSequence bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        String storedHash = bkdfPasswordHashFormat2.toString();
+        long start = reserve(storedHash, storedHash);
+        Boolean verified = null;
+        try {
+            verified = delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+            return verified;
+        } finally {
+            record(storedHash, storedHash, start, verified);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Failures are tracked per stored hash.
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public boolean verify(ByteBuffer utf8Password, ByteBuffer bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        String storedHash = new AsciiCharSequence(bkdfPasswordHashFormat2).toString();
+        long start = reserve(storedHash, storedHash);
+        Boolean verified = null;
+        try {
+            verified = delegate.verify(utf8Password, bkdfPasswordHashFormat2, workspace);
+            return verified;
+        } finally {
+            record(storedHash, storedHash, start, verified);
+        }
+    }
+
+    /**
+     * Same as {@link #verify(char[], String)} but tracks failures for given account key, e.g. the user id, so a
+     * password change does not reset the failures.
+     *
+     * @param accountKey              to track failures for
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format of the stored hash
+     * @return true iff given password matches given password hash, false otherwise
+     * @throws TooManyFailuresException if too many failures are outstanding for the account key
+     */
+    public boolean verify(String accountKey, char[] password, String bkdfPasswordHashFormat2) {
+        long start = reserve(accountKey, bkdfPasswordHashFormat2);
+        Boolean verified = null;
+        try {
+            verified = delegate.verify(password, bkdfPasswordHashFormat2);
+            return verified;
+        } finally {
+            record(accountKey, bkdfPasswordHashFormat2, start, verified);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Failures are tracked per "Format 2" encoding of given hash data.
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public boolean verify(char[] password, HashData hashData) {
+        String storedHash = hashData.getAsEncodedMessageFormat();
+        long start = reserve(storedHash, storedHash);
+        Boolean verified = null;
+        try {
+            verified = delegate.verify(password, hashData);
+            return verified;
+        } finally {
+            record(storedHash, storedHash, start, verified);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2) {
+        long start = reserve(bkdfPasswordHashFormat2, bkdfPasswordHashFormat2);
+        VerificationResult result = null;
+        try {
+            result = delegate.verifyAndRehash(password, bkdfPasswordHashFormat2);
+            return result;
+        } finally {
+            record(bkdfPasswordHashFormat2, bkdfPasswordHashFormat2, start, result != null ? result.verified : null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws TooManyFailuresException if too many failures are outstanding for the stored hash
+     */
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+        return verifyAndRehash(bkdfPasswordHashFormat2, password, bkdfPasswordHashFormat2, policy);
+    }
+
+    /**
+     * Same as {@link #verifyAndRehash(char[], String, HashPolicy)} but tracks failures for given account key.
+     *
+     * @param accountKey              to track failures for
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format of the stored hash
+     * @param policy                  the stored hash should satisfy
+     * @return the verification result with the new hash to store, if one was required
+     * @throws TooManyFailuresException if too many failures are outstanding for the account key
+     */
+    public VerificationResult verifyAndRehash(String accountKey, char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+        long start = reserve(accountKey, bkdfPasswordHashFormat2);
+        VerificationResult result = null;
+        try {
+            result = delegate.verifyAndRehash(password, bkdfPasswordHashFormat2, policy);
+            return result;
+        } finally {
+            record(accountKey, bkdfPasswordHashFormat2, start, result != null ? result.verified : null);
+        }
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2) {
+        return verifyAsync(password, bkdfPasswordHashFormat2, BkdfExecutors.sharedHashingExecutor());
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(final char[] password, final String bkdfPasswordHashFormat2, ExecutorService executor) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return verify(password, bkdfPasswordHashFormat2);
+            }
+        });
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials) {
+        return verifyAll(credentials, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor) {
+        return Batch.execute(credentials, new Batch.Operation<Credential, Boolean>() {
+            @Override
+            public Boolean apply(Credential credential) {
+                return verify(credential.password, credential.bkdfPasswordHashFormat2);
+            }
+        }, executor);
+    }
+
+    /**
+     * Throws if the key is blocked, otherwise charges one failure to the key before the verification (so concurrent
+     * attempts cannot all pass the check before any of them is counted) and returns the start time of the verification
+     */
+    private long reserve(String key, String storedHash) {
+        long now = ticker.nanos();
+        AtomicLong counter = failures.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong(now);
+            counter = failures.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        long current;
+        long next;
+        do {
+            current = counter.get();
+            long retryAfter = retryAfterNanos(current, now);
+            if (retryAfter > 0) {
+                reject(storedHash);
+                throw new TooManyFailuresException(retryAfter);
+            }
+            next = Math.max(current, now) + decayIntervalNanos;
+        } while (!counter.compareAndSet(current, next));
+
+        if ((failureCount.incrementAndGet() & CLEAN_UP_CHECK_MASK) == 0 && failures.size() > CLEAN_UP_THRESHOLD) {
+            cleanUp();
+        }
+        return now;
+    }
+
+    /**
+     * Keeps the reserved failure if the verification failed, clears the failures of the key if it succeeded and
+     * refunds the reserved failure if the delegate threw (verified is null)
+     */
+    private void record(String key, String storedHash, long start, Boolean verified) {
+        if (verified == null) {
+            AtomicLong counter = failures.get(key);
+            if (counter != null) {
+                counter.addAndGet(-decayIntervalNanos);
+            }
+            return;
+        }
+
+        long end = ticker.nanos();
+        verifiedIterations.addAndGet(iterations(storedHash));
+        verifiedNanos.addAndGet(end - start);
+        if (verified) {
+            failures.remove(key);
+        }
+    }
+
+    private long retryAfterNanos(long theoreticalArrival, long now) {
+        // blocked while at least maxFailures intervals are outstanding
+        return theoreticalArrival - now - (maxFailures - 1) * decayIntervalNanos;
+    }
+
+    private void reject(String storedHash) {
+        rejected.incrementAndGet();
+        long iterations = iterations(storedHash);
+        savedIterations.addAndGet(iterations);
+        long totalIterations = verifiedIterations.get();
+        if (totalIterations > 0) {
+            savedNanos.addAndGet((long) (iterations * ((double) verifiedNanos.get() / totalIterations)));
+        }
+    }
+
+    private static long iterations(String storedHash) {
+        HashMessageInspector inspector = new HashMessageInspector();
+        return inspector.inspect(storedHash) == HashMessageInspector.Format.UNKNOWN ? 0 : inspector.iterations();
+    }
+
+    /**
+     * Check if attempts for given key (the stored hash or account key) are currently rejected
+     *
+     * @param key stored hash or account key
+     * @return true if verifications would be rejected
+     */
+    public boolean isBlocked(String key) {
+        AtomicLong counter = failures.get(key);
+        return counter != null && retryAfterNanos(counter.get(), ticker.nanos()) > 0;
+    }
+
+    /**
+     * Forget all failures of given key, e.g. after the user reset the password with a different channel
+     *
+     * @param key stored hash or account key
+     */
+    public void reset(String key) {
+        failures.remove(key);
+    }
+
+    /**
+     * Remove all keys whose failures fully decayed. This is also done automatically if many keys are tracked.
+     */
+    public void cleanUp() {
+        long now = ticker.nanos();
+        for (Map.Entry<String, AtomicLong> entry : failures.entrySet()) {
+            if (entry.getValue().get() - now <= 0) {
+                failures.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the counters of this guard
+     *
+     * @return current stats
+     */
+    public Stats getStats() {
+        return new Stats(rejected.get(), savedIterations.get(), savedNanos.get(), failures.size());
+    }
+
+    /**
+     * Thrown if a verification was rejected because of too many recent failures
+     */
+    public static final class TooManyFailuresException extends IllegalStateException {
+        private final long retryAfterNanos;
+
+        TooManyFailuresException(long retryAfterNanos) {
+            super("too many failed verifications, retry after " + TimeUnit.NANOSECONDS.toMillis(retryAfterNanos) + " ms");
+            this.retryAfterNanos = retryAfterNanos;
+        }
+
+        /**
+         * The time after which the next attempt will not be rejected (if no other failures happen in the meantime)
+         *
+         * @param unit of the returned value
+         * @return time until next allowed attempt, rounded up
+         */
+        public long getRetryAfter(TimeUnit unit) {
+            long oneUnit = unit.toNanos(1);
+            return (retryAfterNanos + oneUnit - 1) / oneUnit;
+        }
+    }
+
+    /**
+     * Counters of a {@link GuardedPasswordHashVerifier}
+     */
+    public static final class Stats {
+        /**
+         * Attempts rejected without verification
+         */
+        public final long rejected;
+        /**
+         * Sum of the bcrypt iterations (see {@link HashMessageInspector#iterations()}) of the rejected attempts
+         */
+        public final long savedIterations;
+        /**
+         * Estimated verification time of the rejected attempts, based on the measured time per iteration of the
+         * verifications done so far
+         */
+        public final long savedNanos;
+        /**
+         * Amount of keys with tracked failures
+         */
+        public final int trackedKeys;
+
+        Stats(long rejected, long savedIterations, long savedNanos, int trackedKeys) {
+            this.rejected = rejected;
+            this.savedIterations = savedIterations;
+            this.savedNanos = savedNanos;
+            this.trackedKeys = trackedKeys;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{rejected=" + rejected + ", savedIterations=" + savedIterations + ", savedNanos=" + savedNanos
+                    + ", trackedKeys=" + trackedKeys + '}';
+        }
+    }
+}
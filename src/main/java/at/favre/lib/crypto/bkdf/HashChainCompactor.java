@@ -0,0 +1,145 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces compound hashes (see {@link PasswordHashUpgrader}) with a single config hash when the user signs in.
+ * <p>
+ * Every link of a compound chain pays the bcrypt key setup, HKDF extract and salt derivation again, so a long chain
+ * verifies slower than a single hash of the same total cost. Since the password is known after a successful
+ * verification, the chain can be re-emitted as a "Format 2" hash with the version of its last config and the smallest
+ * cost factor that is at least as strong as the whole chain (i.e. <code>2^cost &gt;= sum of 2^cost_i</code>). Chains
+ * with more than <code>2^31</code> iterations are kept, since no single bcrypt hash is as strong.
+ * <p>
+ * This class is thread-safe; it counts the compacted chains, see {@link #getStats()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HashChainCompactor {
+    /**
+     * The iterations of a single config hash with the maximum bcrypt cost factor of 31
+     */
+    static final long MAX_SINGLE_HASH_ITERATIONS = 1L << 31;
+
+    private final PasswordHashVerifier verifier;
+    private final SaltSupplier saltSupplier;
+    private final ConcurrentMap<Version, PasswordHasher> hashers = new ConcurrentHashMap<>();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong compacted = new AtomicLong();
+    private final AtomicLong removedLinks = new AtomicLong();
+
+    /**
+     * Create a new instance with the default verifier and the shared {@link StripedSaltSupplier}
+     */
+    public HashChainCompactor() {
+        this(BKDF.createPasswordHashVerifier(), StripedSaltSupplier.shared());
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param verifier     used to verify the stored hashes
+     * @param saltSupplier used to create the salt of compacted hashes, e.g. {@link StripedSaltSupplier#shared()}
+     */
+    public HashChainCompactor(PasswordHashVerifier verifier, SaltSupplier saltSupplier) {
+        this.verifier = verifier;
+        this.saltSupplier = Objects.requireNonNull(saltSupplier);
+    }
+
+    /**
+     * Verify given password and, if it matches and the stored hash is a chain of more than one config, compute a
+     * compacted single config hash with equivalent or higher strength. A chain with more iterations than the
+     * strongest single hash (cost factor 31) is not compacted.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format of the stored hash
+     * @return the verification result with the compacted hash to store, if the stored one was a chain
+     * @throws IllegalArgumentException if given string is not a supported hash message
+     */
+    public PasswordHashVerifier.VerificationResult verifyAndCompact(char[] password, String bkdfPasswordHashFormat2) {
+        HashMessageInspector inspector = new HashMessageInspector();
+        if (inspector.inspect(bkdfPasswordHashFormat2) == HashMessageInspector.Format.UNKNOWN) {
+            throw new IllegalArgumentException("not a supported bkdf password hash message");
+        }
+        if (!verifier.verify(password, bkdfPasswordHashFormat2)) {
+            return new PasswordHashVerifier.VerificationResult(false, null);
+        }
+        verified.incrementAndGet();
+
+        int configCount = inspector.configCount();
+        if (configCount == 1 || inspector.iterations() > MAX_SINGLE_HASH_ITERATIONS) {
+            return new PasswordHashVerifier.VerificationResult(true, null);
+        }
+
+        Version version = EngineRegistry.forCode(inspector.versionCode(configCount - 1)).version;
+        String compactedHash = hasher(version).hash(password, costFactorFor(inspector.iterations()));
+
+        compacted.incrementAndGet();
+        removedLinks.addAndGet(configCount - 1);
+        return new PasswordHashVerifier.VerificationResult(true, compactedHash);
+    }
+
+    private PasswordHasher hasher(Version version) {
+        PasswordHasher hasher = hashers.get(version);
+        if (hasher == null) {
+            PasswordHasher created = new PasswordHasher.Default(version, saltSupplier);
+            hasher = hashers.putIfAbsent(version, created);
+            if (hasher == null) {
+                hasher = created;
+            }
+        }
+        return hasher;
+    }
+
+    /**
+     * The smallest bcrypt cost factor with at least given iterations, bounded to the valid range of 4 to 31. For more
+     * than {@link #MAX_SINGLE_HASH_ITERATIONS} iterations the result is weaker, callers must check this first.
+     *
+     * @param iterations e.g. {@link HashMessageInspector#iterations()}
+     * @return cost factor
+     */
+    static int costFactorFor(long iterations) {
+        int costFactor = 64 - Long.numberOfLeadingZeros(Math.max(1, iterations) - 1);
+        return Math.max(4, Math.min(31, costFactor));
+    }
+
+    /**
+     * Get a snapshot of the counters of this instance
+     *
+     * @return current stats
+     */
+    public Stats getStats() {
+        return new Stats(verified.get(), compacted.get(), removedLinks.get());
+    }
+
+    /**
+     * Counters of a {@link HashChainCompactor}
+     */
+    public static final class Stats {
+        /**
+         * Successful verifications
+         */
+        public final long verified;
+        /**
+         * Chains which were replaced by a single config hash
+         */
+        public final long compacted;
+        /**
+         * The total amount of chain links removed by compaction (i.e. configs per chain minus 1)
+         */
+        public final long removedLinks;
+
+        Stats(long verified, long compacted, long removedLinks) {
+            this.verified = verified;
+            this.compacted = compacted;
+            this.removedLinks = removedLinks;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{verified=" + verified + ", compacted=" + compacted + ", removedLinks=" + removedLinks + '}';
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package at.favre.lib.crypto.bkdf;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.bytes.BytesValidators;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -46,7 +45,7 @@ public final class HashData {
      * @return parsed data
      */
     public static HashData parse(String bkdfPasswordHashFormat2) {
-        return parse(Bytes.parseBase64(bkdfPasswordHashFormat2).array());
+        return parse(Base64Url.decode(bkdfPasswordHashFormat2));
     }
 
     /**
@@ -58,9 +57,8 @@ public final class HashData {
      * @param rawHash bcrypt hash as byte array
      */
     public HashData(byte cost, Version version, byte[] rawSalt, byte[] rawHash) {
-        if (Bytes.wrap(rawSalt).validate(BytesValidators.exactLength(SALT_LENGTH_BYTE))
-                && Bytes.wrap(rawHash).validate(BytesValidators
-                .or(BytesValidators.exactLength(Version.MIN_BCRYPT_HASH_LENGTH_BYTE), BytesValidators.exactLength(Version.MIN_BCRYPT_HASH_LENGTH_BYTE + 1)))) {
+        if (rawSalt.length == SALT_LENGTH_BYTE
+                && (rawHash.length == Version.MIN_BCRYPT_HASH_LENGTH_BYTE || rawHash.length == Version.MAX_BCRYPT_HASH_LENGTH_BYTE)) {
             this.cost = cost;
             this.version = Objects.requireNonNull(version);
             this.rawSalt = rawSalt;
@@ -86,12 +84,48 @@ public final class HashData {
      * @return message as byte array aka "Format 1"
      */
     public byte[] getAsBlobMessageFormat() {
-        ByteBuffer buffer = ByteBuffer.allocate(1 + 1 + rawSalt.length + rawHash.length);
+        byte[] out = new byte[encodedLength()];
+        writeTo(out, 0);
+        return out;
+    }
+
+    /**
+     * The byte length of the "BKDF Password Hash Message Format 1", see {@link #getAsBlobMessageFormat()}
+     *
+     * @return length in bytes
+     */
+    public int encodedLength() {
+        return 1 + 1 + rawSalt.length + rawHash.length;
+    }
+
+    /**
+     * Write the "BKDF Password Hash Message Format 1" (see {@link #getAsBlobMessageFormat()}) directly into given
+     * buffer at its current position. The position will be advanced by {@link #encodedLength()}.
+     *
+     * @param buffer target with at least {@link #encodedLength()} remaining bytes
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
         buffer.put(version.getVersionCode());
         buffer.put(cost);
         buffer.put(rawSalt);
         buffer.put(rawHash);
-        return buffer.array();
+    }
+
+    /**
+     * Write the "BKDF Password Hash Message Format 1" (see {@link #getAsBlobMessageFormat()}) directly into given
+     * array.
+     *
+     * @param dst    target with at least {@link #encodedLength()} bytes after offset
+     * @param offset where to start writing
+     * @return offset after the last written byte
+     */
+    public int writeTo(byte[] dst, int offset) {
+        dst[offset] = version.getVersionCode();
+        dst[offset + 1] = cost;
+        System.arraycopy(rawSalt, 0, dst, offset + 2, rawSalt.length);
+        System.arraycopy(rawHash, 0, dst, offset + 2 + rawSalt.length, rawHash.length);
+        return offset + encodedLength();
     }
 
     /**
@@ -104,7 +138,8 @@ public final class HashData {
      * @return base64-url-safe encoded password hash message aka "Format 2"
      */
     public String getAsEncodedMessageFormat() {
-        return Bytes.wrap(getAsBlobMessageFormat()).encodeBase64Url();
+        byte[] blob = getAsBlobMessageFormat();
+        return Base64Url.encode(blob, 0, blob.length);
     }
 
     /**
@@ -0,0 +1,226 @@
+package at.favre.lib.crypto.bkdf;
+
+/**
+ * Fast, reusable classifier for stored BKDF password hashes which only looks at the header of a message, i.e. the
+ * first few characters of a "Format 2" string (see {@link HashData#getAsEncodedMessageFormat()}) or the first bytes
+ * of a blob (see {@link HashData#getAsBlobMessageFormat()}), without decoding salt and hash.
+ * <p>
+ * Useful for scanning a large inventory of hashes, e.g. to find the ones below a certain strength:
+ *
+ * <pre>
+ *     HashMessageInspector inspector = new HashMessageInspector();
+ *     for (String hash : storedHashes) {
+ *         if (inspector.inspect(hash) != HashMessageInspector.Format.UNKNOWN &amp;&amp; inspector.cost(0) &lt; 10) {
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ * <p>
+ * A message is only classified as {@link Format#PLAIN} or {@link Format#COMPOUND} if all its version codes are supported
+ * and it is long enough to contain salt and hash; the content of salt and hash is not validated.
+ * <p>
+ * This class is not thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HashMessageInspector {
+
+    /**
+     * The format of an inspected message
+     */
+    public enum Format {
+        /**
+         * "BKDF Password Hash Message Format 1/2" with a single config, see {@link HashData}
+         */
+        PLAIN,
+        /**
+         * Compound format of an upgraded hash with one or more configs, see {@link CompoundHashData}
+         */
+        COMPOUND,
+        /**
+         * Not a (supported) BKDF password hash message
+         */
+        UNKNOWN
+    }
+
+    private static final int PLAIN_HEADER_LENGTH = 2;
+
+    private byte[] scratch = new byte[8];
+    private byte[] header;
+    private int headerOffset;
+    private Format format = Format.UNKNOWN;
+    private int configCount;
+    private int hashLength;
+
+    /**
+     * Quickly checks if given string starts with the compound format identifier (see
+     * {@link PasswordHashUpgrader#COMPOUND_FORMAT_VERSION}) by decoding only the first byte.
+     *
+     * @param bkdfPasswordHashFormat2 to check
+     * @return true if the message claims to be in compound format
+     */
+    public static boolean isCompound(CharSequence bkdfPasswordHashFormat2) {
+        if (bkdfPasswordHashFormat2.length() < 2) {
+            return false;
+        }
+        int high = Base64Url.decodeChar(bkdfPasswordHashFormat2.charAt(0));
+        int low = Base64Url.decodeChar(bkdfPasswordHashFormat2.charAt(1));
+        return high >= 0 && low >= 0 && (byte) (high << 2 | low >> 4) == PasswordHashUpgrader.COMPOUND_FORMAT_VERSION;
+    }
+
+    /**
+     * Inspect the header of given base64 encoded message ("Format 2" or encoded compound format).
+     *
+     * @param bkdfPasswordHashFormat2 to inspect
+     * @return the format; all other accessors refer to this message until the next call
+     */
+    public Format inspect(CharSequence bkdfPasswordHashFormat2) {
+        format = Format.UNKNOWN;
+        header = scratch;
+        headerOffset = 0;
+
+        if (Base64Url.decodePrefix(bkdfPasswordHashFormat2, header, PLAIN_HEADER_LENGTH) < PLAIN_HEADER_LENGTH) {
+            return format;
+        }
+        int headerLength = headerLength();
+        if (headerLength > PLAIN_HEADER_LENGTH) {
+            if (scratch.length < headerLength + 2) {
+                header = scratch = new byte[headerLength + 2];
+            }
+            if (Base64Url.decodePrefix(bkdfPasswordHashFormat2, header, headerLength) < headerLength) {
+                return format;
+            }
+        }
+
+        // whitespace may only make the string longer, so a too short message is always detected
+        if (!validateConfigs() || Base64Url.maxDecodedLength(bkdfPasswordHashFormat2) < encodedLength()) {
+            return format;
+        }
+        return format = isCompoundHeader() ? Format.COMPOUND : Format.PLAIN;
+    }
+
+    /**
+     * Inspect the header of the blob message starting at given offset ("Format 1" or compound format). The message
+     * must not extend beyond the end of the array.
+     *
+     * @param array  containing the message
+     * @param offset where the message starts
+     * @return the format; all other accessors refer to this message until the next call
+     */
+    public Format inspect(byte[] array, int offset) {
+        format = Format.UNKNOWN;
+        header = array;
+        headerOffset = offset;
+
+        if (offset < 0 || array.length - offset < PLAIN_HEADER_LENGTH) {
+            return format;
+        }
+        int headerLength = headerLength();
+        if (array.length - offset < headerLength || !validateConfigs() || array.length - offset < encodedLength()) {
+            return format;
+        }
+        return format = isCompoundHeader() ? Format.COMPOUND : Format.PLAIN;
+    }
+
+    private boolean isCompoundHeader() {
+        return header[headerOffset] == PasswordHashUpgrader.COMPOUND_FORMAT_VERSION;
+    }
+
+    private int headerLength() {
+        if (isCompoundHeader()) {
+            configCount = header[headerOffset + 1] & 0xFF;
+            return 2 + configCount * 2;
+        }
+        configCount = 1;
+        return PLAIN_HEADER_LENGTH;
+    }
+
+    private boolean validateConfigs() {
+        if (configCount == 0) {
+            return false;
+        }
+        for (int i = 0; i < configCount; i++) {
+            if (!EngineRegistry.isSupported(versionCodeAt(i))) {
+                return false;
+            }
+        }
+        hashLength = EngineRegistry.forCode(versionCodeAt(configCount - 1)).version.getHashByteLength();
+        return true;
+    }
+
+    /**
+     * The format of the last inspected message
+     *
+     * @return format
+     */
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * The amount of hash configs (i.e. length of the upgrade chain); always 1 for {@link Format#PLAIN}
+     *
+     * @return count of configs
+     */
+    public int configCount() {
+        checkIndex(0);
+        return configCount;
+    }
+
+    /**
+     * The version code of the config at given index
+     *
+     * @param configIndex between 0 and {@link #configCount()} - 1
+     * @return version code, see {@link Version#getVersionCode()}
+     */
+    public byte versionCode(int configIndex) {
+        checkIndex(configIndex);
+        return versionCodeAt(configIndex);
+    }
+
+    /**
+     * The cost factor of the config at given index
+     *
+     * @param configIndex between 0 and {@link #configCount()} - 1
+     * @return cost factor as unsigned value
+     */
+    public int cost(int configIndex) {
+        checkIndex(configIndex);
+        return (isCompoundHeader() ? header[headerOffset + 3 + configIndex * 2] : header[headerOffset + 1]) & 0xFF;
+    }
+
+    /**
+     * The sum of the bcrypt iterations of all configs (i.e. <code>2^cost</code> for every config) which is the
+     * strength of the hash.
+     *
+     * @return iterations
+     */
+    public long iterations() {
+        long iterations = 0;
+        for (int i = 0; i < configCount(); i++) {
+            iterations += 1L << Math.min(cost(i), 62);
+        }
+        return iterations;
+    }
+
+    /**
+     * The byte length of the whole message in blob form
+     *
+     * @return byte length
+     */
+    public int encodedLength() {
+        return (isCompoundHeader() ? 2 + configCount * 2 : PLAIN_HEADER_LENGTH) + HashData.SALT_LENGTH_BYTE + hashLength;
+    }
+
+    private byte versionCodeAt(int configIndex) {
+        return isCompoundHeader() ? header[headerOffset + 2 + configIndex * 2] : header[headerOffset];
+    }
+
+    private void checkIndex(int configIndex) {
+        if (format == Format.UNKNOWN) {
+            throw new IllegalStateException("last inspected message was not a supported hash message");
+        }
+        if (configIndex < 0 || configIndex >= configCount) {
+            throw new IndexOutOfBoundsException("config index " + configIndex + " out of range [0," + configCount + ")");
+        }
+    }
+}
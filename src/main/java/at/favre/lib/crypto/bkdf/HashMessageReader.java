@@ -0,0 +1,262 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation-free, reusable reader (flyweight) for the blob message formats, i.e. "BKDF Password Hash Message Format 1"
+ * (see {@link HashData#getAsBlobMessageFormat()}) and the compound format (see {@link CompoundHashData#getAsBlobMessageFormat()}).
+ * <p>
+ * Instead of copying the message into a model, the reader is pointed at a message inside a caller's
+ * <code>byte[]</code> or {@link ByteBuffer} with one of the <code>wrap</code> methods and reads all fields in place.
+ * Since the length of a message is defined by its header, a reader can be used to scan many concatenated messages:
+ *
+ * <pre>
+ *     HashMessageReader reader = new HashMessageReader();
+ *     for (int offset = 0; offset &lt; buffer.length; offset += reader.encodedLength()) {
+ *         reader.wrap(buffer, offset);
+ *         ...
+ *     }
+ * </pre>
+ * <p>
+ * This class is not thread-safe; the wrapped memory must not be modified while being read.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HashMessageReader {
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int offset;
+    private boolean compound;
+    private int configCount;
+    private int saltOffset;
+    private int hashLength;
+
+    /**
+     * Point this reader to the message starting at given offset of given array and validate its header.
+     *
+     * @param array  containing the message
+     * @param offset where the message starts
+     * @return this reader
+     * @throws IllegalArgumentException                if the message is malformed or truncated
+     * @throws Version.UnsupportedBkdfVersionException if a version code is not known
+     */
+    public HashMessageReader wrap(byte[] array, int offset) {
+        this.array = array;
+        this.buffer = null;
+        return init(offset, array.length);
+    }
+
+    /**
+     * Point this reader to the message starting at given absolute index of given buffer and validate its header.
+     * The position and limit of the buffer are not changed, but the message must not extend beyond the limit.
+     *
+     * @param buffer containing the message (heap or direct)
+     * @param index  absolute index where the message starts
+     * @return this reader
+     * @throws IllegalArgumentException                if the message is malformed or truncated
+     * @throws Version.UnsupportedBkdfVersionException if a version code is not known
+     */
+    public HashMessageReader wrap(ByteBuffer buffer, int index) {
+        if (buffer.hasArray()) {
+            this.array = buffer.array();
+            this.buffer = null;
+            return init(buffer.arrayOffset() + index, buffer.arrayOffset() + buffer.limit());
+        }
+        this.array = null;
+        this.buffer = buffer;
+        return init(index, buffer.limit());
+    }
+
+    private HashMessageReader init(int offset, int limit) {
+        this.offset = offset;
+        if (offset < 0 || offset + 2 > limit) {
+            throw new IllegalArgumentException("message too short");
+        }
+
+        compound = byteAt(0) == PasswordHashUpgrader.COMPOUND_FORMAT_VERSION;
+        if (compound) {
+            configCount = byteAt(1) & 0xFF;
+            if (configCount == 0) {
+                throw new IllegalArgumentException("there must be at least 1 hash config");
+            }
+            saltOffset = 2 + configCount * 2;
+            if (offset + saltOffset > limit) {
+                throw new IllegalArgumentException("message too short");
+            }
+            for (int i = 0; i < configCount; i++) {
+                EngineRegistry.forCode(versionCode(i));
+            }
+        } else {
+            configCount = 1;
+            saltOffset = 2;
+        }
+        hashLength = EngineRegistry.forCode(versionCode(configCount - 1)).version.getHashByteLength();
+
+        if (offset + encodedLength() > limit) {
+            throw new IllegalArgumentException("message too short");
+        }
+        return this;
+    }
+
+    private byte byteAt(int index) {
+        return array != null ? array[offset + index] : buffer.get(offset + index);
+    }
+
+    /**
+     * If the wrapped message is in compound format
+     *
+     * @return true if compound, false if "Format 1"
+     */
+    public boolean isCompound() {
+        return compound;
+    }
+
+    /**
+     * The amount of hash configs; always 1 for "Format 1"
+     *
+     * @return count of configs
+     */
+    public int configCount() {
+        return configCount;
+    }
+
+    /**
+     * The version code of the config at given index
+     *
+     * @param configIndex between 0 and {@link #configCount()} - 1
+     * @return version code, see {@link Version#getVersionCode()}
+     */
+    public byte versionCode(int configIndex) {
+        checkIndex(configIndex);
+        return compound ? byteAt(2 + configIndex * 2) : byteAt(0);
+    }
+
+    /**
+     * The version of the config at given index
+     *
+     * @param configIndex between 0 and {@link #configCount()} - 1
+     * @return version
+     */
+    public Version version(int configIndex) {
+        return EngineRegistry.forCode(versionCode(configIndex)).version;
+    }
+
+    /**
+     * The cost factor of the config at given index
+     *
+     * @param configIndex between 0 and {@link #configCount()} - 1
+     * @return cost factor as unsigned value
+     */
+    public int cost(int configIndex) {
+        checkIndex(configIndex);
+        return (compound ? byteAt(3 + configIndex * 2) : byteAt(1)) & 0xFF;
+    }
+
+    private void checkIndex(int configIndex) {
+        if (configIndex < 0 || configIndex >= configCount) {
+            throw new IndexOutOfBoundsException("config index " + configIndex + " out of range [0," + configCount + ")");
+        }
+    }
+
+    /**
+     * The length of the bcrypt hash (23 or 24 byte)
+     *
+     * @return byte length
+     */
+    public int hashLength() {
+        return hashLength;
+    }
+
+    /**
+     * The byte length of the whole wrapped message
+     *
+     * @return byte length
+     */
+    public int encodedLength() {
+        return saltOffset + HashData.SALT_LENGTH_BYTE + hashLength;
+    }
+
+    /**
+     * Copy the 16 byte salt to given array
+     *
+     * @param dst       target
+     * @param dstOffset where to start writing in target
+     */
+    public void copySaltTo(byte[] dst, int dstOffset) {
+        copyTo(saltOffset, HashData.SALT_LENGTH_BYTE, dst, dstOffset);
+    }
+
+    /**
+     * Copy the bcrypt hash ({@link #hashLength()} byte) to given array
+     *
+     * @param dst       target
+     * @param dstOffset where to start writing in target
+     */
+    public void copyHashTo(byte[] dst, int dstOffset) {
+        copyTo(saltOffset + HashData.SALT_LENGTH_BYTE, hashLength, dst, dstOffset);
+    }
+
+    private void copyTo(int from, int length, byte[] dst, int dstOffset) {
+        if (array != null) {
+            System.arraycopy(array, offset + from, dst, dstOffset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = buffer.get(offset + from + i);
+            }
+        }
+    }
+
+    /**
+     * Compares the wrapped bcrypt hash in constant time with given hash
+     *
+     * @param otherHash to compare to
+     * @return true if equal
+     */
+    public boolean hashEqualsConstantTime(byte[] otherHash) {
+        if (otherHash.length == 0) {
+            return false;
+        }
+        int result = otherHash.length ^ hashLength;
+        int hashOffset = saltOffset + HashData.SALT_LENGTH_BYTE;
+        for (int i = 0; i < hashLength; i++) {
+            result |= byteAt(hashOffset + i) ^ otherHash[i % otherHash.length];
+        }
+        return result == 0;
+    }
+
+    /**
+     * Materialize the wrapped message as model. Only possible for "Format 1" messages.
+     *
+     * @return new instance
+     * @throws IllegalStateException if wrapped message is in compound format
+     */
+    public HashData toHashData() {
+        if (compound) {
+            throw new IllegalStateException("message is in compound format");
+        }
+        byte[] salt = new byte[HashData.SALT_LENGTH_BYTE];
+        byte[] hash = new byte[hashLength];
+        copySaltTo(salt, 0);
+        copyHashTo(hash, 0);
+        return new HashData((byte) cost(0), version(0), salt, hash);
+    }
+
+    /**
+     * Materialize the wrapped message as compound model. "Format 1" messages will be converted to a compound with a
+     * single config, see {@link CompoundHashData#from(HashData)}.
+     *
+     * @return new instance
+     */
+    public CompoundHashData toCompoundHashData() {
+        List<CompoundHashData.Config> configList = new ArrayList<>(configCount);
+        for (int i = 0; i < configCount; i++) {
+            configList.add(new CompoundHashData.Config(version(i), (byte) cost(i)));
+        }
+        byte[] salt = new byte[HashData.SALT_LENGTH_BYTE];
+        byte[] hash = new byte[hashLength];
+        copySaltTo(salt, 0);
+        copyHashTo(hash, 0);
+        return new CompoundHashData(configList, salt, hash);
+    }
+}
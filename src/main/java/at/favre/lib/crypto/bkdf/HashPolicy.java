@@ -0,0 +1,141 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.Objects;
+
+/**
+ * The target configuration of stored password hashes, i.e. the {@link Version} and minimum cost factor every hash
+ * should have and optionally how long a compound chain (see {@link PasswordHashUpgrader}) may grow.
+ * <p>
+ * Use {@link #needsRehash(String)} to cheaply find hashes below the policy or
+ * {@link PasswordHashVerifier#verifyAndRehash(char[], String, HashPolicy)} to upgrade them on sign in.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HashPolicy {
+
+    /**
+     * The maximum amount of configs the compound format supports, i.e. no limit on the chain length
+     */
+    public static final int MAX_CHAIN_LENGTH = 255;
+
+    private final Version version;
+    private final int costFactor;
+    private final int maxChainLength;
+
+    /**
+     * Create a new policy without limit on the compound chain length
+     *
+     * @param version    every config of a hash must use
+     * @param costFactor minimum strength of a hash (for compound hashes the sum of iterations of all configs counts)
+     */
+    public HashPolicy(Version version, int costFactor) {
+        this(version, costFactor, MAX_CHAIN_LENGTH);
+    }
+
+    /**
+     * Create a new policy
+     *
+     * @param version        every config of a hash must use
+     * @param costFactor     minimum strength of a hash (for compound hashes the sum of iterations of all configs counts)
+     * @param maxChainLength maximum amount of configs a hash may have (a non-compound hash has exactly 1)
+     */
+    public HashPolicy(Version version, int costFactor, int maxChainLength) {
+        if (costFactor < 4 || costFactor > 31) {
+            throw new IllegalArgumentException("cost-factor must be between 4 and 31 (same as for bcrypt itself)");
+        }
+        if (maxChainLength < 1 || maxChainLength > MAX_CHAIN_LENGTH) {
+            throw new IllegalArgumentException("max chain length must be between 1 and " + MAX_CHAIN_LENGTH);
+        }
+        this.version = Objects.requireNonNull(version);
+        this.costFactor = costFactor;
+        this.maxChainLength = maxChainLength;
+    }
+
+    /**
+     * Checks if given hash does not satisfy this policy (i.e. it uses a different version, is too weak or has a too
+     * long chain) by only inspecting the header of the message (see {@link HashMessageInspector}). A hash stronger
+     * than the policy does not need a rehash.
+     *
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format
+     * @return true if the hash should be recomputed
+     * @throws IllegalArgumentException if given string is not a supported hash message
+     */
+    public boolean needsRehash(String bkdfPasswordHashFormat2) {
+        return needsRehash(new HashMessageInspector(), bkdfPasswordHashFormat2);
+    }
+
+    /**
+     * Same as {@link #needsRehash(String)} but with a caller provided (reusable) inspector.
+     *
+     * @param inspector               used to read the header
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format
+     * @return true if the hash should be recomputed
+     * @throws IllegalArgumentException if given string is not a supported hash message
+     */
+    public boolean needsRehash(HashMessageInspector inspector, String bkdfPasswordHashFormat2) {
+        if (inspector.inspect(bkdfPasswordHashFormat2) == HashMessageInspector.Format.UNKNOWN) {
+            throw new IllegalArgumentException("not a supported bkdf password hash message");
+        }
+        if (inspector.configCount() > maxChainLength) {
+            return true;
+        }
+        for (int i = 0; i < inspector.configCount(); i++) {
+            if (inspector.versionCode(i) != version.getVersionCode()) {
+                return true;
+            }
+        }
+        return inspector.iterations() < 1L << costFactor;
+    }
+
+    /**
+     * The version every config of a hash must use
+     *
+     * @return version
+     */
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * The minimum cost factor of a hash
+     *
+     * @return cost factor (log2)
+     */
+    public int getCostFactor() {
+        return costFactor;
+    }
+
+    /**
+     * The maximum amount of configs a hash may have
+     *
+     * @return max chain length
+     */
+    public int getMaxChainLength() {
+        return maxChainLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HashPolicy that = (HashPolicy) o;
+        return costFactor == that.costFactor &&
+                maxChainLength == that.maxChainLength &&
+                Objects.equals(version, that.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(version, costFactor, maxChainLength);
+    }
+
+    @Override
+    public String toString() {
+        return "HashPolicy{" +
+                "versionCode=" + version.getVersionCode() +
+                ", costFactor=" + costFactor +
+                ", maxChainLength=" + maxChainLength +
+                '}';
+    }
+}
@@ -0,0 +1,187 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free {@link BkdfListener} which records the durations per {@link BkdfListener.Operation} and
+ * {@link BkdfListener.Phase} in histograms with power-of-two buckets, as well as the distribution of compound chain
+ * lengths. Recording is a few atomic increments without allocation or locking, so this can be used in production;
+ * scrape the data with {@link #snapshot(BkdfListener.Operation)} and
+ * {@link #snapshot(BkdfListener.Operation, BkdfListener.Phase)}.
+ * <p>
+ * Bucket <code>i</code> counts durations <code>d</code> with <code>2^(i-1) &lt;= d &lt; 2^i</code> nanoseconds
+ * (bucket 0 counts zero durations), so percentiles have a relative error of at most factor 2.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HistogramRecorder implements BkdfListener {
+    /**
+     * Amount of buckets of each histogram
+     */
+    public static final int BUCKET_COUNT = 64;
+
+    private static final int OPERATIONS = Operation.values().length;
+    private static final int PHASES = Phase.values().length;
+    private static final int MAX_CHAIN_LENGTH = 255;
+
+    private final AtomicLongArray phaseBuckets = new AtomicLongArray(OPERATIONS * PHASES * BUCKET_COUNT);
+    private final AtomicLongArray phaseTotals = new AtomicLongArray(OPERATIONS * PHASES);
+    private final AtomicLongArray operationBuckets = new AtomicLongArray(OPERATIONS * BUCKET_COUNT);
+    private final AtomicLongArray operationTotals = new AtomicLongArray(OPERATIONS);
+    private final AtomicLongArray chainLengths = new AtomicLongArray(OPERATIONS * (MAX_CHAIN_LENGTH + 1));
+
+    @Override
+    public void onPhase(Operation operation, Phase phase, Version version, int costFactor, long durationNanos) {
+        int index = operation.ordinal() * PHASES + phase.ordinal();
+        phaseBuckets.incrementAndGet(index * BUCKET_COUNT + bucket(durationNanos));
+        phaseTotals.addAndGet(index, Math.max(0, durationNanos));
+    }
+
+    @Override
+    public void onOperation(Operation operation, Version version, int costFactor, int chainLength, long durationNanos) {
+        operationBuckets.incrementAndGet(operation.ordinal() * BUCKET_COUNT + bucket(durationNanos));
+        operationTotals.addAndGet(operation.ordinal(), Math.max(0, durationNanos));
+        chainLengths.incrementAndGet(operation.ordinal() * (MAX_CHAIN_LENGTH + 1) + Math.max(0, Math.min(MAX_CHAIN_LENGTH, chainLength)));
+    }
+
+    static int bucket(long durationNanos) {
+        return durationNanos <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(durationNanos));
+    }
+
+    /**
+     * Get a snapshot of the durations of whole operations of given type
+     *
+     * @param operation to get
+     * @return new snapshot
+     */
+    public Snapshot snapshot(Operation operation) {
+        return snapshot(operationBuckets, operation.ordinal() * BUCKET_COUNT, operationTotals.get(operation.ordinal()));
+    }
+
+    /**
+     * Get a snapshot of the durations of given phase within given operation
+     *
+     * @param operation the phase is part of
+     * @param phase     to get
+     * @return new snapshot
+     */
+    public Snapshot snapshot(Operation operation, Phase phase) {
+        int index = operation.ordinal() * PHASES + phase.ordinal();
+        return snapshot(phaseBuckets, index * BUCKET_COUNT, phaseTotals.get(index));
+    }
+
+    private static Snapshot snapshot(AtomicLongArray array, int offset, long totalNanos) {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = array.get(offset + i);
+            count += buckets[i];
+        }
+        return new Snapshot(buckets, count, totalNanos);
+    }
+
+    /**
+     * Get how many operations of given type were recorded with given compound chain length
+     *
+     * @param operation   to get
+     * @param chainLength between 1 and 255; 1 for non-compound hashes
+     * @return count
+     */
+    public long chainLengthCount(Operation operation, int chainLength) {
+        if (chainLength < 0 || chainLength > MAX_CHAIN_LENGTH) {
+            throw new IllegalArgumentException("chain length must be between 0 and " + MAX_CHAIN_LENGTH);
+        }
+        return chainLengths.get(operation.ordinal() * (MAX_CHAIN_LENGTH + 1) + chainLength);
+    }
+
+    /**
+     * Set all recorded values to zero. Not atomic in respect to concurrent recording.
+     */
+    public void reset() {
+        for (AtomicLongArray array : Arrays.asList(phaseBuckets, phaseTotals, operationBuckets, operationTotals, chainLengths)) {
+            for (int i = 0; i < array.length(); i++) {
+                array.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * An immutable copy of one histogram
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+        /**
+         * Amount of recorded durations
+         */
+        public final long count;
+        /**
+         * Sum of all recorded durations
+         */
+        public final long totalNanos;
+
+        Snapshot(long[] buckets, long count, long totalNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+        }
+
+        /**
+         * The count of given bucket
+         *
+         * @param index between 0 and {@link #BUCKET_COUNT} - 1
+         * @return count
+         */
+        public long bucketCount(int index) {
+            return buckets[index];
+        }
+
+        /**
+         * The exclusive upper bound of given bucket
+         *
+         * @param index between 0 and {@link #BUCKET_COUNT} - 1
+         * @return nanoseconds
+         */
+        public static long bucketUpperBoundNanos(int index) {
+            return index >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << index;
+        }
+
+        /**
+         * The arithmetic mean of all recorded durations
+         *
+         * @return nanoseconds or 0 if nothing was recorded
+         */
+        public long meanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * An upper bound (by at most factor 2) of the given percentile
+         *
+         * @param percentile between 0 and 1, e.g. 0.99
+         * @return nanoseconds or 0 if nothing was recorded
+         */
+        public long percentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return bucketUpperBoundNanos(i);
+                }
+            }
+            return bucketUpperBoundNanos(BUCKET_COUNT - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{count=" + count + ", meanNanos=" + meanNanos() + ", p50Nanos=" + percentileNanos(0.5)
+                    + ", p99Nanos=" + percentileNanos(0.99) + '}';
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs many independent bcrypt computations in parallel; with the built-in bcrypt each task computes up to
+ * {@link EksBlowfish#LANES} of them interleaved on one thread (see {@link EngineRegistry.Engine#hashInterleaved(BkdfListener.Operation, byte[][], byte[][], int)}).
+ * <p>
+ * Only computations with the same engine and cost factor can run in lockstep, so jobs are grouped by these
+ * automatically before being split into tasks; the tasks are executed with {@link Batch}. If a task fails, its jobs
+ * are retried one by one, so a failure only fails the job which caused it.
+ */
+final class InterleavedBatch {
+
+    private InterleavedBatch() {
+    }
+
+    /**
+     * A single bcrypt computation
+     */
+    static final class Job {
+        final EngineRegistry.Engine engine;
+        final byte[] pwBytes;
+        final byte[] salt;
+        final int costFactor;
+
+        Job(EngineRegistry.Engine engine, byte[] pwBytes, byte[] salt, int costFactor) {
+            this.engine = engine;
+            this.pwBytes = pwBytes;
+            this.salt = salt;
+            this.costFactor = costFactor;
+        }
+    }
+
+    /**
+     * Compute all jobs.
+     *
+     * @param operation reported to the {@link BkdfListener}
+     * @param jobs      to compute; the pwBytes of each job are wiped once its task completed
+     * @param executor  to run the tasks on
+     * @return the raw bcrypt hash per job in the same order
+     */
+    static List<BatchResult<byte[]>> execute(final BkdfListener.Operation operation, final List<Job> jobs, ExecutorService executor) {
+        if (jobs.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<int[]> tasks = tasks(jobs);
+        List<BatchResult<List<BatchResult<byte[]>>>> taskResults = Batch.execute(tasks, new Batch.Operation<int[], List<BatchResult<byte[]>>>() {
+            @Override
+            public List<BatchResult<byte[]>> apply(int[] task) {
+                try {
+                    return hashTask(operation, jobs, task);
+                } finally {
+                    for (int index : task) {
+                        Arrays.fill(jobs.get(index).pwBytes, (byte) 0);
+                    }
+                }
+            }
+        }, executor);
+
+        @SuppressWarnings("unchecked")
+        BatchResult<byte[]>[] results = new BatchResult[jobs.size()];
+        for (int t = 0; t < tasks.size(); t++) {
+            int[] task = tasks.get(t);
+            BatchResult<List<BatchResult<byte[]>>> taskResult = taskResults.get(t);
+            for (int i = 0; i < task.length; i++) {
+                results[task[i]] = taskResult.isSuccess()
+                        ? taskResult.get().get(i)
+                        : BatchResult.<byte[]>failure(taskResult.getError());
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * Groups the jobs by engine and cost factor and splits the groups into tasks of up to {@link EksBlowfish#LANES}
+     * jobs if the engine uses the built-in bcrypt, otherwise into one task per job.
+     *
+     * @param jobs to split
+     * @return the indices of the jobs per task
+     */
+    static List<int[]> tasks(List<Job> jobs) {
+        Map<EngineRegistry.Engine, Map<Integer, List<Integer>>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            Map<Integer, List<Integer>> byCost = groups.get(job.engine);
+            if (byCost == null) {
+                byCost = new LinkedHashMap<>();
+                groups.put(job.engine, byCost);
+            }
+            List<Integer> indices = byCost.get(job.costFactor);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                byCost.put(job.costFactor, indices);
+            }
+            indices.add(i);
+        }
+
+        List<int[]> tasks = new ArrayList<>(jobs.size());
+        for (Map.Entry<EngineRegistry.Engine, Map<Integer, List<Integer>>> group : groups.entrySet()) {
+            // without the built-in bcrypt the lanes would just run one after another, so use one task per job
+            int lanes = group.getKey().useEksBlowfish ? EksBlowfish.LANES : 1;
+            for (List<Integer> indices : group.getValue().values()) {
+                for (int from = 0; from < indices.size(); from += lanes) {
+                    int[] task = new int[Math.min(lanes, indices.size() - from)];
+                    for (int i = 0; i < task.length; i++) {
+                        task[i] = indices.get(from + i);
+                    }
+                    tasks.add(task);
+                }
+            }
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Computes the jobs of one task interleaved; if that fails, every job is retried on its own so only the
+     * jobs which actually fail are reported as failure.
+     */
+    private static List<BatchResult<byte[]>> hashTask(BkdfListener.Operation operation, List<Job> jobs, int[] task) {
+        Job first = jobs.get(task[0]);
+        byte[][] pwBytes = new byte[task.length][];
+        byte[][] salts = new byte[task.length][];
+        for (int i = 0; i < task.length; i++) {
+            pwBytes[i] = jobs.get(task[i]).pwBytes;
+            salts[i] = jobs.get(task[i]).salt;
+        }
+
+        List<BatchResult<byte[]>> results = new ArrayList<>(task.length);
+        try {
+            for (byte[] rawHash : first.engine.hashInterleaved(operation, pwBytes, salts, first.costFactor)) {
+                results.add(BatchResult.success(rawHash));
+            }
+        } catch (RuntimeException e) {
+            if (task.length == 1) {
+                throw e;
+            }
+            for (int i = 0; i < task.length; i++) {
+                try {
+                    results.add(BatchResult.success(first.engine.hashInterleaved(operation,
+                            new byte[][]{pwBytes[i]}, new byte[][]{salts[i]}, first.costFactor)[0]));
+                } catch (RuntimeException laneError) {
+                    results.add(BatchResult.<byte[]>failure(laneError));
+                }
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,61 @@
+package at.favre.lib.crypto.bkdf;
+
+/**
+ * Emits the Java Flight Recorder events <code>bkdf.Hash</code>, <code>bkdf.Verify</code>, <code>bkdf.Derive</code>
+ * and <code>bkdf.Upgrade</code> for the operations of the default implementations.
+ * <p>
+ * This is the Java 7 implementation which does nothing and is inlined away by the JIT. On Java 11+ the jar is used as
+ * multi-release jar and this class is replaced by the version in <code>src/main/java11</code> which uses
+ * <code>jdk.jfr</code>.
+ * <p>
+ * Usage:
+ * <pre>
+ *     Object event = JfrEvents.begin(BkdfListener.Operation.HASH);
+ *     String outcome = JfrEvents.ERROR;
+ *     try {
+ *         ...
+ *         outcome = JfrEvents.SUCCESS;
+ *     } finally {
+ *         JfrEvents.end(event, versionCode, costFactor, chainLength, outcome);
+ *     }
+ * </pre>
+ */
+final class JfrEvents {
+    /**
+     * The operation completed (for verification: the password matched)
+     */
+    static final String SUCCESS = "success";
+    /**
+     * The verification completed but the password did not match
+     */
+    static final String MISMATCH = "mismatch";
+    /**
+     * The operation threw an exception
+     */
+    static final String ERROR = "error";
+
+    private JfrEvents() {
+    }
+
+    /**
+     * Start the event of an operation
+     *
+     * @param operation which starts
+     * @return the event handle or null if recording is disabled
+     */
+    static Object begin(BkdfListener.Operation operation) {
+        return null;
+    }
+
+    /**
+     * Complete and commit the event created with {@link #begin(BkdfListener.Operation)}
+     *
+     * @param event       handle, may be null
+     * @param versionCode of the (last) config of the hash or 0 if unknown
+     * @param costFactor  of the (last) config of the hash or 0 if unknown
+     * @param chainLength amount of configs of the hash or 0 if unknown
+     * @param outcome     {@link #SUCCESS}, {@link #MISMATCH} or {@link #ERROR}
+     */
+    static void end(Object event, byte versionCode, int costFactor, int chainLength, String outcome) {
+    }
+}
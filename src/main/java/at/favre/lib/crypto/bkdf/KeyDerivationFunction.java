@@ -1,11 +1,10 @@
 package at.favre.lib.crypto.bkdf;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.bcrypt.BCrypt;
-import at.favre.lib.hkdf.HKDF;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Key Derivation protocol of BKDF. Used for derived high entropy secret keys from user passwords with a given cost factor.
@@ -44,6 +43,21 @@ public interface KeyDerivationFunction {
      */
     byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte);
 
+    /**
+     * Same as {@link #derive(byte[], char[], int, byte[], int)} but uses the reusable buffers and bcrypt state of
+     * given workspace instead of allocating temporary memory; with the built-in bcrypt (see {@link BkdfWorkspace})
+     * the only allocation is the returned key material. The workspace is wiped afterwards.
+     *
+     * @param salt          16 byte long nonce (number used once); salt is not required to be secret
+     * @param password      user provided password
+     * @param costFactor    exponential cost (log2 factor) between 4 and 31
+     * @param infoParam     optional parameter that can be used to pin the key material to a specific context. Can be null.
+     * @param outLengthByte how many bytes long the resulting key material should be (usually 16 or 32 bytes)
+     * @param workspace     used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return raw output key material
+     */
+    byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte, BkdfWorkspace workspace);
+
     /**
      * Derive high entropy key material from given salt, user password.
      * <p>
@@ -91,6 +105,54 @@ public interface KeyDerivationFunction {
      */
     List<byte[]> deriveMulti(byte[] salt, byte[] ikm, int costFactor, List<KdfConfig> configList);
 
+    /**
+     * Run only the expensive key stretching (bcrypt) of the KDF and return a handle from which output key material can
+     * be expanded on demand, e.g. if not all needed keys are known up front. Expanding is cheap and produces the same
+     * output as {@link #derive(byte[], char[], int, byte[], int)} with the same parameters.
+     * <p>
+     * The caller should {@link StretchedKey#destroy()} (or close) the handle as soon as it is not needed anymore.
+     *
+     * @param salt       at least 16 byte long nonce (number used once); salt is not required to be secret
+     * @param password   user provided password
+     * @param costFactor exponential cost (log2 factor) between 4 and 31 e.g. 12 --&gt;
+     *                   2^12 = 4,096 iterations (higher == slower == more secure)
+     * @return handle to expand key material from
+     */
+    StretchedKey stretch(byte[] salt, char[] password, int costFactor);
+
+    /**
+     * Run only the expensive key stretching (bcrypt) of the KDF and return a handle from which output key material can
+     * be expanded on demand, see {@link #stretch(byte[], char[], int)}.
+     *
+     * @param salt       at least 16 byte long nonce (number used once); salt is not required to be secret
+     * @param ikm        user provided password as byte array or other password reheated entropy
+     * @param costFactor exponential cost (log2 factor) between 4 and 31 e.g. 12 --&gt;
+     *                   2^12 = 4,096 iterations (higher == slower == more secure)
+     * @return handle to expand key material from
+     */
+    StretchedKey stretch(byte[] salt, byte[] ikm, int costFactor);
+
+    /**
+     * Derive key material for a batch of independent inputs in parallel on the {@link BkdfExecutors#sharedBatchPool()}.
+     * <p>
+     * A failure is reported in the result of the respective element and does not abort the other computations.
+     *
+     * @param inputs to derive from
+     * @return one result (the raw output key material) per input in the same order
+     */
+    List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs);
+
+    /**
+     * Derive key material for a batch of independent inputs in parallel on given executor (a
+     * {@link java.util.concurrent.ForkJoinPool} is used with recursive splitting, any other executor with one task
+     * per input).
+     *
+     * @param inputs   to derive from
+     * @param executor to run the derivations on
+     * @return one result (the raw output key material) per input in the same order
+     */
+    List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs, ExecutorService executor);
+
     /**
      * Get the in this instance used hash version.
      * See {@link Version}.
@@ -103,16 +165,10 @@ public interface KeyDerivationFunction {
      * Default implementation
      */
     final class Default implements KeyDerivationFunction {
-        private static final byte[] FIXED_INFO_PARAM = Bytes.from("bkdf").array();
-
-        private final byte versionCode;
-        private final HKDF hkdf;
-        private final int hashByteLength;
+        private final EngineRegistry.Engine engine;
 
         public Default(Version version) {
-            this.versionCode = version.getVersionCode();
-            this.hkdf = version.getHkdf();
-            this.hashByteLength = version.getHashByteLength();
+            this.engine = EngineRegistry.forVersion(version);
         }
 
         @Override
@@ -120,6 +176,37 @@ public interface KeyDerivationFunction {
             return derive(salt, Bytes.from(password, StandardCharsets.UTF_8).array(), costFactor, infoParam, outLengthByte);
         }
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Passwords longer than {@link PasswordHasher#MAX_PASSWORD_LENGTH} take the regular, allocating path.
+         */
+        @Override
+        public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte, BkdfWorkspace workspace) {
+            if (password.length > PasswordHasher.MAX_PASSWORD_LENGTH) {
+                return derive(salt, password, costFactor, infoParam, outLengthByte);
+            }
+
+            Object event = JfrEvents.begin(BkdfListener.Operation.DERIVE);
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                engine.validateOutLength(outLengthByte);
+                engine.hashPassword(BkdfListener.Operation.DERIVE, password, salt, costFactor, workspace, workspace.hash, 0);
+
+                long expandStart = BkdfInstrumentation.start();
+                byte[] okm = new byte[outLengthByte];
+                engine.expand(workspace.hash, engine.version.getHashByteLength(), infoParam, StretchedKey.FIXED_INFO_PARAM, workspace, okm);
+                BkdfInstrumentation.phase(BkdfListener.Operation.DERIVE, BkdfListener.Phase.HKDF_EXPAND, engine.version, costFactor, expandStart);
+                BkdfInstrumentation.operation(BkdfListener.Operation.DERIVE, engine.version, costFactor, 1, start);
+                outcome = JfrEvents.SUCCESS;
+                return okm;
+            } finally {
+                workspace.wipe();
+                JfrEvents.end(event, engine.version.getVersionCode(), costFactor, 1, outcome);
+            }
+        }
+
         @Override
         public byte[] derive(byte[] salt, byte[] ikm, int costFactor, byte[] infoParam, int outLengthByte) {
             return deriveMulti(salt, ikm, costFactor,
@@ -132,24 +219,65 @@ public interface KeyDerivationFunction {
                 throw new IllegalArgumentException("config list must not be empty");
             }
 
-            byte[] extractedPw = hkdf.extract((byte[]) null, ikm);
+            Object event = JfrEvents.begin(BkdfListener.Operation.DERIVE);
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                List<byte[]> outList;
+                try (StretchedKey stretchedKey = new StretchedKey(engine, costFactor, engine.hash(BkdfListener.Operation.DERIVE, ikm, salt, costFactor))) {
+                    outList = stretchedKey.expandAll(configList);
+                }
+                BkdfInstrumentation.operation(BkdfListener.Operation.DERIVE, engine.version, costFactor, 1, start);
+                outcome = JfrEvents.SUCCESS;
+                return outList;
+            } finally {
+                JfrEvents.end(event, engine.version.getVersionCode(), costFactor, 1, outcome);
+            }
+        }
 
-            BCrypt.HashData data = BCrypt.with(
-                            new BCrypt.Version(new byte[]{0x32, 0x61},
-                                    hashByteLength == Version.MIN_BCRYPT_HASH_LENGTH_BYTE,
-                                    true, BCrypt.Version.MAX_PW_LENGTH_BYTE, null, null))
-                    .hashRaw(costFactor, salt, extractedPw);
+        @Override
+        public StretchedKey stretch(byte[] salt, char[] password, int costFactor) {
+            byte[] ikm = Bytes.from(password, StandardCharsets.UTF_8).array();
+            try {
+                return stretch(salt, ikm, costFactor);
+            } finally {
+                Arrays.fill(ikm, (byte) 0);
+            }
+        }
 
-            List<byte[]> outList = new ArrayList<>(configList.size());
-            for (KdfConfig kdfConfig : configList) {
-                outList.add(hkdf.expand(data.rawHash, Bytes.wrapNullSafe(kdfConfig.infoParam).append(FIXED_INFO_PARAM).array(), kdfConfig.outLengthByte));
+        @Override
+        public StretchedKey stretch(byte[] salt, byte[] ikm, int costFactor) {
+            Object event = JfrEvents.begin(BkdfListener.Operation.DERIVE);
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                StretchedKey stretchedKey = new StretchedKey(engine, costFactor, engine.hash(BkdfListener.Operation.DERIVE, ikm, salt, costFactor));
+                BkdfInstrumentation.operation(BkdfListener.Operation.DERIVE, engine.version, costFactor, 1, start);
+                outcome = JfrEvents.SUCCESS;
+                return stretchedKey;
+            } finally {
+                JfrEvents.end(event, engine.version.getVersionCode(), costFactor, 1, outcome);
             }
-            return outList;
+        }
+
+        @Override
+        public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs) {
+            return deriveAll(inputs, BkdfExecutors.sharedBatchPool());
+        }
+
+        @Override
+        public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs, ExecutorService executor) {
+            return Batch.execute(inputs, new Batch.Operation<KdfInput, byte[]>() {
+                @Override
+                public byte[] apply(KdfInput input) {
+                    return derive(input.salt, input.ikm, input.costFactor, input.infoParam, input.outLengthByte);
+                }
+            }, executor);
         }
 
         @Override
         public Version getHashVersion() {
-            return Version.Util.getByCode(versionCode);
+            return engine.version;
         }
     }
 
@@ -189,4 +317,32 @@ public interface KeyDerivationFunction {
             return result;
         }
     }
+
+    /**
+     * All the inputs of a single {@link #derive(byte[], byte[], int, byte[], int)} call, see {@link #deriveAll(List)}
+     */
+    final class KdfInput {
+        public final byte[] salt;
+        public final byte[] ikm;
+        public final int costFactor;
+        public final byte[] infoParam;
+        public final int outLengthByte;
+
+        /**
+         * Create new instance.
+         *
+         * @param salt          at least 16 byte long nonce
+         * @param ikm           user provided password as byte array or other password reheated entropy
+         * @param costFactor    exponential cost (log2 factor) between 4 and 31
+         * @param infoParam     optional context parameter, can be null
+         * @param outLengthByte how many bytes long the resulting key material should be
+         */
+        public KdfInput(byte[] salt, byte[] ikm, int costFactor, byte[] infoParam, int outLengthByte) {
+            this.salt = salt;
+            this.ikm = ikm;
+            this.costFactor = costFactor;
+            this.infoParam = infoParam;
+            this.outLengthByte = outLengthByte;
+        }
+    }
 }
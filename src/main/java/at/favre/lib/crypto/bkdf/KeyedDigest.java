@@ -0,0 +1,94 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * HMAC-SHA256 with a random key only known to this instance (i.e. the process). Used to create lookup keys for
+ * caches from secret input like passwords, without keeping the secret in memory and without allowing an attacker
+ * with access to a heap dump to brute-force the password from the cache key offline.
+ * <p>
+ * This class is thread-safe.
+ */
+final class KeyedDigest {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH_BYTE = 32;
+
+    private final ThreadLocal<Mac> macs;
+
+    KeyedDigest(SecureRandom secureRandom) {
+        byte[] key = new byte[KEY_LENGTH_BYTE];
+        secureRandom.nextBytes(key);
+        final SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM);
+        this.macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(ALGORITHM);
+                    mac.init(keySpec);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("could not create " + ALGORITHM, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Calculate the MAC of the concatenation of given parts
+     *
+     * @param parts to authenticate; none may be null
+     * @return 32 byte mac
+     */
+    byte[] digest(byte[]... parts) {
+        Mac mac = macs.get();
+        for (byte[] part : parts) {
+            mac.update(part);
+        }
+        return mac.doFinal();
+    }
+
+    /**
+     * Calculate the MAC of a stored hash and a user password, the temporary encoded password will be wiped
+     *
+     * @param storedHash the password is verified against
+     * @param password   from user
+     * @return 32 byte mac
+     */
+    byte[] digestCredential(String storedHash, char[] password) {
+        byte[] pwBytes = Bytes.from(password, StandardCharsets.UTF_8).array();
+        try {
+            return digest(storedHash.getBytes(StandardCharsets.UTF_8), new byte[]{0}, pwBytes);
+        } finally {
+            Arrays.fill(pwBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #digestCredential(String, char[])} (i.e. the same mac for the same password) but encodes the
+     * password into given workspace, which is wiped afterwards.
+     *
+     * @param storedHash the password is verified against
+     * @param password   from user as char[], {@link CharSequence} or utf-8 encoded {@link java.nio.ByteBuffer}
+     * @param workspace  used to encode the password
+     * @return 32 byte mac
+     */
+    byte[] digestCredential(String storedHash, Object password, BkdfWorkspace workspace) {
+        try {
+            int pwLength = workspace.encodeAnyPassword(password);
+            Mac mac = macs.get();
+            mac.update(storedHash.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(workspace.passwordBytes, 0, pwLength);
+            return mac.doFinal();
+        } finally {
+            workspace.wipe();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.hkdf.HKDF;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * HMAC (rfc2104) on top of a {@link MessageDigest}, with HKDF (rfc5869) expand with the key as pseudo random key, and
+ * extract if keyed with the (all zero) default salt, producing the same output as {@link HKDF}. There are two kinds
+ * of instances:
+ * <ul>
+ * <li>{@link #KeyedHmac(String, byte[])} for a fixed key with precomputed inner and outer pad states: the padded key
+ * blocks are hashed once when created and every mac starts from a clone of these keyed digest states. Compared to a
+ * new {@link javax.crypto.Mac} per use, this saves the provider lookup, the key schedule and two digest block
+ * compressions per mac. These instances are thread-safe: the precomputed states are only cloned, never updated.</li>
+ * <li>{@link #reusable(String)} for a {@link BkdfWorkspace}: a single digest, the padded key blocks (set with
+ * {@link #init(byte[], int)}) and the expand buffer are reused, so unlike {@link javax.crypto.Mac#doFinal(byte[], int)}
+ * nothing is allocated. These instances are not thread-safe.</li>
+ * </ul>
+ */
+final class KeyedHmac {
+    private static final byte INNER_PAD = 0x36;
+    private static final byte OUTER_PAD = 0x5C;
+    private static final byte[] PROBE = "bkdf-hmac-probe".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] KNOWN_DIGESTS = {"SHA-512", "SHA-256"};
+
+    private final int macLength;
+    // fixed key: the precomputed states, null if reusable
+    private final MessageDigest innerState;
+    private final MessageDigest outerState;
+    // reusable: the digest, padded key blocks and expand buffer, null if fixed key
+    private final MessageDigest digest;
+    private final byte[] innerKeyBlock;
+    private final byte[] outerKeyBlock;
+    private final byte[] buffer;
+
+    /**
+     * Create new instance for a fixed key and run the key schedule
+     *
+     * @param digestAlgorithm e.g. "SHA-512"
+     * @param key             may be null for an all zero key (the default salt of HKDF extract)
+     */
+    KeyedHmac(String digestAlgorithm, byte[] key) {
+        this.innerState = newDigest(digestAlgorithm);
+        this.outerState = newDigest(digestAlgorithm);
+        this.macLength = innerState.getDigestLength();
+        this.digest = null;
+        this.innerKeyBlock = null;
+        this.outerKeyBlock = null;
+        this.buffer = null;
+
+        byte[] innerBlock = new byte[blockLengthOf(macLength)];
+        byte[] outerBlock = new byte[innerBlock.length];
+        padKey(innerState, key, key != null ? key.length : 0, innerBlock, outerBlock);
+        innerState.update(innerBlock);
+        outerState.update(outerBlock);
+        Arrays.fill(innerBlock, (byte) 0);
+        Arrays.fill(outerBlock, (byte) 0);
+    }
+
+    private KeyedHmac(MessageDigest digest) {
+        this.innerState = null;
+        this.outerState = null;
+        this.digest = digest;
+        this.macLength = digest.getDigestLength();
+        this.innerKeyBlock = new byte[blockLengthOf(macLength)];
+        this.outerKeyBlock = new byte[innerKeyBlock.length];
+        this.buffer = new byte[macLength];
+        init(null, 0);
+    }
+
+    /**
+     * Create a new reusable instance, initialized with the all zero key
+     *
+     * @param digestAlgorithm e.g. "SHA-512"
+     * @return new instance
+     */
+    static KeyedHmac reusable(String digestAlgorithm) {
+        return new KeyedHmac(newDigest(digestAlgorithm));
+    }
+
+    /**
+     * Finds the digest of the HMAC used by given HKDF instance by comparing its output with the known digests.
+     *
+     * @param hkdf to check
+     * @return digest algorithm name or null if it is none of the known
+     */
+    static String digestAlgorithmOf(HKDF hkdf) {
+        byte[] expected = hkdf.extract((byte[]) null, PROBE);
+        for (String digestAlgorithm : KNOWN_DIGESTS) {
+            KeyedHmac hmac = new KeyedHmac(digestAlgorithm, null);
+            if (hmac.macLength == expected.length && Arrays.equals(expected, hmac.mac(PROBE))) {
+                return digestAlgorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The name of the used digest
+     *
+     * @return e.g. "SHA-512"
+     */
+    String digestAlgorithm() {
+        return (digest != null ? digest : innerState).getAlgorithm();
+    }
+
+    /**
+     * The length of the mac (and HKDF pseudo random key)
+     *
+     * @return byte length
+     */
+    int macLength() {
+        return macLength;
+    }
+
+    /**
+     * Set the key of a reusable instance.
+     *
+     * @param key    may be null for an all zero key (the default salt of HKDF extract)
+     * @param length the first length bytes of key are used
+     */
+    void init(byte[] key, int length) {
+        if (digest == null) {
+            throw new IllegalStateException("the key of this instance is fixed");
+        }
+        padKey(digest, key, length, innerKeyBlock, outerKeyBlock);
+    }
+
+    /**
+     * Calculate the mac of given data. If the key is the default salt this is HKDF extract.
+     *
+     * @param data to authenticate
+     * @return mac
+     */
+    byte[] mac(byte[] data) {
+        byte[] out = new byte[macLength];
+        mac(data, 0, data.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Calculate the mac of given data into given array, see {@link #mac(byte[])}.
+     *
+     * @param data      to authenticate
+     * @param offset    where data starts
+     * @param length    of data
+     * @param out       target with at least {@link #macLength()} bytes after outOffset
+     * @param outOffset where to start writing
+     */
+    void mac(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest inner = begin();
+        inner.update(data, offset, length);
+        finish(inner, out, outOffset);
+    }
+
+    /**
+     * HKDF expand with the key as pseudo random key, the same as <code>hkdf.expand(key, info | infoSuffix, length)</code>.
+     *
+     * @param info       optional context, may be null
+     * @param infoSuffix appended to info
+     * @param length     of the output key material (at most 255 times {@link #macLength()})
+     * @return output key material
+     */
+    byte[] expand(byte[] info, byte[] infoSuffix, int length) {
+        checkLength(length);
+        byte[] out = new byte[length];
+        expand(info, infoSuffix, out, 0, length);
+        return out;
+    }
+
+    /**
+     * HKDF expand into a region of given array, e.g. to write multiple output key materials of the same key into
+     * one contiguous array, see {@link #expand(byte[], byte[], int)}.
+     *
+     * @param info       optional context, may be null
+     * @param infoSuffix appended to info
+     * @param out        target
+     * @param outOffset  where to start writing
+     * @param length     of the output key material (at most 255 times {@link #macLength()})
+     */
+    void expand(byte[] info, byte[] infoSuffix, byte[] out, int outOffset, int length) {
+        checkLength(length);
+        byte[] block = buffer != null ? buffer : new byte[macLength];
+        int written = 0;
+        for (int counter = 1; written < length; counter++) {
+            MessageDigest inner = begin();
+            if (counter > 1) {
+                inner.update(block);
+            }
+            if (info != null) {
+                inner.update(info);
+            }
+            inner.update(infoSuffix);
+            inner.update((byte) counter);
+            finish(inner, block, 0);
+
+            int chunk = Math.min(macLength, length - written);
+            System.arraycopy(block, 0, out, outOffset + written, chunk);
+            written += chunk;
+        }
+        Arrays.fill(block, (byte) 0);
+    }
+
+    /**
+     * Discard a partially calculated mac of a reusable instance, but keep the key.
+     */
+    void reset() {
+        if (digest != null) {
+            digest.reset();
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    /**
+     * Overwrite the key dependent state. A fixed key instance must not be used afterwards and this must not be called
+     * concurrently with any other method; a reusable instance must be initialized with {@link #init(byte[], int)}
+     * before the next use.
+     */
+    void wipe() {
+        if (digest != null) {
+            reset();
+            Arrays.fill(innerKeyBlock, (byte) 0);
+            Arrays.fill(outerKeyBlock, (byte) 0);
+        } else {
+            innerState.reset();
+            outerState.reset();
+        }
+    }
+
+    private void checkLength(int length) {
+        if (length <= 0 || length > 255 * macLength) {
+            throw new IllegalArgumentException("out length must be between 1 and " + 255 * macLength);
+        }
+    }
+
+    private MessageDigest begin() {
+        if (digest == null) {
+            return copy(innerState);
+        }
+        digest.update(innerKeyBlock);
+        return digest;
+    }
+
+    private void finish(MessageDigest inner, byte[] out, int outOffset) {
+        digestTo(inner, out, outOffset, macLength);
+        MessageDigest outer;
+        if (digest == null) {
+            outer = copy(outerState);
+        } else {
+            outer = digest;
+            outer.update(outerKeyBlock);
+        }
+        outer.update(out, outOffset, macLength);
+        digestTo(outer, out, outOffset, macLength);
+    }
+
+    /**
+     * The internal block length of the known digests, which is the length of the padded HMAC key
+     *
+     * @param macLength digest output length
+     * @return 128 for SHA-384/512, 64 for SHA-256 and shorter
+     */
+    private static int blockLengthOf(int macLength) {
+        return macLength > 32 ? 128 : 64;
+    }
+
+    private static void padKey(MessageDigest digest, byte[] key, int length, byte[] innerBlock, byte[] outerBlock) {
+        Arrays.fill(innerBlock, INNER_PAD);
+        if (key != null) {
+            if (length > innerBlock.length) {
+                // too long keys are hashed, the outer block is used as temporary buffer
+                digest.update(key, 0, length);
+                length = digest.getDigestLength();
+                digestTo(digest, outerBlock, 0, length);
+                key = outerBlock;
+            }
+            for (int i = 0; i < length; i++) {
+                innerBlock[i] ^= key[i];
+            }
+        }
+        for (int i = 0; i < innerBlock.length; i++) {
+            outerBlock[i] = (byte) (innerBlock[i] ^ INNER_PAD ^ OUTER_PAD);
+        }
+    }
+
+    private static void digestTo(MessageDigest digest, byte[] out, int outOffset, int length) {
+        try {
+            digest.digest(out, outOffset, length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest newDigest(String digestAlgorithm) {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("could not create " + digestAlgorithm, e);
+        }
+    }
+
+    private static MessageDigest copy(MessageDigest state) {
+        try {
+            return (MessageDigest) state.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("digest " + state.getAlgorithm() + " does not support precomputed states", e);
+        }
+    }
+}
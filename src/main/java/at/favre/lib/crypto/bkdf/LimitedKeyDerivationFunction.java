@@ -0,0 +1,130 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link KeyDerivationFunction} which runs every key stretching within the limit of an
+ * {@link AdaptiveConcurrencyLimiter}. Batch derivations acquire their permit when they start and carry the deadline
+ * of the calling thread (see {@link AdaptiveConcurrencyLimiter#withDeadline(long, java.util.concurrent.TimeUnit)}).
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LimitedKeyDerivationFunction implements KeyDerivationFunction {
+    private final KeyDerivationFunction delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Create a new limited kdf
+     *
+     * @param delegate which does the actual derivation
+     * @param limiter  may be shared with other limited instances
+     */
+    public LimitedKeyDerivationFunction(KeyDerivationFunction delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.limiter = Objects.requireNonNull(limiter);
+    }
+
+    @Override
+    public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            byte[] key = delegate.derive(salt, password, costFactor, infoParam, outLengthByte);
+            iterations = 1L << costFactor;
+            return key;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            byte[] key = delegate.derive(salt, password, costFactor, infoParam, outLengthByte, workspace);
+            iterations = 1L << costFactor;
+            return key;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public byte[] derive(byte[] salt, byte[] ikm, int costFactor, byte[] infoParam, int outLengthByte) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            byte[] key = delegate.derive(salt, ikm, costFactor, infoParam, outLengthByte);
+            iterations = 1L << costFactor;
+            return key;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public List<byte[]> deriveMulti(byte[] salt, byte[] ikm, int costFactor, List<KdfConfig> configList) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            List<byte[]> keys = delegate.deriveMulti(salt, ikm, costFactor, configList);
+            iterations = 1L << costFactor;
+            return keys;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public StretchedKey stretch(byte[] salt, char[] password, int costFactor) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            StretchedKey stretchedKey = delegate.stretch(salt, password, costFactor);
+            iterations = 1L << costFactor;
+            return stretchedKey;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public StretchedKey stretch(byte[] salt, byte[] ikm, int costFactor) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            StretchedKey stretchedKey = delegate.stretch(salt, ikm, costFactor);
+            iterations = 1L << costFactor;
+            return stretchedKey;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs) {
+        return deriveAll(inputs, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs, ExecutorService executor) {
+        final Long deadline = AdaptiveConcurrencyLimiter.currentDeadline();
+        return Batch.execute(inputs, new Batch.Operation<KdfInput, byte[]>() {
+            @Override
+            public byte[] apply(KdfInput input) {
+                try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.restoreDeadline(deadline)) {
+                    return derive(input.salt, input.ikm, input.costFactor, input.infoParam, input.outLengthByte);
+                }
+            }
+        }, executor);
+    }
+
+    @Override
+    public Version getHashVersion() {
+        return delegate.getHashVersion();
+    }
+}
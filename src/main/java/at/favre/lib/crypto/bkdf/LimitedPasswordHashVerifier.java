@@ -0,0 +1,196 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * {@link PasswordHashVerifier} which runs every verification within the limit of an
+ * {@link AdaptiveConcurrencyLimiter}. Async and batch verifications acquire their permit when they start and carry
+ * the deadline of the calling thread (see {@link AdaptiveConcurrencyLimiter#withDeadline(long, java.util.concurrent.TimeUnit)}),
+ * so a verification which waited in a queue past its deadline never starts.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LimitedPasswordHashVerifier implements PasswordHashVerifier {
+    private final PasswordHashVerifier delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Create a new limited verifier
+     *
+     * @param delegate which does the actual verification
+     * @param limiter  may be shared with other limited instances
+     */
+    public LimitedPasswordHashVerifier(PasswordHashVerifier delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.limiter = Objects.requireNonNull(limiter);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            boolean verified = delegate.verify(password, bkdfPasswordHashFormat2);
+            iterations = iterations(bkdfPasswordHashFormat2);
+            return verified;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            boolean verified = delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+            iterations = iterations(bkdfPasswordHashFormat2);
+            return verified;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public boolean verify(CharSequence password, CharSequence bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            boolean verified = delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+            iterations = iterations(bkdfPasswordHashFormat2);
+            return verified;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public boolean verify(ByteBuffer utf8Password, ByteBuffer bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            boolean verified = delegate.verify(utf8Password, bkdfPasswordHashFormat2, workspace);
+            iterations = iterations(new AsciiCharSequence(bkdfPasswordHashFormat2));
+            return verified;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public boolean verify(char[] password, HashData hashData) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            boolean verified = delegate.verify(password, hashData);
+            iterations = 1L << hashData.cost;
+            return verified;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A rehash is done within the same permit.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2) {
+        long start = limiter.acquire();
+        try {
+            return delegate.verifyAndRehash(password, bkdfPasswordHashFormat2);
+        } finally {
+            // duration is not comparable if a rehash was done
+            limiter.release(start, 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A rehash is done within the same permit.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+        long start = limiter.acquire();
+        try {
+            return delegate.verifyAndRehash(password, bkdfPasswordHashFormat2, policy);
+        } finally {
+            limiter.release(start, 0);
+        }
+    }
+
+    private static long iterations(CharSequence bkdfPasswordHashFormat2) {
+        HashMessageInspector inspector = new HashMessageInspector();
+        return inspector.inspect(bkdfPasswordHashFormat2) == HashMessageInspector.Format.UNKNOWN ? 0 : inspector.iterations();
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2) {
+        return verifyAsync(password, bkdfPasswordHashFormat2, BkdfExecutors.sharedHashingExecutor());
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(final char[] password, final String bkdfPasswordHashFormat2, ExecutorService executor) {
+        return executor.submit(AdaptiveConcurrencyLimiter.propagateDeadline(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return verify(password, bkdfPasswordHashFormat2);
+            }
+        }));
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials) {
+        return verifyAll(credentials, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor) {
+        final Long deadline = AdaptiveConcurrencyLimiter.currentDeadline();
+        return Batch.execute(credentials, new Batch.Operation<Credential, Boolean>() {
+            @Override
+            public Boolean apply(Credential credential) {
+                try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.restoreDeadline(deadline)) {
+                    return verify(credential.password, credential.bkdfPasswordHashFormat2);
+                }
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,160 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * {@link PasswordHasher} which runs every hash computation within the limit of an {@link AdaptiveConcurrencyLimiter}.
+ * Async and batch computations acquire their permit when they start and carry the deadline of the calling thread
+ * (see {@link AdaptiveConcurrencyLimiter#withDeadline(long, java.util.concurrent.TimeUnit)}).
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LimitedPasswordHasher implements PasswordHasher {
+    private final PasswordHasher delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Create a new limited hasher
+     *
+     * @param delegate which does the actual hashing
+     * @param limiter  may be shared with other limited instances
+     */
+    public LimitedPasswordHasher(PasswordHasher delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.limiter = Objects.requireNonNull(limiter);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public String hash(char[] password, int costFactor) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            String hash = delegate.hash(password, costFactor);
+            iterations = 1L << costFactor;
+            return hash;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public String hash(char[] password, int costFactor, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            String hash = delegate.hash(password, costFactor, workspace);
+            iterations = 1L << costFactor;
+            return hash;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public String hash(CharSequence password, int costFactor, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            String hash = delegate.hash(password, costFactor, workspace);
+            iterations = 1L << costFactor;
+            return hash;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public String hash(ByteBuffer utf8Password, int costFactor, BkdfWorkspace workspace) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            String hash = delegate.hash(utf8Password, costFactor, workspace);
+            iterations = 1L << costFactor;
+            return hash;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the limit or the deadline is exceeded
+     */
+    @Override
+    public HashData hashRaw(char[] password, int costFactor) {
+        long start = limiter.acquire();
+        long iterations = 0;
+        try {
+            HashData hashData = delegate.hashRaw(password, costFactor);
+            iterations = 1L << costFactor;
+            return hashData;
+        } finally {
+            limiter.release(start, iterations);
+        }
+    }
+
+    @Override
+    public Future<String> hashAsync(char[] password, int costFactor) {
+        return hashAsync(password, costFactor, BkdfExecutors.sharedHashingExecutor());
+    }
+
+    @Override
+    public Future<String> hashAsync(final char[] password, final int costFactor, ExecutorService executor) {
+        return executor.submit(AdaptiveConcurrencyLimiter.propagateDeadline(new Callable<String>() {
+            @Override
+            public String call() {
+                return hash(password, costFactor);
+            }
+        }));
+    }
+
+    @Override
+    public List<BatchResult<HashData>> hashAll(List<char[]> passwords, int costFactor) {
+        return hashAll(passwords, costFactor, BkdfExecutors.sharedBatchPool());
+    }
+
+    @Override
+    public List<BatchResult<HashData>> hashAll(List<char[]> passwords, final int costFactor, ExecutorService executor) {
+        final Long deadline = AdaptiveConcurrencyLimiter.currentDeadline();
+        return Batch.execute(passwords, new Batch.Operation<char[], HashData>() {
+            @Override
+            public HashData apply(char[] password) {
+                try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.restoreDeadline(deadline)) {
+                    return hashRaw(password, costFactor);
+                }
+            }
+        }, executor);
+    }
+
+    @Override
+    public Version getHashVersion() {
+        return delegate.getHashVersion();
+    }
+}
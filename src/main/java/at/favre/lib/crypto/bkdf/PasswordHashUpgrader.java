@@ -1,11 +1,13 @@
 package at.favre.lib.crypto.bkdf;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.hkdf.HKDF;
 
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Component responsible for upgrading the strength of BKDF password hashes.
@@ -72,6 +74,33 @@ public interface PasswordHashUpgrader {
      */
     CompoundHashData upgradePasswordHashTo(int costFactor, String bkdfPasswordHashFormat2);
 
+    /**
+     * Upgrades a batch of hashes <strong>to</strong> the given new cost factor (see {@link #upgradePasswordHashTo(int, String)})
+     * in parallel on the {@link BkdfExecutors#sharedBatchPool()}.
+     * <p>
+     * The hashes are upgraded link by link; all pending bcrypt computations of a link are grouped by cost factor and
+     * computed in parallel. If the built-in bcrypt is selected (system property
+     * <code>at.favre.lib.crypto.bkdf.useEksBlowfish=true</code>) they are computed 2 at a time interleaved per thread,
+     * which increases the throughput per core compared to upgrading the hashes one by one. A failure (e.g. a hash which
+     * already has the target strength) is reported in the result of the respective element and does not abort the
+     * other upgrades.
+     *
+     * @param costFactor                to be the new final cost factor
+     * @param bkdfPasswordHashesFormat2 the current hashes. Can be in compound or normal password hash format
+     * @return one result per hash in the same order
+     */
+    List<BatchResult<CompoundHashData>> upgradeAllTo(int costFactor, List<String> bkdfPasswordHashesFormat2);
+
+    /**
+     * Same as {@link #upgradeAllTo(int, List)} but runs the work on given executor.
+     *
+     * @param costFactor                to be the new final cost factor
+     * @param bkdfPasswordHashesFormat2 the current hashes. Can be in compound or normal password hash format
+     * @param executor                  to run the hashing on
+     * @return one result per hash in the same order
+     */
+    List<BatchResult<CompoundHashData>> upgradeAllTo(int costFactor, List<String> bkdfPasswordHashesFormat2, ExecutorService executor);
+
     /**
      * Verify a hash in compound format.
      * <p>
@@ -86,7 +115,8 @@ public interface PasswordHashUpgrader {
     /**
      * Efficently checks a base64 string if it is in compound hash data format.
      * <p>
-     * See {@link #COMPOUND_FORMAT_VERSION} and {@link CompoundHashData}
+     * See {@link #COMPOUND_FORMAT_VERSION} and {@link CompoundHashData}; use {@link HashMessageInspector} to get the
+     * version and cost factors from the header of a message.
      *
      * @param bkdfPasswordHashFormat2 to possibly be in compound hash format
      * @return iff given data has the version identifier of a compound format
@@ -105,16 +135,28 @@ public interface PasswordHashUpgrader {
 
         @Override
         public CompoundHashData upgradePasswordHashWith(Version version, int costFactor, String bkdfPasswordHashFormat2) {
-            CompoundHashData compoundHashData = createHashData(bkdfPasswordHashFormat2);
+            Object event = JfrEvents.begin(BkdfListener.Operation.UPGRADE);
+            CompoundHashData upgraded = null;
+            try {
+                upgraded = upgradeWith(version, costFactor, bkdfPasswordHashFormat2);
+                return upgraded;
+            } finally {
+                endEvent(event, upgraded, upgraded != null ? JfrEvents.SUCCESS : JfrEvents.ERROR);
+            }
+        }
+
+        private CompoundHashData upgradeWith(Version version, int costFactor, String bkdfPasswordHashFormat2) {
+            long start = BkdfInstrumentation.start();
+            CompoundHashData compoundHashData = createHashData(BkdfListener.Operation.UPGRADE, bkdfPasswordHashFormat2);
 
             List<CompoundHashData.Config> newConfigList = new ArrayList<>(compoundHashData.configList);
             newConfigList.add(new CompoundHashData.Config(version, (byte) costFactor));
 
-            PasswordHasher.Default hasher = new PasswordHasher.Default(version, secureRandom);
-            byte[] upgradedHash = hasher.hashRaw(compoundHashData.rawHash,
-                    deriveSalt(newConfigList.size() - 1, compoundHashData.rawSalt, version.getVersionCode(), (byte) costFactor, compoundHashData.rawHash),
-                    costFactor).rawHash;
+            byte[] upgradedHash = EngineRegistry.forVersion(version).hash(BkdfListener.Operation.UPGRADE, compoundHashData.rawHash,
+                    deriveSalt(BkdfListener.Operation.UPGRADE, newConfigList.size() - 1, compoundHashData.rawSalt, saltHmac(compoundHashData.rawSalt), version, (byte) costFactor, compoundHashData.rawHash),
+                    costFactor);
 
+            BkdfInstrumentation.operation(BkdfListener.Operation.UPGRADE, version, costFactor, newConfigList.size(), start);
             return new CompoundHashData(newConfigList, compoundHashData.rawSalt, upgradedHash);
         }
 
@@ -130,22 +172,39 @@ public interface PasswordHashUpgrader {
          * <li>If counter 1+: return hkdf_expand(salt, 4-byte-counter | 1-byte-version_code | 1-byte-cost_factor| prev-bcrypt-hash, 16) with HMAC_SHA512</li>
          * </ul>
          *
+         * @param operation   reported to the {@link BkdfListener}
          * @param counter     of the current chained hash, e.g. if 4 configs are chained, the counter will go from 0-3
          * @param salt        as found with {@link CompoundHashData#rawSalt}
-         * @param versionCode of the currently used password hash, see {@link Version#getVersionCode()}
+         * @param saltHmac    the salt as precomputed hmac key, see {@link #saltHmac(byte[])}; only used if counter is 1+
+         * @param version     of the currently used password hash, see {@link Version}
          * @param costFactor  of the currently used password hash, see {@link CompoundHashData.Config#cost}
          * @return correct derived salt for this round
          */
-        private byte[] deriveSalt(int counter, byte[] salt, byte versionCode, byte costFactor, byte[] previousHash) {
+        private byte[] deriveSalt(BkdfListener.Operation operation, int counter, byte[] salt, KeyedHmac saltHmac, Version version, byte costFactor, byte[] previousHash) {
             if (counter == 0) {
                 return salt;
             } else {
-                return HKDF.fromHmacSha512().expand(salt, Bytes.from(counter).append(versionCode).append(costFactor).append(previousHash).array(), 16);
+                long start = BkdfInstrumentation.start();
+                byte[] derivedSalt = saltHmac.expand(Bytes.from(counter).append(version.getVersionCode()).append(costFactor).array(), previousHash, 16);
+                BkdfInstrumentation.phase(operation, BkdfListener.Phase.DERIVE_SALT, version, costFactor, start);
+                return derivedSalt;
             }
         }
 
-        private CompoundHashData createHashData(String bkdfPasswordHashFormat2) {
-            byte[] blobMsg = Bytes.parseBase64(bkdfPasswordHashFormat2).array();
+        /**
+         * The salt as key of HKDF-HMAC-SHA512 expand for {@link #deriveSalt(BkdfListener.Operation, int, byte[], KeyedHmac, Version, byte, byte[])}
+         * (independent of the version), so the key schedule is only done once per chain.
+         *
+         * @param salt as found with {@link CompoundHashData#rawSalt}
+         * @return keyed hmac
+         */
+        private static KeyedHmac saltHmac(byte[] salt) {
+            return new KeyedHmac("SHA-512", salt);
+        }
+
+        private CompoundHashData createHashData(BkdfListener.Operation operation, String bkdfPasswordHashFormat2) {
+            long start = BkdfInstrumentation.start();
+            byte[] blobMsg = Base64Url.decode(bkdfPasswordHashFormat2);
 
             CompoundHashData compoundHashData;
             if (blobMsg[0] == COMPOUND_FORMAT_VERSION) {
@@ -153,12 +212,26 @@ public interface PasswordHashUpgrader {
             } else {
                 compoundHashData = CompoundHashData.from(HashData.parse(blobMsg));
             }
+            CompoundHashData.Config last = compoundHashData.configList.get(compoundHashData.configList.size() - 1);
+            BkdfInstrumentation.phase(operation, BkdfListener.Phase.PARSE, last.version, last.cost, start);
             return compoundHashData;
         }
 
         @Override
         public CompoundHashData upgradePasswordHashTo(int costFactor, String bkdfPasswordHashFormat2) {
-            CompoundHashData data = createHashData(bkdfPasswordHashFormat2);
+            Object event = JfrEvents.begin(BkdfListener.Operation.UPGRADE);
+            CompoundHashData upgraded = null;
+            try {
+                upgraded = upgradeTo(costFactor, bkdfPasswordHashFormat2);
+                return upgraded;
+            } finally {
+                endEvent(event, upgraded, upgraded != null ? JfrEvents.SUCCESS : JfrEvents.ERROR);
+            }
+        }
+
+        private CompoundHashData upgradeTo(int costFactor, String bkdfPasswordHashFormat2) {
+            long start = BkdfInstrumentation.start();
+            CompoundHashData data = createHashData(BkdfListener.Operation.UPGRADE, bkdfPasswordHashFormat2);
             List<Integer> currentCostList = new ArrayList<>(data.configList.size());
             for (CompoundHashData.Config config : data.configList) {
                 currentCostList.add((int) config.cost);
@@ -168,18 +241,104 @@ public interface PasswordHashUpgrader {
 
             List<CompoundHashData.Config> newConfigList = new ArrayList<>(data.configList);
             byte[] upgradedHash = data.rawHash;
-            PasswordHasher.Default hasher = new PasswordHasher.Default(usedVersion, secureRandom);
+            EngineRegistry.Engine engine = EngineRegistry.forVersion(usedVersion);
+            KeyedHmac saltHmac = saltHmac(data.rawSalt);
 
             for (Integer seqCf : sequence) {
                 newConfigList.add(new CompoundHashData.Config(usedVersion, seqCf.byteValue()));
-                upgradedHash = hasher.hashRaw(upgradedHash,
-                        deriveSalt(newConfigList.size() - 1, data.rawSalt, usedVersion.getVersionCode(), seqCf.byteValue(), upgradedHash),
-                        seqCf).rawHash;
+                upgradedHash = engine.hash(BkdfListener.Operation.UPGRADE, upgradedHash,
+                        deriveSalt(BkdfListener.Operation.UPGRADE, newConfigList.size() - 1, data.rawSalt, saltHmac, usedVersion, seqCf.byteValue(), upgradedHash),
+                        seqCf);
             }
 
+            BkdfInstrumentation.operation(BkdfListener.Operation.UPGRADE, usedVersion, newConfigList.get(newConfigList.size() - 1).cost,
+                    newConfigList.size(), start);
             return new CompoundHashData(newConfigList, data.rawSalt, upgradedHash);
         }
 
+        @Override
+        public List<BatchResult<CompoundHashData>> upgradeAllTo(int costFactor, List<String> bkdfPasswordHashesFormat2) {
+            return upgradeAllTo(costFactor, bkdfPasswordHashesFormat2, BkdfExecutors.sharedBatchPool());
+        }
+
+        @Override
+        public List<BatchResult<CompoundHashData>> upgradeAllTo(int costFactor, List<String> bkdfPasswordHashesFormat2, ExecutorService executor) {
+            if (bkdfPasswordHashesFormat2.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            @SuppressWarnings("unchecked")
+            BatchResult<CompoundHashData>[] results = new BatchResult[bkdfPasswordHashesFormat2.size()];
+            List<PendingUpgrade> pending = new ArrayList<>(results.length);
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    pending.add(new PendingUpgrade(i, createHashData(BkdfListener.Operation.UPGRADE, bkdfPasswordHashesFormat2.get(i)), costFactor));
+                } catch (RuntimeException e) {
+                    results[i] = BatchResult.failure(e);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                List<InterleavedBatch.Job> jobs = new ArrayList<>(pending.size());
+                for (PendingUpgrade upgrade : pending) {
+                    byte seqCf = upgrade.sequence.get(upgrade.step).byteValue();
+                    upgrade.newConfigList.add(new CompoundHashData.Config(upgrade.usedVersion, seqCf));
+                    jobs.add(new InterleavedBatch.Job(upgrade.engine, upgrade.upgradedHash,
+                            deriveSalt(BkdfListener.Operation.UPGRADE, upgrade.newConfigList.size() - 1, upgrade.data.rawSalt, upgrade.saltHmac, upgrade.usedVersion, seqCf, upgrade.upgradedHash),
+                            seqCf));
+                }
+
+                List<BatchResult<byte[]>> hashes = InterleavedBatch.execute(BkdfListener.Operation.UPGRADE, jobs, executor);
+                List<PendingUpgrade> nextLink = new ArrayList<>(pending.size());
+                for (int i = 0; i < hashes.size(); i++) {
+                    PendingUpgrade upgrade = pending.get(i);
+                    BatchResult<byte[]> hash = hashes.get(i);
+                    if (!hash.isSuccess()) {
+                        results[upgrade.index] = BatchResult.failure(hash.getError());
+                    } else {
+                        upgrade.upgradedHash = hash.get();
+                        if (++upgrade.step < upgrade.sequence.size()) {
+                            nextLink.add(upgrade);
+                        } else {
+                            results[upgrade.index] = BatchResult.success(new CompoundHashData(upgrade.newConfigList, upgrade.data.rawSalt, upgrade.upgradedHash));
+                        }
+                    }
+                }
+                pending = nextLink;
+            }
+            return Collections.unmodifiableList(Arrays.asList(results));
+        }
+
+        /**
+         * The state of a single hash within {@link #upgradeAllTo(int, List, ExecutorService)}
+         */
+        private final class PendingUpgrade {
+            private final int index;
+            private final CompoundHashData data;
+            private final List<Integer> sequence;
+            private final Version usedVersion;
+            private final EngineRegistry.Engine engine;
+            private final KeyedHmac saltHmac;
+            private final List<CompoundHashData.Config> newConfigList;
+            private byte[] upgradedHash;
+            private int step;
+
+            PendingUpgrade(int index, CompoundHashData data, int costFactor) {
+                this.index = index;
+                this.data = data;
+                List<Integer> currentCostList = new ArrayList<>(data.configList.size());
+                for (CompoundHashData.Config config : data.configList) {
+                    currentCostList.add((int) config.cost);
+                }
+                this.sequence = calcUpgradeSeq(currentCostList, costFactor);
+                this.usedVersion = data.configList.get(data.configList.size() - 1).version;
+                this.engine = EngineRegistry.forVersion(usedVersion);
+                this.saltHmac = saltHmac(data.rawSalt);
+                this.newConfigList = new ArrayList<>(data.configList);
+                this.upgradedHash = data.rawHash;
+            }
+        }
+
         /**
          * Calculates a possible upgrade path from current hashes to achieve a new target hash. E.g. given the work factor of 5 (=32) and a
          * target of 8 (=256), a path of [5, 6, 7] would be required to achieve 256 iterations.
@@ -214,17 +373,38 @@ public interface PasswordHashUpgrader {
 
         @Override
         public boolean verifyCompoundHash(char[] password, String bkdfPasswordHashFormat2) {
-            byte[] blobMsg = Bytes.parseBase64(bkdfPasswordHashFormat2).array();
-            CompoundHashData data = CompoundHashData.parse(blobMsg);
+            Object event = JfrEvents.begin(BkdfListener.Operation.VERIFY);
+            CompoundHashData data = null;
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                byte[] blobMsg = Base64Url.decode(bkdfPasswordHashFormat2);
+                data = CompoundHashData.parse(blobMsg);
+                CompoundHashData.Config last = data.configList.get(data.configList.size() - 1);
+                BkdfInstrumentation.phase(BkdfListener.Operation.VERIFY, BkdfListener.Phase.PARSE, last.version, last.cost, start);
+
+                CompoundHashData referenceHash = calculateCompoundHash(data.configList, data.rawSalt, password);
+                boolean verified = Bytes.wrap(data.rawHash).equalsConstantTime(referenceHash.rawHash);
+                BkdfInstrumentation.operation(BkdfListener.Operation.VERIFY, last.version, last.cost, data.configList.size(), start);
+                outcome = verified ? JfrEvents.SUCCESS : JfrEvents.MISMATCH;
+                return verified;
+            } finally {
+                endEvent(event, data, outcome);
+            }
+        }
 
-            CompoundHashData referenceHash = calculateCompoundHash(data.configList, data.rawSalt, password);
-            return Bytes.wrap(data.rawHash).equalsConstantTime(referenceHash.rawHash);
+        private static void endEvent(Object event, CompoundHashData data, String outcome) {
+            if (data == null) {
+                JfrEvents.end(event, (byte) 0, 0, 0, outcome);
+            } else {
+                CompoundHashData.Config last = data.configList.get(data.configList.size() - 1);
+                JfrEvents.end(event, last.version.getVersionCode(), last.cost, data.configList.size(), outcome);
+            }
         }
 
         @Override
         public boolean isCompoundHashMessage(String bkdfPasswordHashFormat2) {
-            return bkdfPasswordHashFormat2.startsWith(
-                    Bytes.from(COMPOUND_FORMAT_VERSION).encodeBase64Url().replaceAll("=", ""));
+            return HashMessageInspector.isCompound(bkdfPasswordHashFormat2);
         }
 
         private CompoundHashData calculateCompoundHash(List<CompoundHashData.Config> configs, byte[] salt, char[] password) {
@@ -236,12 +416,12 @@ public interface PasswordHashUpgrader {
             }
 
             byte[] tempHashValue = Bytes.from(password).array();
+            KeyedHmac saltHmac = configs.size() > 1 ? saltHmac(salt) : null;
             int counter = 0;
             for (CompoundHashData.Config config : configs) {
-                PasswordHasher.Default hasher = new PasswordHasher.Default(config.version, secureRandom);
-                tempHashValue = hasher.hashRaw(tempHashValue,
-                        deriveSalt(counter++, salt, config.version.getVersionCode(), config.cost, tempHashValue),
-                        config.cost).rawHash;
+                tempHashValue = EngineRegistry.forVersion(config.version).hash(BkdfListener.Operation.VERIFY, tempHashValue,
+                        deriveSalt(BkdfListener.Operation.VERIFY, counter++, salt, saltHmac, config.version, config.cost, tempHashValue),
+                        config.cost);
             }
 
             return new CompoundHashData(configs, salt, tempHashValue);
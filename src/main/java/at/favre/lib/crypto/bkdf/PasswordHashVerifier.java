@@ -2,6 +2,20 @@ package at.favre.lib.crypto.bkdf;
 
 import at.favre.lib.bytes.Bytes;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 /**
  * Class which can verify BKDF hash message format password hashes
  */
@@ -17,6 +31,49 @@ public interface PasswordHashVerifier {
      */
     boolean verify(char[] password, String bkdfPasswordHashFormat2);
 
+    /**
+     * Same as {@link #verify(char[], String)} but uses the reusable buffers and bcrypt state of given workspace
+     * instead of allocating temporary memory: verifying a "Format 2" hash of a registered {@link Version} does not
+     * allocate at all in the steady state if the built-in bcrypt is selected (see {@link BkdfWorkspace}). The
+     * workspace is wiped afterwards.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage,
+     *                                see {@link PasswordHasher#hash(char[], int)};
+     * @param workspace               used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return true iff given password matches given password hash, false otherwise
+     */
+    boolean verify(char[] password, String bkdfPasswordHashFormat2, BkdfWorkspace workspace);
+
+    /**
+     * Same as {@link #verify(char[], String, BkdfWorkspace)} but reads the password directly from given char sequence,
+     * e.g. a {@link java.nio.CharBuffer} (without changing its position): it is encoded into the workspace and wiped
+     * there afterwards. Only compound and malformed hashes take the allocating path with a temporary (wiped) char[]
+     * copy of the password.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage,
+     *                                see {@link PasswordHasher#hash(char[], int)};
+     * @param workspace               used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return true iff given password matches given password hash, false otherwise
+     */
+    boolean verify(CharSequence password, CharSequence bkdfPasswordHashFormat2, BkdfWorkspace workspace);
+
+    /**
+     * Same as {@link #verify(CharSequence, CharSequence, BkdfWorkspace)} but for a password which is already utf-8
+     * encoded and a stored hash in ASCII bytes, e.g. both in direct buffers. The remaining bytes of the password are
+     * copied into the workspace and the hash is parsed in place; the position of neither buffer is changed.
+     * The password bytes are used as they are and must be well-formed utf-8, for stored hashes in any format.
+     *
+     * @param utf8Password            from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage,
+     *                                see {@link PasswordHasher#hash(char[], int)};
+     * @param workspace               used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return true iff given password matches given password hash, false otherwise
+     * @throws IllegalArgumentException if the password is not well-formed utf-8
+     */
+    boolean verify(ByteBuffer utf8Password, ByteBuffer bkdfPasswordHashFormat2, BkdfWorkspace workspace);
+
     /**
      * Verify a given password hash and given user password
      *
@@ -26,31 +83,435 @@ public interface PasswordHashVerifier {
      */
     boolean verify(char[] password, HashData hashData);
 
+    /**
+     * Verify given password and, if it matches and the stored hash does not satisfy the {@link HashPolicy} this
+     * verifier was created with (see {@link BKDF#createPasswordHashVerifier(HashPolicy)}), compute a fresh hash
+     * according to the policy, so weak hashes can be replaced in the same request. See
+     * {@link #verifyAndRehash(char[], String, HashPolicy)}.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format of the stored hash
+     * @return the verification result with the new hash to store, if one was required
+     * @throws IllegalStateException if this verifier was created without a policy
+     */
+    VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2);
+
+    /**
+     * Verify given password and, if it matches and the stored hash does not satisfy given policy (see
+     * {@link HashPolicy#needsRehash(String)}), compute a fresh hash with the version and cost factor of the policy.
+     * If the stored hash is stronger than the policy (e.g. a long compound chain) its strength is kept; a chain with
+     * more iterations than the strongest single hash (cost factor 31) is never rehashed.
+     * <p>
+     * The policy check only reads the header, so there is no extra bcrypt work if the hash is up to date and the new
+     * hash is only computed if the password is correct.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format of the stored hash
+     * @param policy                  the stored hash should satisfy
+     * @return the verification result with the new hash to store, if one was required
+     */
+    VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy);
+
+    /**
+     * Same as {@link #verify(char[], String)} but runs the work on the {@link BkdfExecutors#sharedHashingExecutor()}
+     * so the calling thread is not blocked by the bcrypt computation.
+     * <p>
+     * The password array must not be modified (e.g. wiped) until the returned future is done.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage,
+     *                                see {@link PasswordHasher#hash(char[], int)};
+     * @return future resolving to true iff given password matches given password hash
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     */
+    Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2);
+
+    /**
+     * Same as {@link #verify(char[], String)} but runs the work on given executor.
+     * <p>
+     * The password array must not be modified (e.g. wiped) until the returned future is done.
+     *
+     * @param password                from user
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage,
+     *                                see {@link PasswordHasher#hash(char[], int)};
+     * @param executor                to run the verification on, see {@link BkdfExecutors}
+     * @return future resolving to true iff given password matches given password hash
+     * @throws java.util.concurrent.RejectedExecutionException if the executor does not accept the task
+     */
+    Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2, ExecutorService executor);
+
+    /**
+     * Verify a batch of credentials in parallel on the {@link BkdfExecutors#sharedBatchPool()}.
+     * <p>
+     * A failure (e.g. a malformed hash) is reported in the result of the respective element and does not abort
+     * the other verifications.
+     *
+     * @param credentials to verify
+     * @return one result per credential in the same order; the value is true iff password matches the hash
+     */
+    List<BatchResult<Boolean>> verifyAll(List<Credential> credentials);
+
+    /**
+     * Verify a batch of credentials in parallel on given executor (a {@link java.util.concurrent.ForkJoinPool} is
+     * used with recursive splitting, any other executor with one task per credential).
+     * <p>
+     * A failure (e.g. a malformed hash) is reported in the result of the respective element and does not abort
+     * the other verifications.
+     *
+     * @param credentials to verify
+     * @param executor    to run the verifications on
+     * @return one result per credential in the same order; the value is true iff password matches the hash
+     */
+    List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor);
+
     /**
      * Default implementation
      */
     final class Default implements PasswordHashVerifier {
         private final PasswordHashUpgrader passwordHashUpgrader;
+        private final HashPolicy hashPolicy;
+        private final VerificationLimits verificationLimits;
+        private final SaltSupplier saltSupplier;
+        private final ConcurrentMap<Version, PasswordHasher> rehashers = new ConcurrentHashMap<>();
 
         public Default(PasswordHashUpgrader passwordHashUpgrader) {
+            this(passwordHashUpgrader, null, StripedSaltSupplier.shared());
+        }
+
+        /**
+         * Create new instance
+         *
+         * @param passwordHashUpgrader used for compound hashes
+         * @param hashPolicy           used by {@link #verifyAndRehash(char[], String)}; may be null
+         * @param saltSupplier         used to create the salt of rehashed passwords, e.g. {@link StripedSaltSupplier#shared()}
+         */
+        public Default(PasswordHashUpgrader passwordHashUpgrader, HashPolicy hashPolicy, SaltSupplier saltSupplier) {
+            this(passwordHashUpgrader, hashPolicy, VerificationLimits.UNLIMITED, saltSupplier);
+        }
+
+        /**
+         * Create new instance
+         *
+         * @param passwordHashUpgrader used for compound hashes
+         * @param hashPolicy           used by {@link #verifyAndRehash(char[], String)}; may be null
+         * @param verificationLimits   checked before any hash is verified
+         * @param saltSupplier         used to create the salt of rehashed passwords, e.g. {@link StripedSaltSupplier#shared()}
+         */
+        public Default(PasswordHashUpgrader passwordHashUpgrader, HashPolicy hashPolicy, VerificationLimits verificationLimits, SaltSupplier saltSupplier) {
             this.passwordHashUpgrader = passwordHashUpgrader;
+            this.hashPolicy = hashPolicy;
+            this.verificationLimits = Objects.requireNonNull(verificationLimits);
+            this.saltSupplier = Objects.requireNonNull(saltSupplier);
         }
 
+        /**
+         * {@inheritDoc}
+         *
+         * @throws VerificationLimits.LimitExceededException if the hash exceeds the configured limits
+         */
         @Override
         public boolean verify(char[] password, String bkdfRefenceHash) {
+            if (verificationLimits != VerificationLimits.UNLIMITED) {
+                verificationLimits.check(new HashMessageInspector(), bkdfRefenceHash);
+            }
+            return verifyUnchecked(password, bkdfRefenceHash);
+        }
+
+        private boolean verifyUnchecked(char[] password, String bkdfRefenceHash) {
             if (passwordHashUpgrader.isCompoundHashMessage(bkdfRefenceHash)) {
                 return passwordHashUpgrader.verifyCompoundHash(password, bkdfRefenceHash);
             } else {
-                HashData hashData = HashData.parse(bkdfRefenceHash);
-                return verify(password, hashData);
+                Object event = JfrEvents.begin(BkdfListener.Operation.VERIFY);
+                HashData hashData = null;
+                String outcome = JfrEvents.ERROR;
+                try {
+                    long start = BkdfInstrumentation.start();
+                    hashData = HashData.parse(bkdfRefenceHash);
+                    BkdfInstrumentation.phase(BkdfListener.Operation.VERIFY, BkdfListener.Phase.PARSE, hashData.version, hashData.cost, start);
+                    boolean verified = verify(password, hashData, start);
+                    outcome = verified ? JfrEvents.SUCCESS : JfrEvents.MISMATCH;
+                    return verified;
+                } finally {
+                    endEvent(event, hashData, outcome);
+                }
             }
         }
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Compound hashes and malformed messages take the regular, allocating path of {@link #verify(char[], String)}.
+         *
+         * @throws VerificationLimits.LimitExceededException if the hash exceeds the configured limits
+         */
+        @Override
+        public boolean verify(char[] password, String bkdfRefenceHash, BkdfWorkspace workspace) {
+            return verifyAny(password, bkdfRefenceHash, workspace);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws VerificationLimits.LimitExceededException if the hash exceeds the configured limits
+         */
+        @Override
+        public boolean verify(CharSequence password, CharSequence bkdfRefenceHash, BkdfWorkspace workspace) {
+            return verifyAny(password, bkdfRefenceHash, workspace);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws VerificationLimits.LimitExceededException if the hash exceeds the configured limits
+         */
+        @Override
+        public boolean verify(ByteBuffer utf8Password, ByteBuffer bkdfRefenceHash, BkdfWorkspace workspace) {
+            return verifyAny(utf8Password, new AsciiCharSequence(bkdfRefenceHash), workspace);
+        }
+
+        // password is a char[], CharSequence or utf-8 encoded ByteBuffer
+        private boolean verifyAny(Object password, CharSequence bkdfRefenceHash, BkdfWorkspace workspace) {
+            if (verificationLimits != VerificationLimits.UNLIMITED) {
+                verificationLimits.check(workspace.inspector, bkdfRefenceHash);
+            }
+            byte[] message = workspace.message;
+            int length;
+            if (HashMessageInspector.isCompound(bkdfRefenceHash)
+                    || Base64Url.maxDecodedLength(bkdfRefenceHash) > message.length
+                    || (length = Base64Url.decode(bkdfRefenceHash, message, 0)) < 2
+                    || !EngineRegistry.isSupported(message[0])) {
+                workspace.wipe();
+                return verifyUnchecked(password, bkdfRefenceHash.toString());
+            }
+
+            EngineRegistry.Engine engine = EngineRegistry.forCode(message[0]);
+            int hashLength = engine.version.getHashByteLength();
+            if (length < 2 + HashData.SALT_LENGTH_BYTE + hashLength) {
+                workspace.wipe();
+                return verifyUnchecked(password, bkdfRefenceHash.toString());
+            }
+
+            Object event = JfrEvents.begin(BkdfListener.Operation.VERIFY);
+            String outcome = JfrEvents.ERROR;
+            // same sign extension as the cost byte of HashData
+            int costFactor = message[1];
+            try {
+                long start = BkdfInstrumentation.start();
+                System.arraycopy(message, 2, workspace.salt, 0, HashData.SALT_LENGTH_BYTE);
+                BkdfInstrumentation.phase(BkdfListener.Operation.VERIFY, BkdfListener.Phase.PARSE, engine.version, costFactor, start);
+
+                engine.hashPassword(BkdfListener.Operation.VERIFY, password, workspace.salt, costFactor, workspace, workspace.hash, 0);
+                boolean verified = constantTimeEquals(workspace.hash, message, 2 + HashData.SALT_LENGTH_BYTE, hashLength);
+                BkdfInstrumentation.operation(BkdfListener.Operation.VERIFY, engine.version, costFactor, 1, start);
+                outcome = verified ? JfrEvents.SUCCESS : JfrEvents.MISMATCH;
+                return verified;
+            } finally {
+                workspace.wipe();
+                JfrEvents.end(event, engine.version.getVersionCode(), costFactor, 1, outcome);
+            }
+        }
+
+        private boolean verifyUnchecked(Object password, String bkdfRefenceHash) {
+            if (password instanceof char[]) {
+                return verifyUnchecked((char[]) password, bkdfRefenceHash);
+            }
+            char[] chars = toChars(password);
+            try {
+                return verifyUnchecked(chars, bkdfRefenceHash);
+            } finally {
+                Arrays.fill(chars, '\0');
+            }
+        }
+
+        private static char[] toChars(Object password) {
+            if (password instanceof ByteBuffer) {
+                CharBuffer decoded;
+                try {
+                    // reject malformed input like the workspace does, instead of replacing it
+                    decoded = StandardCharsets.UTF_8.newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPORT)
+                            .onUnmappableCharacter(CodingErrorAction.REPORT)
+                            .decode(((ByteBuffer) password).duplicate());
+                } catch (CharacterCodingException e) {
+                    throw BkdfWorkspace.malformedPassword();
+                }
+                char[] chars = new char[decoded.remaining()];
+                decoded.get(chars);
+                if (decoded.hasArray()) {
+                    Arrays.fill(decoded.array(), '\0');
+                }
+                return chars;
+            }
+            CharSequence sequence = (CharSequence) password;
+            char[] chars = new char[sequence.length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = sequence.charAt(i);
+            }
+            return chars;
+        }
+
+        private static boolean constantTimeEquals(byte[] hash, byte[] message, int offset, int length) {
+            int result = 0;
+            for (int i = 0; i < length; i++) {
+                result |= hash[i] ^ message[offset + i];
+            }
+            return result == 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws VerificationLimits.LimitExceededException if the hash exceeds the configured limits
+         */
         @Override
         public boolean verify(char[] password, HashData bkdfPasswordHashFormat1) {
-            PasswordHasher hasher = BKDF.createPasswordHasher(bkdfPasswordHashFormat1.version);
-            HashData referenceHash = ((PasswordHasher.Default) hasher).hashRaw(password, bkdfPasswordHashFormat1.rawSalt, bkdfPasswordHashFormat1.cost);
-            return Bytes.wrap(referenceHash.rawHash).equalsConstantTime(bkdfPasswordHashFormat1.rawHash);
+            verificationLimits.check(bkdfPasswordHashFormat1.cost & 0xFF);
+            Object event = JfrEvents.begin(BkdfListener.Operation.VERIFY);
+            String outcome = JfrEvents.ERROR;
+            try {
+                boolean verified = verify(password, bkdfPasswordHashFormat1, BkdfInstrumentation.start());
+                outcome = verified ? JfrEvents.SUCCESS : JfrEvents.MISMATCH;
+                return verified;
+            } finally {
+                endEvent(event, bkdfPasswordHashFormat1, outcome);
+            }
+        }
+
+        private boolean verify(char[] password, HashData bkdfPasswordHashFormat1, long start) {
+            byte[] referenceHash = EngineRegistry.forVersion(bkdfPasswordHashFormat1.version)
+                    .hashPassword(BkdfListener.Operation.VERIFY, password, bkdfPasswordHashFormat1.rawSalt, bkdfPasswordHashFormat1.cost);
+            boolean verified = Bytes.wrap(referenceHash).equalsConstantTime(bkdfPasswordHashFormat1.rawHash);
+            BkdfInstrumentation.operation(BkdfListener.Operation.VERIFY, bkdfPasswordHashFormat1.version, bkdfPasswordHashFormat1.cost, 1, start);
+            return verified;
+        }
+
+        private static void endEvent(Object event, HashData hashData, String outcome) {
+            if (hashData == null) {
+                JfrEvents.end(event, (byte) 0, 0, 1, outcome);
+            } else {
+                JfrEvents.end(event, hashData.version.getVersionCode(), hashData.cost, 1, outcome);
+            }
+        }
+
+        @Override
+        public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2) {
+            if (hashPolicy == null) {
+                throw new IllegalStateException("no hash policy configured, see BKDF.createPasswordHashVerifier(HashPolicy)");
+            }
+            return verifyAndRehash(password, bkdfPasswordHashFormat2, hashPolicy);
+        }
+
+        @Override
+        public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+            if (!verify(password, bkdfPasswordHashFormat2)) {
+                return new VerificationResult(false, null);
+            }
+            HashMessageInspector inspector = new HashMessageInspector();
+            if (!policy.needsRehash(inspector, bkdfPasswordHashFormat2)) {
+                return new VerificationResult(true, null);
+            }
+            // never weaken a hash which is stronger than the policy (e.g. a chain compacted because of its length);
+            // a chain stronger than any single hash is kept
+            if (inspector.iterations() > HashChainCompactor.MAX_SINGLE_HASH_ITERATIONS) {
+                return new VerificationResult(true, null);
+            }
+            int costFactor = Math.max(policy.getCostFactor(), HashChainCompactor.costFactorFor(inspector.iterations()));
+            return new VerificationResult(true, rehasher(policy.getVersion()).hash(password, costFactor));
+        }
+
+        private PasswordHasher rehasher(Version version) {
+            PasswordHasher hasher = rehashers.get(version);
+            if (hasher == null) {
+                PasswordHasher created = new PasswordHasher.Default(version, saltSupplier);
+                hasher = rehashers.putIfAbsent(version, created);
+                if (hasher == null) {
+                    hasher = created;
+                }
+            }
+            return hasher;
+        }
+
+        @Override
+        public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials) {
+            return verifyAll(credentials, BkdfExecutors.sharedBatchPool());
+        }
+
+        @Override
+        public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor) {
+            return Batch.execute(credentials, new Batch.Operation<Credential, Boolean>() {
+                @Override
+                public Boolean apply(Credential credential) {
+                    return verify(credential.password, credential.bkdfPasswordHashFormat2);
+                }
+            }, executor);
+        }
+
+        @Override
+        public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2) {
+            return verifyAsync(password, bkdfPasswordHashFormat2, BkdfExecutors.sharedHashingExecutor());
+        }
+
+        @Override
+        public Future<Boolean> verifyAsync(final char[] password, final String bkdfPasswordHashFormat2, ExecutorService executor) {
+            return executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verify(password, bkdfPasswordHashFormat2);
+                }
+            });
+        }
+    }
+
+    /**
+     * A user password and the stored hash to verify it against, see {@link #verifyAll(List)}
+     */
+    final class Credential {
+        public final char[] password;
+        public final String bkdfPasswordHashFormat2;
+
+        /**
+         * Create new instance
+         *
+         * @param password                from user
+         * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash
+         */
+        public Credential(char[] password, String bkdfPasswordHashFormat2) {
+            this.password = password;
+            this.bkdfPasswordHashFormat2 = bkdfPasswordHashFormat2;
+        }
+    }
+
+    /**
+     * The outcome of {@link #verifyAndRehash(char[], String, HashPolicy)} and {@link HashChainCompactor#verifyAndCompact(char[], String)}
+     */
+    final class VerificationResult {
+        /**
+         * True iff the password matches the stored hash
+         */
+        public final boolean verified;
+        /**
+         * The new hash in "BKDF Password Hash Message Format 2" which should replace the stored one or null if the
+         * stored hash satisfies the policy (or the password did not match)
+         */
+        public final String rehashedBkdfPasswordHashFormat2;
+
+        VerificationResult(boolean verified, String rehashedBkdfPasswordHashFormat2) {
+            this.verified = verified;
+            this.rehashedBkdfPasswordHashFormat2 = rehashedBkdfPasswordHashFormat2;
+        }
+
+        /**
+         * If a new hash was computed which should be stored
+         *
+         * @return true if {@link #rehashedBkdfPasswordHashFormat2} is not null
+         */
+        public boolean isRehashed() {
+            return rehashedBkdfPasswordHashFormat2 != null;
+        }
+
+        @Override
+        public String toString() {
+            return "VerificationResult{verified=" + verified + ", rehashed=" + isRehashed() + "}";
         }
     }
 }
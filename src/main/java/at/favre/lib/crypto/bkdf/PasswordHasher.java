@@ -1,10 +1,15 @@
 package at.favre.lib.crypto.bkdf;
 
-import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.bcrypt.BCrypt;
-
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Implementation for the BKDF Password Hash protocol used for key stretching of weak user passwords and hash storage.
@@ -26,6 +31,44 @@ public interface PasswordHasher {
      */
     String hash(char[] password, int costFactor);
 
+    /**
+     * Same as {@link #hash(char[], int)} but uses the reusable buffers and bcrypt state of given workspace instead of
+     * allocating temporary memory; with the built-in bcrypt (see {@link BkdfWorkspace}) the only allocation is the
+     * returned string. The workspace is wiped afterwards.
+     *
+     * @param password   from user (length must not be greater than {@link #MAX_PASSWORD_LENGTH})
+     * @param costFactor exponential cost (log2 factor) between 4 and 31
+     * @param workspace  used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage
+     */
+    String hash(char[] password, int costFactor, BkdfWorkspace workspace);
+
+    /**
+     * Same as {@link #hash(char[], int, BkdfWorkspace)} but reads the password directly from given char sequence,
+     * e.g. a {@link java.nio.CharBuffer} (without changing its position): it is encoded into the workspace and wiped
+     * there afterwards, no other copy is created.
+     *
+     * @param password   from user (length must not be greater than {@link #MAX_PASSWORD_LENGTH})
+     * @param costFactor exponential cost (log2 factor) between 4 and 31
+     * @param workspace  used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage
+     */
+    String hash(CharSequence password, int costFactor, BkdfWorkspace workspace);
+
+    /**
+     * Same as {@link #hash(char[], int, BkdfWorkspace)} but for a password which is already utf-8 encoded, e.g. in
+     * a direct buffer. The remaining bytes are copied into the workspace (without changing the position of the buffer)
+     * and wiped there afterwards. They are used as they are, so they must be well-formed utf-8; the hash then equals
+     * the hash of the same char[] password.
+     *
+     * @param utf8Password from user (encoding of at most {@link #MAX_PASSWORD_LENGTH} chars)
+     * @param costFactor   exponential cost (log2 factor) between 4 and 31
+     * @param workspace    used only by the calling thread, see {@link BkdfWorkspace#threadLocal()}
+     * @return "BKDF Password Hash Message Format 2" i.e. Base64 encoded password hash for storage
+     * @throws IllegalArgumentException if the password is not well-formed utf-8
+     */
+    String hash(ByteBuffer utf8Password, int costFactor, BkdfWorkspace workspace);
+
     /**
      * For given password and cost-factor create password hash.
      * This method will return a more flexible model to be used to either access all the parts of the format
@@ -38,6 +81,62 @@ public interface PasswordHasher {
      */
     HashData hashRaw(char[] password, int costFactor);
 
+    /**
+     * Same as {@link #hash(char[], int)} but runs the work on the {@link BkdfExecutors#sharedHashingExecutor()}
+     * so the calling thread is not blocked by the bcrypt computation.
+     * <p>
+     * The password array must not be modified (e.g. wiped) until the returned future is done.
+     *
+     * @param password   from user (length must not be greater than {@link #MAX_PASSWORD_LENGTH})
+     * @param costFactor exponential cost (log2 factor) between 4 and 31
+     * @return future resolving to the "BKDF Password Hash Message Format 2"
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     */
+    Future<String> hashAsync(char[] password, int costFactor);
+
+    /**
+     * Same as {@link #hash(char[], int)} but runs the work on given executor.
+     * <p>
+     * The password array must not be modified (e.g. wiped) until the returned future is done.
+     *
+     * @param password   from user (length must not be greater than {@link #MAX_PASSWORD_LENGTH})
+     * @param costFactor exponential cost (log2 factor) between 4 and 31
+     * @param executor   to run the hashing on, see {@link BkdfExecutors}
+     * @return future resolving to the "BKDF Password Hash Message Format 2"
+     * @throws java.util.concurrent.RejectedExecutionException if the executor does not accept the task
+     */
+    Future<String> hashAsync(char[] password, int costFactor, ExecutorService executor);
+
+    /**
+     * Hash a batch of passwords with the same cost-factor in parallel on the {@link BkdfExecutors#sharedBatchPool()}.
+     * Every password gets its own random salt.
+     * <p>
+     * A failure (e.g. a password that is too long) is reported in the result of the respective element and does
+     * not abort the other computations.
+     * <p>
+     * If the built-in bcrypt is selected (system property <code>at.favre.lib.crypto.bkdf.useEksBlowfish=true</code>),
+     * the default implementation computes 2 passwords interleaved per thread, which uses the idle execution units of
+     * a core during bcrypt and increases the throughput per core compared to hashing the passwords one by one.
+     * A {@link BkdfListener} receives the phases of each of these tasks, but no operation per password.
+     *
+     * @param passwords  from users (length must not be greater than {@link #MAX_PASSWORD_LENGTH})
+     * @param costFactor exponential cost (log2 factor) between 4 and 31
+     * @return one result per password in the same order
+     */
+    List<BatchResult<HashData>> hashAll(List<char[]> passwords, int costFactor);
+
+    /**
+     * Hash a batch of passwords with the same cost-factor in parallel on given executor (a
+     * {@link java.util.concurrent.ForkJoinPool} is used with recursive splitting, any other executor with one task
+     * per password, or per pair of interleaved passwords, see {@link #hashAll(List, int)}).
+     *
+     * @param passwords  from users (length must not be greater than {@link #MAX_PASSWORD_LENGTH})
+     * @param costFactor exponential cost (log2 factor) between 4 and 31
+     * @param executor   to run the hashing on
+     * @return one result per password in the same order
+     */
+    List<BatchResult<HashData>> hashAll(List<char[]> passwords, int costFactor, ExecutorService executor);
+
     /**
      * Get the in this instance used hash version.
      * See {@link Version}.
@@ -50,56 +149,162 @@ public interface PasswordHasher {
      * Default implementation
      */
     final class Default implements PasswordHasher {
-        private final SecureRandom secureRandom;
+        private final SaltSupplier saltSupplier;
         private final Version version;
+        private final EngineRegistry.Engine engine;
 
         Default(Version version, SecureRandom secureRandom) {
+            this(version, new SaltSupplier.Default(secureRandom));
+        }
+
+        Default(Version version, SaltSupplier saltSupplier) {
             this.version = version;
-            this.secureRandom = secureRandom;
+            this.saltSupplier = Objects.requireNonNull(saltSupplier);
+            this.engine = EngineRegistry.forVersion(version);
         }
 
         @Override
         public String hash(char[] password, int costFactor) {
-            return hashRaw(password, costFactor).getAsEncodedMessageFormat();
+            Object event = JfrEvents.begin(BkdfListener.Operation.HASH);
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                HashData hashData = hashRaw(password, nextSalt(), costFactor);
+
+                long encodeStart = BkdfInstrumentation.start();
+                String encoded = hashData.getAsEncodedMessageFormat();
+                BkdfInstrumentation.phase(BkdfListener.Operation.HASH, BkdfListener.Phase.ENCODE, version, costFactor, encodeStart);
+                BkdfInstrumentation.operation(BkdfListener.Operation.HASH, version, costFactor, 1, start);
+                outcome = JfrEvents.SUCCESS;
+                return encoded;
+            } finally {
+                JfrEvents.end(event, version.getVersionCode(), costFactor, 1, outcome);
+            }
+        }
+
+        @Override
+        public String hash(char[] password, int costFactor, BkdfWorkspace workspace) {
+            return hashAny(password, costFactor, workspace);
+        }
+
+        @Override
+        public String hash(CharSequence password, int costFactor, BkdfWorkspace workspace) {
+            return hashAny(password, costFactor, workspace);
+        }
+
+        @Override
+        public String hash(ByteBuffer utf8Password, int costFactor, BkdfWorkspace workspace) {
+            return hashAny(utf8Password, costFactor, workspace);
+        }
+
+        // password is a char[], CharSequence or utf-8 encoded ByteBuffer
+        private String hashAny(Object password, int costFactor, BkdfWorkspace workspace) {
+            Object event = JfrEvents.begin(BkdfListener.Operation.HASH);
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                byte[] message = workspace.message;
+                saltSupplier.nextSalt(workspace.salt);
+                engine.hashPassword(BkdfListener.Operation.HASH, password, workspace.salt, costFactor, workspace,
+                        message, 2 + HashData.SALT_LENGTH_BYTE);
+                message[0] = version.getVersionCode();
+                message[1] = (byte) costFactor;
+                System.arraycopy(workspace.salt, 0, message, 2, HashData.SALT_LENGTH_BYTE);
+
+                long encodeStart = BkdfInstrumentation.start();
+                String encoded = Base64Url.encode(message, 0, 2 + HashData.SALT_LENGTH_BYTE + version.getHashByteLength());
+                BkdfInstrumentation.phase(BkdfListener.Operation.HASH, BkdfListener.Phase.ENCODE, version, costFactor, encodeStart);
+                BkdfInstrumentation.operation(BkdfListener.Operation.HASH, version, costFactor, 1, start);
+                outcome = JfrEvents.SUCCESS;
+                return encoded;
+            } finally {
+                workspace.wipe();
+                JfrEvents.end(event, version.getVersionCode(), costFactor, 1, outcome);
+            }
         }
 
         @Override
         public HashData hashRaw(char[] password, int costFactor) {
-            byte[] salt16Byte = Bytes.random(16, secureRandom).array();
-            return hashRaw(password, salt16Byte, costFactor);
+            Object event = JfrEvents.begin(BkdfListener.Operation.HASH);
+            String outcome = JfrEvents.ERROR;
+            try {
+                long start = BkdfInstrumentation.start();
+                HashData hashData = hashRaw(password, nextSalt(), costFactor);
+                BkdfInstrumentation.operation(BkdfListener.Operation.HASH, version, costFactor, 1, start);
+                outcome = JfrEvents.SUCCESS;
+                return hashData;
+            } finally {
+                JfrEvents.end(event, version.getVersionCode(), costFactor, 1, outcome);
+            }
         }
 
         @Override
-        public Version getHashVersion() {
-            return version;
+        public Future<String> hashAsync(char[] password, int costFactor) {
+            return hashAsync(password, costFactor, BkdfExecutors.sharedHashingExecutor());
         }
 
-        HashData hashRaw(char[] password, byte[] salt16Byte, int costFactor) {
-            if (password.length > MAX_PASSWORD_LENGTH) {
-                throw new IllegalArgumentException("password length must not be greater than " + MAX_PASSWORD_LENGTH);
+        @Override
+        public Future<String> hashAsync(final char[] password, final int costFactor, ExecutorService executor) {
+            return executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return hash(password, costFactor);
+                }
+            });
+        }
+
+        @Override
+        public List<BatchResult<HashData>> hashAll(List<char[]> passwords, int costFactor) {
+            return hashAll(passwords, costFactor, BkdfExecutors.sharedBatchPool());
+        }
+
+        @Override
+        public List<BatchResult<HashData>> hashAll(List<char[]> passwords, int costFactor, ExecutorService executor) {
+            if (passwords.isEmpty()) {
+                return Collections.emptyList();
             }
-            if (salt16Byte == null || salt16Byte.length < 16) {
-                throw new IllegalArgumentException("invalid salt");
+
+            @SuppressWarnings("unchecked")
+            BatchResult<HashData>[] results = new BatchResult[passwords.size()];
+            List<InterleavedBatch.Job> jobs = new ArrayList<>(passwords.size());
+            List<Integer> jobIndices = new ArrayList<>(passwords.size());
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    byte[] salt = nextSalt();
+                    jobs.add(new InterleavedBatch.Job(engine, engine.passwordBytes(passwords.get(i), salt, costFactor), salt, costFactor));
+                    jobIndices.add(i);
+                } catch (RuntimeException e) {
+                    results[i] = BatchResult.failure(e);
+                }
             }
-            if (costFactor < 4 || costFactor > 31) {
-                throw new IllegalArgumentException("cost-factor must be between 4 and 31 (same as for bcrypt itself)");
+
+            List<BatchResult<byte[]>> hashes = InterleavedBatch.execute(BkdfListener.Operation.HASH, jobs, executor);
+            for (int i = 0; i < hashes.size(); i++) {
+                BatchResult<byte[]> hash = hashes.get(i);
+                results[jobIndices.get(i)] = hash.isSuccess()
+                        ? BatchResult.success(new HashData((byte) costFactor, version, jobs.get(i).salt, hash.get()))
+                        : BatchResult.<HashData>failure(hash.getError());
             }
+            return Collections.unmodifiableList(Arrays.asList(results));
+        }
 
-            byte[] pwBytes = Bytes.from(password, StandardCharsets.UTF_8).array();
-            return hashRaw(pwBytes, salt16Byte, costFactor);
+        @Override
+        public Version getHashVersion() {
+            return version;
         }
 
-        HashData hashRaw(byte[] pwBytes, byte[] salt16Byte, int costFactor) {
-            // extract 64 byte long hash with HKDF-HMAC-SHA512 (depending on version)
-            byte[] extractedPw = version.getHkdf().extract((byte[]) null, pwBytes);
+        private byte[] nextSalt() {
+            byte[] salt = new byte[HashData.SALT_LENGTH_BYTE];
+            saltSupplier.nextSalt(salt);
+            return salt;
+        }
 
-            BCrypt.HashData data = BCrypt.with(
-                    new BCrypt.Version(new byte[]{0x32, 0x61},
-                            version.getHashByteLength() == Version.MIN_BCRYPT_HASH_LENGTH_BYTE,
-                            true, BCrypt.Version.DEFAULT_MAX_PW_LENGTH_BYTE, null, null))
-                    .hashRaw(costFactor, salt16Byte, extractedPw);
+        HashData hashRaw(char[] password, byte[] salt16Byte, int costFactor) {
+            return new HashData((byte) costFactor, version, salt16Byte, engine.hashPassword(BkdfListener.Operation.HASH, password, salt16Byte, costFactor));
+        }
 
-            return new HashData((byte) costFactor, version, salt16Byte, data.rawHash);
+        HashData hashRaw(byte[] pwBytes, byte[] salt16Byte, int costFactor) {
+            return new HashData((byte) costFactor, version, salt16Byte, engine.hash(BkdfListener.Operation.HASH, pwBytes, salt16Byte, costFactor));
         }
     }
 
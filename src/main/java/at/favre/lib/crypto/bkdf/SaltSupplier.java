@@ -0,0 +1,42 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.security.SecureRandom;
+import java.util.Objects;
+
+/**
+ * Source of the random salts used by {@link PasswordHasher}. Salts do not need to be secret, but must be unique
+ * and unpredictable, so implementations must be backed by a cryptographically secure random generator.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface SaltSupplier {
+
+    /**
+     * Fill given array with a fresh random salt
+     *
+     * @param salt to fill completely
+     */
+    void nextSalt(byte[] salt);
+
+    /**
+     * Default implementation drawing every salt directly from a single {@link SecureRandom} shared by all threads.
+     * For many concurrent hashing threads see {@link StripedSaltSupplier}.
+     */
+    final class Default implements SaltSupplier {
+        private final SecureRandom secureRandom;
+
+        /**
+         * Create new instance
+         *
+         * @param secureRandom to draw the salts from
+         */
+        public Default(SecureRandom secureRandom) {
+            this.secureRandom = Objects.requireNonNull(secureRandom);
+        }
+
+        @Override
+        public void nextSalt(byte[] salt) {
+            secureRandom.nextBytes(salt);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+
+import javax.security.auth.Destroyable;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Handle to the output of the expensive key stretching step of the KDF protocol (HKDF extract and bcrypt), see
+ * {@link KeyDerivationFunction#stretch(byte[], byte[], int)}. Any number of output key materials can be expanded from it
+ * later, without running bcrypt again:
+ *
+ * <pre>
+ *     try (StretchedKey key = kdf.stretch(salt, password, 14)) {
+ *         byte[] fileKey = key.expand("file".getBytes(), 32);
+ *         ...
+ *         byte[] macKey = key.expand("mac".getBytes(), 32);
+ *     }
+ * </pre>
+ * <p>
+ * {@link #expand(byte[], int)} returns the same bytes as {@link KeyDerivationFunction#derive(byte[], byte[], int, byte[], int)}
+ * with the same parameters. The key material is overwritten on {@link #destroy()} or {@link #close()}; after that it
+ * cannot be used anymore.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class StretchedKey implements Closeable, Destroyable {
+    static final byte[] FIXED_INFO_PARAM = Bytes.from("bkdf").array();
+
+    private final EngineRegistry.Engine engine;
+    private final int costFactor;
+    private final byte[] stretched;
+    // hmac keyed with the stretched key, created on first expand
+    private KeyedHmac expander;
+    private boolean destroyed;
+
+    StretchedKey(EngineRegistry.Engine engine, int costFactor, byte[] stretched) {
+        this.engine = engine;
+        this.costFactor = costFactor;
+        this.stretched = stretched;
+    }
+
+    /**
+     * Expand new output key material (step 3 of the KDF protocol)
+     *
+     * @param infoParam     optional parameter that can be used to pin the key material to a specific context (e.g.
+     *                      creating a MAC and AES key from same password, just pass <code>"mac".getBytes()</code> and
+     *                      <code>"aes".getBytes()</code> as parameter. Can be null.
+     * @param outLengthByte how many bytes long the resulting key material should be (usually 16 or 32 bytes)
+     * @return raw output key material
+     * @throws IllegalStateException if this key was already destroyed
+     */
+    public synchronized byte[] expand(byte[] infoParam, int outLengthByte) {
+        long start = BkdfInstrumentation.start();
+        KeyedHmac expander = expander();
+        byte[] okm = expander != null
+                ? expander.expand(infoParam, FIXED_INFO_PARAM, outLengthByte)
+                : engine.hkdf.expand(stretched, Bytes.wrapNullSafe(infoParam).append(FIXED_INFO_PARAM).array(), outLengthByte);
+        BkdfInstrumentation.phase(BkdfListener.Operation.DERIVE, BkdfListener.Phase.HKDF_EXPAND, engine.version, costFactor, start);
+        return okm;
+    }
+
+    /**
+     * Expand the output key material of all given configs in a single pass into one contiguous buffer, with the
+     * HMAC key schedule done only once; the same as calling {@link #expand(byte[], int)} for each.
+     *
+     * @param configList info parameter and length of each output
+     * @return output key material per config in the same order
+     * @throws IllegalStateException if this key was already destroyed
+     */
+    synchronized List<byte[]> expandAll(List<KeyDerivationFunction.KdfConfig> configList) {
+        KeyedHmac expander = expander();
+        if (expander == null) {
+            List<byte[]> outList = new ArrayList<>(configList.size());
+            for (KeyDerivationFunction.KdfConfig kdfConfig : configList) {
+                outList.add(expand(kdfConfig.infoParam, kdfConfig.outLengthByte));
+            }
+            return outList;
+        }
+
+        int totalLength = 0;
+        for (KeyDerivationFunction.KdfConfig kdfConfig : configList) {
+            // invalid lengths are rejected by expand, but must not overflow the sum
+            totalLength += Math.max(0, Math.min(kdfConfig.outLengthByte, 255 * expander.macLength()));
+        }
+        byte[] okms = new byte[totalLength];
+        try {
+            List<byte[]> outList = new ArrayList<>(configList.size());
+            int offset = 0;
+            for (KeyDerivationFunction.KdfConfig kdfConfig : configList) {
+                long start = BkdfInstrumentation.start();
+                expander.expand(kdfConfig.infoParam, FIXED_INFO_PARAM, okms, offset, kdfConfig.outLengthByte);
+                outList.add(Arrays.copyOfRange(okms, offset, offset + kdfConfig.outLengthByte));
+                offset += kdfConfig.outLengthByte;
+                BkdfInstrumentation.phase(BkdfListener.Operation.DERIVE, BkdfListener.Phase.HKDF_EXPAND, engine.version, costFactor, start);
+            }
+            return outList;
+        } finally {
+            Arrays.fill(okms, (byte) 0);
+        }
+    }
+
+    private KeyedHmac expander() {
+        if (destroyed) {
+            throw new IllegalStateException("stretched key was destroyed");
+        }
+        if (expander == null) {
+            expander = engine.expander(stretched);
+        }
+        return expander;
+    }
+
+    /**
+     * Create an independent copy of this key which can be destroyed separately
+     *
+     * @return new instance
+     * @throws IllegalStateException if this key was already destroyed
+     */
+    synchronized StretchedKey copy() {
+        if (destroyed) {
+            throw new IllegalStateException("stretched key was destroyed");
+        }
+        return new StretchedKey(engine, costFactor, stretched.clone());
+    }
+
+    /**
+     * The version used to stretch this key
+     *
+     * @return version
+     */
+    public Version getVersion() {
+        return engine.version;
+    }
+
+    /**
+     * The cost factor used to stretch this key
+     *
+     * @return cost factor (log2)
+     */
+    public int getCostFactor() {
+        return costFactor;
+    }
+
+    /**
+     * Overwrite the key material; further calls to {@link #expand(byte[], int)} will fail.
+     */
+    @Override
+    public synchronized void destroy() {
+        Arrays.fill(stretched, (byte) 0);
+        if (expander != null) {
+            expander.wipe();
+            expander = null;
+        }
+        destroyed = true;
+    }
+
+    @Override
+    public synchronized boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Same as {@link #destroy()}
+     */
+    @Override
+    public void close() {
+        destroy();
+    }
+
+    @Override
+    public String toString() {
+        return "StretchedKey{versionCode=" + engine.version.getVersionCode() + ", costFactor=" + costFactor
+                + ", destroyed=" + isDestroyed() + '}';
+    }
+}
@@ -0,0 +1,136 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SaltSupplier} for many concurrent hashing threads. Every thread has its own random generator (DRBG if
+ * available, SHA1PRNG otherwise) seeded from a shared {@link SecureRandom}, so threads do not contend on the lock of
+ * a single generator (or the global lock of the native one). Salts are taken from a prefetched block per thread,
+ * which is overwritten with zeros as it is consumed. Every generator is reseeded from the shared source when it
+ * fetches a new block after the reseed interval passed.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class StripedSaltSupplier implements SaltSupplier {
+    /**
+     * Default amount of random bytes fetched at once per thread, i.e. 256 salts
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private static final int SEED_LENGTH_BYTE = 32;
+
+    private final SecureRandom seedSource;
+    private final int blockSize;
+    private final long reseedIntervalNanos;
+    private final Ticker ticker;
+    private final ThreadLocal<Stripe> stripes = new ThreadLocal<Stripe>() {
+        @Override
+        protected Stripe initialValue() {
+            return new Stripe();
+        }
+    };
+
+    /**
+     * Create a new instance with a new seed source, {@link #DEFAULT_BLOCK_SIZE} and hourly reseeding
+     */
+    public StripedSaltSupplier() {
+        this(new SecureRandom(), DEFAULT_BLOCK_SIZE, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param seedSource     strong source used to seed and reseed the generator of every thread
+     * @param blockSize      amount of random bytes fetched at once per thread; must be at least 16
+     * @param reseedInterval time after which a generator is reseeded; must be greater than 0
+     * @param unit           of reseedInterval
+     */
+    public StripedSaltSupplier(SecureRandom seedSource, int blockSize, long reseedInterval, TimeUnit unit) {
+        this(seedSource, blockSize, unit.toNanos(reseedInterval), Ticker.SYSTEM);
+    }
+
+    StripedSaltSupplier(SecureRandom seedSource, int blockSize, long reseedIntervalNanos, Ticker ticker) {
+        if (blockSize < HashData.SALT_LENGTH_BYTE || reseedIntervalNanos <= 0) {
+            throw new IllegalArgumentException("block size must be at least " + HashData.SALT_LENGTH_BYTE + " and reseed interval greater than 0");
+        }
+        this.seedSource = Objects.requireNonNull(seedSource);
+        this.blockSize = blockSize;
+        this.reseedIntervalNanos = reseedIntervalNanos;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Get the lazily created supplier shared by the password hashers of {@link BKDF}
+     *
+     * @return shared instance
+     */
+    public static StripedSaltSupplier shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    @Override
+    public void nextSalt(byte[] salt) {
+        stripes.get().next(salt);
+    }
+
+    private static SecureRandom newGenerator() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            try {
+                return SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException e2) {
+                return new SecureRandom();
+            }
+        }
+    }
+
+    private static final class SharedHolder {
+        private static final StripedSaltSupplier INSTANCE = new StripedSaltSupplier();
+    }
+
+    /**
+     * The generator and prefetched block of a single thread
+     */
+    private final class Stripe {
+        private final SecureRandom random = newGenerator();
+        private final byte[] block = new byte[blockSize];
+        private int position = blockSize;
+        private long seededNanos;
+        private boolean seeded;
+
+        void next(byte[] dst) {
+            int offset = 0;
+            while (offset < dst.length) {
+                if (position == block.length) {
+                    refill();
+                }
+                int length = Math.min(dst.length - offset, block.length - position);
+                System.arraycopy(block, position, dst, offset, length);
+                Arrays.fill(block, position, position + length, (byte) 0);
+                position += length;
+                offset += length;
+            }
+        }
+
+        private void refill() {
+            long now = ticker.nanos();
+            if (!seeded || now - seededNanos >= reseedIntervalNanos) {
+                // before the first call of nextBytes the seed fully determines the state of SHA1PRNG
+                byte[] seed = new byte[SEED_LENGTH_BYTE];
+                seedSource.nextBytes(seed);
+                random.setSeed(seed);
+                Arrays.fill(seed, (byte) 0);
+                seededNanos = now;
+                seeded = true;
+            }
+            random.nextBytes(block);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package at.favre.lib.crypto.bkdf;
+
+/**
+ * Source of monotonic time used by the caches, replaceable for tests
+ */
+interface Ticker {
+    Ticker SYSTEM = new Ticker() {
+        @Override
+        public long nanos() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Current value of the time source, only meaningful relative to other values (see {@link System#nanoTime()})
+     *
+     * @return nanoseconds
+     */
+    long nanos();
+}
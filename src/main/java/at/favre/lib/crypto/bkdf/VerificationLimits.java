@@ -0,0 +1,148 @@
+package at.favre.lib.crypto.bkdf;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upper bounds for the work a single verification may cause. Since cost factors and chain length are read from the
+ * stored hash, a tampered or corrupted hash (e.g. a compound chain of 255 configs or a cost factor of 31) could
+ * otherwise keep a thread busy for hours.
+ * <p>
+ * The limits are checked by only inspecting the header of the message (see {@link HashMessageInspector}) before any
+ * bcrypt work is done, see {@link BKDF#createPasswordHashVerifier(HashPolicy, VerificationLimits)}. Exceeding hashes
+ * are rejected with a {@link LimitExceededException} and counted (see {@link #getExceededCount()}).
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class VerificationLimits {
+
+    /**
+     * No limits besides the ones of the message formats (cost factor 31, chain length 255)
+     */
+    public static final VerificationLimits UNLIMITED = new VerificationLimits(31, HashPolicy.MAX_CHAIN_LENGTH, Long.MAX_VALUE);
+
+    private final int maxCostFactor;
+    private final int maxChainLength;
+    private final long maxTotalIterations;
+    private final AtomicLong exceeded = new AtomicLong();
+
+    /**
+     * Create new limits
+     *
+     * @param maxCostFactor      maximum cost factor of any single config (between 4 and 31)
+     * @param maxChainLength     maximum amount of configs of a compound hash (between 1 and 255)
+     * @param maxTotalIterations maximum sum of bcrypt iterations (2^cost) of all configs (see
+     *                           {@link HashMessageInspector#iterations()}); must be at least 16
+     */
+    public VerificationLimits(int maxCostFactor, int maxChainLength, long maxTotalIterations) {
+        if (maxCostFactor < 4 || maxCostFactor > 31) {
+            throw new IllegalArgumentException("max cost-factor must be between 4 and 31 (same as for bcrypt itself)");
+        }
+        if (maxChainLength < 1 || maxChainLength > HashPolicy.MAX_CHAIN_LENGTH) {
+            throw new IllegalArgumentException("max chain length must be between 1 and " + HashPolicy.MAX_CHAIN_LENGTH);
+        }
+        if (maxTotalIterations < 1L << 4) {
+            throw new IllegalArgumentException("max total iterations must be at least 16");
+        }
+        this.maxCostFactor = maxCostFactor;
+        this.maxChainLength = maxChainLength;
+        this.maxTotalIterations = maxTotalIterations;
+    }
+
+    /**
+     * Checks the header of given hash against these limits. Unknown messages are ignored (parsing will fail later).
+     *
+     * @param inspector               used to read the header
+     * @param bkdfPasswordHashFormat2 "BKDF Password Hash Message Format 2" or compound format
+     * @throws LimitExceededException if any limit is exceeded
+     */
+    public void check(HashMessageInspector inspector, CharSequence bkdfPasswordHashFormat2) {
+        if (inspector.inspect(bkdfPasswordHashFormat2) == HashMessageInspector.Format.UNKNOWN) {
+            return;
+        }
+        int configCount = inspector.configCount();
+        if (configCount > maxChainLength) {
+            throw exceeded("chain length " + configCount + " exceeds limit of " + maxChainLength);
+        }
+        for (int i = 0; i < configCount; i++) {
+            check(inspector.cost(i));
+        }
+        if (inspector.iterations() > maxTotalIterations) {
+            throw exceeded("total iterations " + inspector.iterations() + " exceed limit of " + maxTotalIterations);
+        }
+    }
+
+    /**
+     * Checks the cost factor of a single config hash against these limits
+     *
+     * @param costFactor of the hash
+     * @throws LimitExceededException if any limit is exceeded
+     */
+    public void check(int costFactor) {
+        if (costFactor > maxCostFactor) {
+            throw exceeded("cost factor " + costFactor + " exceeds limit of " + maxCostFactor);
+        }
+        if (1L << Math.min(costFactor, 62) > maxTotalIterations) {
+            throw exceeded("total iterations " + (1L << Math.min(costFactor, 62)) + " exceed limit of " + maxTotalIterations);
+        }
+    }
+
+    private LimitExceededException exceeded(String message) {
+        exceeded.incrementAndGet();
+        return new LimitExceededException(message);
+    }
+
+    /**
+     * The maximum cost factor of a single config
+     *
+     * @return cost factor (log2)
+     */
+    public int getMaxCostFactor() {
+        return maxCostFactor;
+    }
+
+    /**
+     * The maximum amount of configs of a compound hash
+     *
+     * @return max chain length
+     */
+    public int getMaxChainLength() {
+        return maxChainLength;
+    }
+
+    /**
+     * The maximum sum of bcrypt iterations of all configs
+     *
+     * @return iterations
+     */
+    public long getMaxTotalIterations() {
+        return maxTotalIterations;
+    }
+
+    /**
+     * How many hashes were rejected by these limits so far
+     *
+     * @return count
+     */
+    public long getExceededCount() {
+        return exceeded.get();
+    }
+
+    @Override
+    public String toString() {
+        return "VerificationLimits{" +
+                "maxCostFactor=" + maxCostFactor +
+                ", maxChainLength=" + maxChainLength +
+                ", maxTotalIterations=" + maxTotalIterations +
+                '}';
+    }
+
+    /**
+     * Thrown if a stored hash would require more work than allowed by the {@link VerificationLimits}
+     */
+    public static final class LimitExceededException extends IllegalArgumentException {
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -80,12 +80,7 @@ public interface Version {
          * @throws UnsupportedBkdfVersionException if version code is not known
          */
         public static Version getByCode(byte versionCode) {
-            for (Version version : VERSIONS) {
-                if (version.getVersionCode() == versionCode) {
-                    return version;
-                }
-            }
-            throw new UnsupportedBkdfVersionException(versionCode);
+            return EngineRegistry.forCode(versionCode).version;
         }
     }
 
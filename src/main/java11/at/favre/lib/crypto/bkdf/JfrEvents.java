@@ -0,0 +1,98 @@
+package at.favre.lib.crypto.bkdf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java 11+ layer of the multi-release jar, emits Java Flight Recorder events for every BKDF operation.
+ * <p>
+ * If the event type is not enabled in the current recording, no event is started and no timestamps are taken.
+ */
+final class JfrEvents {
+    static final String SUCCESS = "success";
+    static final String MISMATCH = "mismatch";
+    static final String ERROR = "error";
+
+    private JfrEvents() {
+    }
+
+    static Object begin(BkdfListener.Operation operation) {
+        BkdfEvent event;
+        switch (operation) {
+            case HASH:
+                event = new HashEvent();
+                break;
+            case VERIFY:
+                event = new VerifyEvent();
+                break;
+            case DERIVE:
+                event = new DeriveEvent();
+                break;
+            default:
+                event = new UpgradeEvent();
+                break;
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void end(Object event, byte versionCode, int costFactor, int chainLength, String outcome) {
+        if (event == null) {
+            return;
+        }
+        BkdfEvent bkdfEvent = (BkdfEvent) event;
+        bkdfEvent.end();
+        if (bkdfEvent.shouldCommit()) {
+            bkdfEvent.versionCode = versionCode & 0xFF;
+            bkdfEvent.costFactor = costFactor;
+            bkdfEvent.chainLength = chainLength;
+            bkdfEvent.outcome = outcome;
+            bkdfEvent.commit();
+        }
+    }
+
+    @Category({"BKDF"})
+    abstract static class BkdfEvent extends Event {
+        @Label("Version Code")
+        @Description("Version code of the (last) config of the hash, 0 if unknown")
+        int versionCode;
+
+        @Label("Cost Factor")
+        @Description("Log2 cost factor of the (last) config of the hash, 0 if unknown")
+        int costFactor;
+
+        @Label("Chain Length")
+        @Description("Amount of configs of a compound hash, 1 for plain hashes, 0 if unknown")
+        int chainLength;
+
+        @Label("Outcome")
+        @Description("success, mismatch (wrong password) or error")
+        String outcome;
+    }
+
+    @Name("bkdf.Hash")
+    @Label("BKDF Hash")
+    static final class HashEvent extends BkdfEvent {
+    }
+
+    @Name("bkdf.Verify")
+    @Label("BKDF Verify")
+    static final class VerifyEvent extends BkdfEvent {
+    }
+
+    @Name("bkdf.Derive")
+    @Label("BKDF Derive")
+    static final class DeriveEvent extends BkdfEvent {
+    }
+
+    @Name("bkdf.Upgrade")
+    @Label("BKDF Upgrade")
+    static final class UpgradeEvent extends BkdfEvent {
+    }
+}
@@ -0,0 +1,161 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long ITERATIONS = 1L << 10;
+
+    private ManualTicker ticker;
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @Before
+    public void setup() {
+        ticker = new ManualTicker();
+        limiter = new AdaptiveConcurrencyLimiter(4, 1, 8, 2.0, ticker);
+    }
+
+    @Test
+    public void testFailFastAtLimit() {
+        long[] starts = new long[4];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        try {
+            limiter.acquire();
+            fail();
+        } catch (AdaptiveConcurrencyLimiter.ConcurrencyLimitExceededException e) {
+            assertTrue(e.getMessage().contains("4"));
+        }
+        assertEquals(1, limiter.getStats().rejected);
+        assertEquals(4, limiter.getStats().inFlight);
+
+        limiter.release(starts[0], 0);
+        limiter.acquire();
+    }
+
+    @Test
+    public void testMultiplicativeDecreaseOnSlowComputation() {
+        complete(1000);
+        assertEquals(4, limiter.getLimit());
+
+        complete(5000);
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 50; i++) {
+            complete(5000);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testAdditiveIncreaseWhenUtilized() {
+        complete(1000);
+        for (int i = 0; i < 20; i++) {
+            long[] starts = new long[2];
+            starts[0] = limiter.acquire();
+            starts[1] = limiter.acquire();
+            ticker.nanos += 1000 * ITERATIONS;
+            limiter.release(starts[0], ITERATIONS);
+            limiter.release(starts[1], ITERATIONS);
+        }
+        assertTrue(limiter.getLimit() > 4);
+        assertTrue(limiter.getLimit() <= 8);
+    }
+
+    @Test
+    public void testNoIncreaseWhenIdle() {
+        for (int i = 0; i < 50; i++) {
+            complete(1000);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1000, limiter.getStats().baselineNanosPerIteration, 1);
+    }
+
+    @Test
+    public void testFailedComputationIsNotSampled() {
+        complete(1000);
+        long start = limiter.acquire();
+        ticker.nanos += 100_000 * ITERATIONS;
+        limiter.release(start, 0);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getStats().inFlight);
+    }
+
+    @Test
+    public void testDeadline() {
+        try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.withDeadline(-1, TimeUnit.MILLISECONDS)) {
+            limiter.acquire();
+            fail();
+        } catch (AdaptiveConcurrencyLimiter.DeadlineExceededException e) {
+            assertEquals(1, limiter.getStats().deadlineExceeded);
+        }
+        assertNull(AdaptiveConcurrencyLimiter.currentDeadline());
+        assertEquals(0, limiter.getStats().inFlight);
+
+        try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.withDeadline(1, TimeUnit.MINUTES)) {
+            limiter.release(limiter.acquire(), 0);
+        }
+    }
+
+    @Test
+    public void testNestedDeadlineRestoresPrevious() {
+        try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.withDeadlineAt(42)) {
+            try (AdaptiveConcurrencyLimiter.DeadlineScope ignored2 = AdaptiveConcurrencyLimiter.withDeadlineAt(43)) {
+                assertEquals(Long.valueOf(43), AdaptiveConcurrencyLimiter.currentDeadline());
+            }
+            assertEquals(Long.valueOf(42), AdaptiveConcurrencyLimiter.currentDeadline());
+        }
+        assertNull(AdaptiveConcurrencyLimiter.currentDeadline());
+    }
+
+    @Test
+    public void testLimitedHasherAndKdf() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        PasswordHasher hasher = new LimitedPasswordHasher(BKDF.createPasswordHasher(), limiter);
+        String hash = hasher.hash("secret".toCharArray(), 4);
+        assertTrue(BKDF.createPasswordHashVerifier().verify("secret".toCharArray(), hash));
+
+        KeyDerivationFunction kdf = new LimitedKeyDerivationFunction(BKDF.createKdf(), limiter);
+        byte[] salt = Bytes.random(16).array();
+        assertArrayEquals(BKDF.createKdf().derive(salt, "secret".toCharArray(), 4, new byte[0], 16),
+                kdf.derive(salt, "secret".toCharArray(), 4, new byte[0], 16));
+
+        assertEquals(0, limiter.getStats().inFlight);
+        assertTrue(limiter.getStats().baselineNanosPerIteration > 0);
+
+        try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.withDeadline(0, TimeUnit.SECONDS)) {
+            assertFalse(hasher.hashAll(Collections.singletonList("secret".toCharArray()), 4).get(0).isSuccess());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        new AdaptiveConcurrencyLimiter(4, 5, 8, 2.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTolerance() {
+        new AdaptiveConcurrencyLimiter(4, 1, 8, 1.0);
+    }
+
+    private void complete(long nanosPerIteration) {
+        long start = limiter.acquire();
+        ticker.nanos += nanosPerIteration * ITERATIONS;
+        limiter.release(start, ITERATIONS);
+    }
+
+    private static final class ManualTicker implements Ticker {
+        private long nanos;
+
+        @Override
+        public long nanos() {
+            return nanos;
+        }
+    }
+}
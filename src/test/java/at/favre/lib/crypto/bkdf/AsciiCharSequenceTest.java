@@ -0,0 +1,53 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class AsciiCharSequenceTest {
+
+    @Test
+    public void testSameAsString() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16).put("xxAQ-_bkdf".getBytes(StandardCharsets.US_ASCII));
+        buffer.flip();
+        buffer.position(2);
+        AsciiCharSequence sequence = new AsciiCharSequence(buffer);
+        assertEquals(8, sequence.length());
+        assertEquals('A', sequence.charAt(0));
+        assertEquals('f', sequence.charAt(7));
+        assertEquals("AQ-_bkdf", sequence.toString());
+        assertEquals("-_b", sequence.subSequence(2, 5).toString());
+        assertEquals(0, sequence.subSequence(3, 3).length());
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void testDecodesLikeString() {
+        String hash = BKDF.createPasswordHasher().hash("secret".toCharArray(), 4);
+        AsciiCharSequence sequence = new AsciiCharSequence(StandardCharsets.US_ASCII.encode(hash));
+        assertArrayEquals(Base64Url.decode(hash), Base64Url.decode(sequence));
+        assertEquals(new HashMessageInspector().inspect(hash), new HashMessageInspector().inspect(sequence));
+    }
+
+    @Test
+    public void testHighBytes() {
+        AsciiCharSequence sequence = new AsciiCharSequence(ByteBuffer.wrap(new byte[]{(byte) 0xE9, 0x41}));
+        assertEquals('é', sequence.charAt(0));
+        assertEquals(-1, Base64Url.decodeChar(sequence.charAt(0)));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testCharAtOutOfBounds() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        buffer.limit(2);
+        new AsciiCharSequence(buffer).charAt(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSubSequenceOutOfBounds() {
+        new AsciiCharSequence(ByteBuffer.wrap(new byte[3])).subSequence(2, 4);
+    }
+}
@@ -0,0 +1,82 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class Base64UrlTest {
+
+    @Test
+    public void testEncodeSameAsBytes() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            byte[] data = Bytes.random(i).array();
+            String expected = Bytes.wrap(data).encodeBase64Url();
+
+            assertEquals(expected, Base64Url.encode(data, 0, data.length));
+            assertEquals(expected.length(), Base64Url.encodedLength(i));
+
+            char[] chars = new char[Base64Url.encodedLength(i) + 2];
+            assertEquals(expected.length(), Base64Url.encode(data, 0, data.length, chars, 1));
+            assertEquals(expected, new String(chars, 1, expected.length()));
+
+            assertEquals("x" + expected, Base64Url.encode(data, 0, data.length, new StringBuilder("x")).toString());
+
+            StringWriter writer = new StringWriter();
+            Base64Url.encode(data, 0, data.length, writer);
+            assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test
+    public void testDecodeSameAsBytes() {
+        for (int i = 0; i < 100; i++) {
+            byte[] data = Bytes.random(i).array();
+            String urlPadded = Bytes.wrap(data).encodeBase64Url();
+            String standardPadded = Bytes.wrap(data).encodeBase64();
+            String urlUnpadded = urlPadded.replace("=", "");
+
+            assertArrayEquals(data, Base64Url.decode(urlPadded));
+            assertArrayEquals(data, Base64Url.decode(standardPadded));
+            assertArrayEquals(data, Base64Url.decode(urlUnpadded));
+            assertArrayEquals(Bytes.parseBase64(urlUnpadded).array(), Base64Url.decode(urlUnpadded));
+            assertEquals(i, Base64Url.maxDecodedLength(urlPadded));
+        }
+    }
+
+    @Test
+    public void testDecodeIntoReusableBuffer() {
+        byte[] data = Bytes.random(41).array();
+        byte[] buffer = new byte[64];
+        assertEquals(41, Base64Url.decode(Bytes.wrap(data).encodeBase64Url(), buffer, 3));
+        assertArrayEquals(data, Bytes.wrap(buffer).copy(3, 41).array());
+    }
+
+    @Test
+    public void testDecodeIgnoresWhitespace() {
+        assertArrayEquals(Bytes.parseBase64("AB\nCD").array(), Base64Url.decode("AB\nCD"));
+        assertArrayEquals(Bytes.parseBase64("_-8 =\n").array(), Base64Url.decode("_-8 =\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidChar() {
+        Base64Url.decode("A$==");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodePaddingInTheMiddle() {
+        Base64Url.decode("AB=C");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidLength() {
+        Base64Url.decode("ABCDE");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeNonAscii() {
+        Base64Url.decode("ABCπ");
+    }
+}
@@ -0,0 +1,96 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class BatchTest {
+
+    @Test
+    public void testHashAllAndVerifyAll() {
+        PasswordHasher hasher = BKDF.createPasswordHasher();
+        List<char[]> passwords = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            passwords.add(("secret" + i).toCharArray());
+        }
+
+        List<BatchResult<HashData>> hashes = hasher.hashAll(passwords, 4);
+        assertEquals(passwords.size(), hashes.size());
+
+        List<PasswordHashVerifier.Credential> credentials = new ArrayList<>();
+        for (int i = 0; i < passwords.size(); i++) {
+            assertTrue(hashes.get(i).isSuccess());
+            // swap every third password to get a mismatch
+            char[] pw = i % 3 == 0 ? passwords.get((i + 1) % passwords.size()) : passwords.get(i);
+            credentials.add(new PasswordHashVerifier.Credential(pw, hashes.get(i).get().getAsEncodedMessageFormat()));
+        }
+
+        List<BatchResult<Boolean>> results = BKDF.createPasswordHashVerifier().verifyAll(credentials);
+        assertEquals(credentials.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i % 3 != 0, results.get(i).get());
+        }
+    }
+
+    @Test
+    public void testFailuresArePerElement() {
+        String hash = BKDF.createPasswordHasher().hash("secret".toCharArray(), 4);
+        List<PasswordHashVerifier.Credential> credentials = Arrays.asList(
+                new PasswordHashVerifier.Credential("secret".toCharArray(), hash),
+                new PasswordHashVerifier.Credential("secret".toCharArray(), "not-a-valid-hash"),
+                new PasswordHashVerifier.Credential("secret".toCharArray(), hash));
+
+        List<BatchResult<Boolean>> results = BKDF.createPasswordHashVerifier().verifyAll(credentials);
+        assertTrue(results.get(0).get());
+        assertFalse(results.get(1).isSuccess());
+        assertNotNull(results.get(1).getError());
+        assertTrue(results.get(2).get());
+
+        List<BatchResult<HashData>> hashes = BKDF.createPasswordHasher().hashAll(Arrays.asList("a".toCharArray(), new char[257]), 4);
+        assertTrue(hashes.get(0).isSuccess());
+        assertTrue(hashes.get(1).getError() instanceof IllegalArgumentException);
+
+        hashes = BKDF.createPasswordHasher().hashAll(Arrays.asList(new char[0], "good".toCharArray()), 4);
+        assertTrue(hashes.get(0).getError() instanceof IllegalArgumentException);
+        assertTrue(BKDF.createPasswordHashVerifier().verify("good".toCharArray(), hashes.get(1).get().getAsEncodedMessageFormat()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetOnFailure() {
+        BatchResult.failure(new IllegalArgumentException()).get();
+    }
+
+    @Test
+    public void testDeriveAllWithCustomExecutor() {
+        KeyDerivationFunction kdf = BKDF.createKdf();
+        byte[] salt = Bytes.random(16).array();
+        List<KeyDerivationFunction.KdfInput> inputs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            inputs.add(new KeyDerivationFunction.KdfInput(salt, Bytes.from("pw" + i).array(), 4, Bytes.from("aes").array(), 16 + i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<BatchResult<byte[]>> results = kdf.deriveAll(inputs, executor);
+            for (int i = 0; i < inputs.size(); i++) {
+                KeyDerivationFunction.KdfInput in = inputs.get(i);
+                assertArrayEquals(kdf.derive(in.salt, in.ikm, in.costFactor, in.infoParam, in.outLengthByte), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertTrue(BKDF.createKdf().deriveAll(Collections.<KeyDerivationFunction.KdfInput>emptyList()).isEmpty());
+    }
+}
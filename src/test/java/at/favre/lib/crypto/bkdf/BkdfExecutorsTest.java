@@ -0,0 +1,70 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BkdfExecutorsTest {
+
+    @Test
+    public void testSharedIsSingleton() {
+        assertSame(BkdfExecutors.sharedHashingExecutor(), BkdfExecutors.sharedHashingExecutor());
+    }
+
+    @Test
+    public void testDefaultSizing() {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) BkdfExecutors.newHashingExecutor();
+        try {
+            assertEquals(Runtime.getRuntime().availableProcessors(), executor.getMaximumPoolSize());
+            assertEquals(executor.getMaximumPoolSize() * BkdfExecutors.DEFAULT_QUEUE_SIZE_PER_THREAD, executor.getQueue().remainingCapacity());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectWhenFull() throws InterruptedException {
+        ExecutorService executor = BkdfExecutors.newHashingExecutor(1, 1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            executor.submit(blocking);
+            executor.submit(blocking);
+            try {
+                executor.submit(blocking);
+                fail();
+            } catch (RejectedExecutionException e) {
+                assertTrue(e.getMessage().contains("saturated"));
+            }
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads() {
+        BkdfExecutors.newHashingExecutor(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQueue() {
+        BkdfExecutors.newHashingExecutor(1, 0);
+    }
+}
@@ -0,0 +1,389 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.crypto.bkdf.testdata.KdfTestData;
+import at.favre.lib.crypto.bkdf.testdata.PasswordHashTestData;
+import at.favre.lib.crypto.bkdf.util.TestCaseHasher;
+import at.favre.lib.crypto.bkdf.util.TestCaseKdf;
+import at.favre.lib.hkdf.HKDF;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BkdfWorkspaceTest {
+
+    private final BkdfWorkspace workspace = new BkdfWorkspace();
+
+    @Test
+    public void testEncodePasswordSameAsBytes() {
+        String[] passwords = {"", "a", "Secret1234%$!", "ππππππππ", "äöü€", "😀 smile",
+                "unpaired \ud83d", "unpaired \ude00 low", "\ud83d😀", "￿ࠀ߿\u0080\u007f"};
+        for (String password : passwords) {
+            int length = workspace.encodePassword(password.toCharArray());
+            assertArrayEquals(password, Bytes.from(password.toCharArray(), StandardCharsets.UTF_8).array(),
+                    Arrays.copyOf(workspace.passwordBytes, length));
+        }
+    }
+
+    @Test
+    public void testEncodePasswordSequenceAndBufferSameAsChars() {
+        String[] passwords = {"", "a", "Secret1234%$!", "äöü€", "😀 smile", "unpaired \ud83d", "\ud83d😀"};
+        for (String password : passwords) {
+            byte[] expected = Arrays.copyOf(workspace.passwordBytes, workspace.encodePassword(password.toCharArray()));
+            CharBuffer charBuffer = CharBuffer.wrap("xx" + password);
+            charBuffer.position(2);
+            assertArrayEquals(password, expected, Arrays.copyOf(workspace.passwordBytes, workspace.encodePassword(charBuffer)));
+            assertEquals(2, charBuffer.position());
+            assertArrayEquals(password, expected, Arrays.copyOf(workspace.passwordBytes, workspace.encodePassword(new StringBuilder(password))));
+
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(expected.length + 3);
+            byteBuffer.position(1);
+            byteBuffer.put(expected).flip();
+            byteBuffer.position(1);
+            assertArrayEquals(password, expected, Arrays.copyOf(workspace.passwordBytes, workspace.encodePassword(byteBuffer)));
+            assertEquals(1, byteBuffer.position());
+        }
+    }
+
+    @Test
+    public void testEncodeBufferMaxLength() {
+        char[] password = new char[PasswordHasher.MAX_PASSWORD_LENGTH];
+        Arrays.fill(password, '€');
+        assertEquals(PasswordHasher.MAX_PASSWORD_LENGTH * 3, workspace.encodePassword(StandardCharsets.UTF_8.encode(CharBuffer.wrap(password))));
+        String emojis = new String(password, 0, PasswordHasher.MAX_PASSWORD_LENGTH / 2).replace("€", "😀");
+        assertEquals(PasswordHasher.MAX_PASSWORD_LENGTH * 2, workspace.encodePassword(StandardCharsets.UTF_8.encode(emojis)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeBufferTooLong() {
+        workspace.encodePassword(ByteBuffer.wrap(new byte[PasswordHasher.MAX_PASSWORD_LENGTH + 1]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeBufferTooManySurrogatePairs() {
+        StringBuilder password = new StringBuilder("a");
+        for (int i = 0; i < PasswordHasher.MAX_PASSWORD_LENGTH / 2; i++) {
+            password.append("😀");
+        }
+        workspace.encodePassword(StandardCharsets.UTF_8.encode(password.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeSequenceTooLong() {
+        workspace.encodePassword(CharBuffer.allocate(PasswordHasher.MAX_PASSWORD_LENGTH + 1));
+    }
+
+    @Test
+    public void testHashAndVerifyBuffers() {
+        PasswordHasher hasher = BKDF.createPasswordHasher();
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        String password = "😀 secret €";
+        ByteBuffer utf8Password = ByteBuffer.allocateDirect(32).put(password.getBytes(StandardCharsets.UTF_8));
+        utf8Password.flip();
+
+        String[] hashes = {hasher.hash(password.toCharArray(), 4), hasher.hash(password, 4, workspace),
+                hasher.hash(CharBuffer.wrap(password), 4, workspace), hasher.hash(utf8Password, 4, workspace)};
+        assertEquals(0, utf8Password.position());
+        for (String hash : hashes) {
+            ByteBuffer storedHash = ByteBuffer.allocateDirect(hash.length()).put(hash.getBytes(StandardCharsets.US_ASCII));
+            storedHash.flip();
+            assertTrue(verifier.verify(password.toCharArray(), hash));
+            assertTrue(verifier.verify(password, hash, workspace));
+            assertTrue(verifier.verify(CharBuffer.wrap(password), new StringBuilder(hash), workspace));
+            assertTrue(verifier.verify(utf8Password, storedHash, workspace));
+            assertFalse(verifier.verify("wrong", hash, workspace));
+            assertFalse(verifier.verify(StandardCharsets.UTF_8.encode("wrong"), storedHash, workspace));
+            assertEquals(0, utf8Password.position());
+            assertEquals(0, storedHash.position());
+            assertWiped();
+        }
+    }
+
+    @Test
+    public void testVerifyBuffersCompoundAndMalformedHash() {
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        String compound = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(5,
+                BKDF.createPasswordHasher().hash("secret€".toCharArray(), 4)).getAsEncodedMessageFormat();
+        assertTrue(verifier.verify("secret€", compound, workspace));
+        assertTrue(verifier.verify(StandardCharsets.UTF_8.encode("secret€"), StandardCharsets.US_ASCII.encode(compound), workspace));
+        assertFalse(verifier.verify(StandardCharsets.UTF_8.encode("secret"), StandardCharsets.US_ASCII.encode(compound), workspace));
+        try {
+            verifier.verify(StandardCharsets.UTF_8.encode("secret"), StandardCharsets.US_ASCII.encode("AQ"), workspace);
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+        assertWiped();
+    }
+
+    @Test
+    public void testMalformedBufferRejectedByAllPaths() {
+        PasswordHasher hasher = BKDF.createPasswordHasher();
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        String hash = hasher.hash("abc".toCharArray(), 4);
+        String upgraded = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(5, hash).getAsEncodedMessageFormat();
+        byte[] malformed = {(byte) 0xFF, 'a', 'b', 'c'};
+
+        try {
+            hasher.hash(ByteBuffer.wrap(malformed), 4, workspace);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        for (String storedHash : new String[]{hash, upgraded}) {
+            try {
+                verifier.verify(ByteBuffer.wrap(malformed), StandardCharsets.US_ASCII.encode(storedHash), workspace);
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+            assertTrue(verifier.verify(StandardCharsets.UTF_8.encode("abc"), StandardCharsets.US_ASCII.encode(storedHash), workspace));
+        }
+        assertWiped();
+    }
+
+    @Test
+    public void testEncodeBufferRejectsSameAsDecoder() {
+        Random random = new Random(7);
+        byte[][] interesting = {{(byte) 0xC0, (byte) 0x80}, {(byte) 0xE0, (byte) 0x9F, (byte) 0xBF},
+                {(byte) 0xED, (byte) 0xA0, (byte) 0x80}, {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+                {(byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80}, {(byte) 0xE2, (byte) 0x82}, {(byte) 0xF5, 'a'}};
+        for (int i = 0; i < 20000; i++) {
+            byte[] bytes;
+            if (i < interesting.length) {
+                bytes = interesting[i];
+            } else {
+                bytes = new byte[1 + random.nextInt(6)];
+                for (int j = 0; j < bytes.length; j++) {
+                    // mostly bytes relevant for multi byte sequences
+                    bytes[j] = (byte) (random.nextBoolean() ? 0x80 + random.nextInt(0x80) : random.nextInt(0x100));
+                }
+            }
+            boolean wellFormed = true;
+            try {
+                StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(bytes));
+            } catch (CharacterCodingException e) {
+                wellFormed = false;
+            }
+            try {
+                assertEquals(bytes.length, workspace.encodePassword(ByteBuffer.wrap(bytes)));
+                assertTrue(Arrays.toString(bytes), wellFormed);
+            } catch (IllegalArgumentException e) {
+                assertFalse(Arrays.toString(bytes), wellFormed);
+            }
+        }
+    }
+
+    @Test(expected = VerificationLimits.LimitExceededException.class)
+    public void testVerifyBuffersChecksLimits() {
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(null, new VerificationLimits(5, 1, Long.MAX_VALUE));
+        String hash = BKDF.createPasswordHasher().hash("secret".toCharArray(), 6);
+        verifier.verify(StandardCharsets.UTF_8.encode("secret"), StandardCharsets.US_ASCII.encode(hash), workspace);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodePasswordTooLong() {
+        workspace.encodePassword(new char[PasswordHasher.MAX_PASSWORD_LENGTH + 1]);
+    }
+
+    @Test
+    public void testEncodePasswordMaxLength() {
+        char[] password = new char[PasswordHasher.MAX_PASSWORD_LENGTH];
+        Arrays.fill(password, '€');
+        assertEquals(PasswordHasher.MAX_PASSWORD_LENGTH * 3, workspace.encodePassword(password));
+    }
+
+    @Test
+    public void testVerifyReferenceData() {
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        for (TestCaseHasher testCase : PasswordHashTestData.TEST_DATA_V1) {
+            assertTrue(verifier.verify(testCase.password, testCase.hash, workspace));
+        }
+        for (TestCaseHasher testCase : PasswordHashTestData.TEST_DATA_V2) {
+            assertTrue(verifier.verify(testCase.password, testCase.hash, workspace));
+            assertFalse(verifier.verify("wrong".toCharArray(), testCase.hash, workspace));
+        }
+    }
+
+    @Test
+    public void testHashAndVerify() {
+        for (Version version : Version.VERSIONS) {
+            PasswordHasher hasher = BKDF.createPasswordHasher(version);
+            PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+            for (int cost = 4; cost < 7; cost++) {
+                String hash = hasher.hash("secret".toCharArray(), cost, workspace);
+                assertEquals(version, HashData.parse(hash).version);
+                assertEquals(cost, HashData.parse(hash).cost);
+                assertTrue(verifier.verify("secret".toCharArray(), hash));
+                assertTrue(verifier.verify("secret".toCharArray(), hash, workspace));
+                assertFalse(verifier.verify("secreT".toCharArray(), hash, workspace));
+            }
+        }
+    }
+
+    @Test
+    public void testHashSameAsWithoutWorkspace() {
+        PasswordHasher hasher = BKDF.createPasswordHasher(Version.HKDF_HMAC512_BCRYPT_24_BYTE, new SaltSupplier() {
+            @Override
+            public void nextSalt(byte[] salt) {
+                Arrays.fill(salt, (byte) 0x2A);
+            }
+        });
+        char[] password = "😀 €".toCharArray();
+        assertEquals(hasher.hash(password, 5), hasher.hash(password, 5, workspace));
+    }
+
+    @Test
+    public void testVerifyCompoundHash() {
+        PasswordHashUpgrader upgrader = BKDF.createPasswordHashUpgrader();
+        String compound = upgrader.upgradePasswordHashWith(5, BKDF.createPasswordHasher().hash("secret".toCharArray(), 4))
+                .getAsEncodedMessageFormat();
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        assertTrue(verifier.verify("secret".toCharArray(), compound, workspace));
+        assertFalse(verifier.verify("wrong".toCharArray(), compound, workspace));
+    }
+
+    @Test
+    public void testVerifyMalformedHashSameAsWithoutWorkspace() {
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        String valid = BKDF.createPasswordHasher().hash("secret".toCharArray(), 4);
+        String[] malformed = {"", "AQ", valid.substring(0, 20), "/w" + valid.substring(2), valid + valid, "not%base64!"};
+        for (String hash : malformed) {
+            Class<?> expected = null;
+            try {
+                verifier.verify("secret".toCharArray(), hash);
+            } catch (RuntimeException e) {
+                expected = e.getClass();
+            }
+            try {
+                verifier.verify("secret".toCharArray(), hash, workspace);
+                assertNull(hash, expected);
+            } catch (RuntimeException e) {
+                assertEquals(hash, expected, e.getClass());
+            }
+        }
+    }
+
+    @Test(expected = VerificationLimits.LimitExceededException.class)
+    public void testVerifyChecksLimits() {
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(null, new VerificationLimits(5, 1, Long.MAX_VALUE));
+        verifier.verify("secret".toCharArray(), BKDF.createPasswordHasher().hash("secret".toCharArray(), 6), workspace);
+    }
+
+    @Test
+    public void testDeriveReferenceData() {
+        testDeriveReferenceData(Version.HKDF_HMAC512, KdfTestData.TEST_DATA_V1_72_OUT);
+        testDeriveReferenceData(Version.HKDF_HMAC512_BCRYPT_24_BYTE, KdfTestData.TEST_DATA_V2_72_OUT);
+        testDeriveReferenceData(Version.HKDF_HMAC512, KdfTestData.TEST_DATA_V1_16_OUT);
+    }
+
+    private void testDeriveReferenceData(Version version, TestCaseKdf[] data) {
+        KeyDerivationFunction kdf = BKDF.createKdf(version);
+        for (TestCaseKdf testCase : data) {
+            assertArrayEquals(testCase.hash, kdf.derive(testCase.salt, testCase.password, testCase.cost, testCase.info, testCase.outLength, workspace));
+        }
+    }
+
+    @Test
+    public void testDeriveCustomHkdfSameAsWithoutWorkspace() {
+        KeyDerivationFunction kdf = BKDF.createKdf(new Version.Default(HKDF.fromHmacSha256(), 24, (byte) 0x7A));
+        byte[] salt = Bytes.random(16).array();
+        byte[] expected = kdf.derive(salt, "secret".toCharArray(), 4, null, 100);
+        assertArrayEquals(expected, kdf.derive(salt, "secret".toCharArray(), 4, null, 100, workspace));
+    }
+
+    @Test
+    public void testDeriveLongPassword() {
+        KeyDerivationFunction kdf = BKDF.createKdf();
+        char[] password = new char[PasswordHasher.MAX_PASSWORD_LENGTH * 2];
+        Arrays.fill(password, 'x');
+        byte[] salt = Bytes.random(16).array();
+        assertArrayEquals(kdf.derive(salt, password, 4, "aes".getBytes(), 32),
+                kdf.derive(salt, password, 4, "aes".getBytes(), 32, workspace));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHashEmptyPassword() {
+        BKDF.createPasswordHasher().hash(new char[0], 4, workspace);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeriveInvalidOutLength() {
+        BKDF.createKdf().derive(new byte[16], "secret".toCharArray(), 4, null, 0, workspace);
+    }
+
+    @Test(timeout = 10000)
+    public void testDeriveValidatesBeforeBcrypt() {
+        KeyDerivationFunction kdf = BKDF.createKdf();
+        // cost 31 would take hours if bcrypt was started
+        assertDeriveFails(kdf, new byte[16], 31, 0);
+        assertDeriveFails(kdf, new byte[16], 31, 255 * 64 + 1);
+        assertDeriveFails(kdf, new byte[15], 31, 16);
+        assertDeriveFails(kdf, new byte[16], 32, 16);
+        assertEquals(255 * 64, kdf.derive(new byte[16], "secret".toCharArray(), 4, null, 255 * 64, workspace).length);
+    }
+
+    private void assertDeriveFails(KeyDerivationFunction kdf, byte[] salt, int costFactor, int outLengthByte) {
+        try {
+            kdf.derive(salt, "secret".toCharArray(), costFactor, null, outLengthByte, workspace);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testWipedAfterUse() {
+        String hash = BKDF.createPasswordHasher().hash("secret".toCharArray(), 4, workspace);
+        assertWiped();
+        BKDF.createPasswordHashVerifier().verify("secret".toCharArray(), hash, workspace);
+        assertWiped();
+        BKDF.createKdf().derive(new byte[16], "secret".toCharArray(), 4, null, 32, workspace);
+        assertWiped();
+        try {
+            BKDF.createPasswordHashVerifier().verify("secret".toCharArray(), hash.substring(0, 20), workspace);
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+        assertWiped();
+    }
+
+    @Test
+    public void testDecoratorsPassWorkspace() {
+        PasswordHashVerifier verifier = new CachingPasswordHashVerifier(
+                new LimitedPasswordHashVerifier(BKDF.createPasswordHashVerifier(), new AdaptiveConcurrencyLimiter()), 16, 1, TimeUnit.MINUTES);
+        String hash = BKDF.createPasswordHasher().hash("secret".toCharArray(), 4);
+        assertTrue(verifier.verify("secret".toCharArray(), hash, workspace));
+        assertTrue(verifier.verify("secret".toCharArray(), hash, workspace));
+        assertFalse(verifier.verify("wrong".toCharArray(), hash, workspace));
+    }
+
+    @Test
+    public void testThreadLocal() throws Exception {
+        final BkdfWorkspace[] other = new BkdfWorkspace[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = BkdfWorkspace.threadLocal();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertSame(BkdfWorkspace.threadLocal(), BkdfWorkspace.threadLocal());
+        assertNotNull(other[0]);
+        assertNotSame(BkdfWorkspace.threadLocal(), other[0]);
+    }
+
+    private void assertWiped() {
+        byte[][] buffers = {workspace.passwordBytes, workspace.extracted, workspace.salt, workspace.hash, workspace.message};
+        for (byte[] buffer : buffers) {
+            assertArrayEquals(new byte[buffer.length], buffer);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class BulkHashUpgraderTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PasswordHashUpgrader upgrader;
+    private List<BulkHashUpgrader.Record> records;
+
+    @Before
+    public void setup() {
+        upgrader = BKDF.createPasswordHashUpgrader();
+        PasswordHasher hasher = BKDF.createPasswordHasher();
+        records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(new BulkHashUpgrader.Record("id" + i, hasher.hash(PASSWORD, i == 7 ? 7 : 4)));
+        }
+        records.add(new BulkHashUpgrader.Record("compound", upgrader.upgradePasswordHashTo(5, hasher.hash(PASSWORD, 4)).getAsEncodedMessageFormat()));
+        records.add(new BulkHashUpgrader.Record("broken", "AAAA"));
+    }
+
+    @Test
+    public void testUpgradeAll() throws Exception {
+        MemoryCheckpointStore checkpointStore = new MemoryCheckpointStore(0);
+        CollectingSink sink = new CollectingSink();
+
+        BulkHashUpgrader.Stats stats = new BulkHashUpgrader(upgrader, 6, 3, 2, 5, checkpointStore).upgrade(records, sink);
+
+        assertEquals(0, stats.resumed);
+        assertEquals(20, stats.upgraded);
+        assertEquals(1, stats.skipped);
+        assertEquals(1, stats.failed);
+        assertEquals(records.size(), checkpointStore.value);
+        assertTrue(sink.failed.containsKey("broken"));
+        assertFalse(sink.upgraded.containsKey("id7"));
+
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        for (Map.Entry<String, String> entry : sink.upgraded.entrySet()) {
+            assertTrue(verifier.verify(PASSWORD, entry.getValue()));
+            assertTrue(new BulkHashUpgrader(upgrader, 6, checkpointStore).isAtOrAboveTarget(new HashMessageInspector(), entry.getValue()));
+        }
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        File file = temporaryFolder.newFile("checkpoint");
+        BulkHashUpgrader.FileCheckpointStore checkpointStore = new BulkHashUpgrader.FileCheckpointStore(file);
+        checkpointStore.save(15);
+        CollectingSink sink = new CollectingSink();
+
+        BulkHashUpgrader.Stats stats = new BulkHashUpgrader(upgrader, 6, checkpointStore).upgrade(records, sink);
+
+        assertEquals(15, stats.resumed);
+        assertEquals(6, stats.upgraded);
+        assertEquals(1, stats.failed);
+        assertFalse(sink.upgraded.containsKey("id14"));
+        assertTrue(sink.upgraded.containsKey("id15"));
+        assertEquals(records.size(), checkpointStore.load());
+    }
+
+    @Test(timeout = 60_000)
+    public void testFailingIteratorStopsWorkers() throws Exception {
+        final Iterator<BulkHashUpgrader.Record> delegate = records.iterator();
+        Iterator<BulkHashUpgrader.Record> failing = new Iterator<BulkHashUpgrader.Record>() {
+            private int count;
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public BulkHashUpgrader.Record next() {
+                if (count++ == 5) {
+                    throw new IllegalStateException("cursor closed");
+                }
+                return delegate.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        MemoryCheckpointStore checkpointStore = new MemoryCheckpointStore(0);
+        CollectingSink sink = new CollectingSink();
+
+        try {
+            new BulkHashUpgrader(upgrader, 6, 2, 2, 1, checkpointStore).upgrade(failing, sink);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("cursor closed", e.getMessage());
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName(), thread.getName().startsWith("bkdf-bulk-upgrade-") && thread.isAlive());
+        }
+        assertTrue(checkpointStore.value <= 5);
+        assertEquals(checkpointStore.value, sink.upgraded.size());
+    }
+
+    @Test
+    public void testFileCheckpointStoreWithoutFile() throws Exception {
+        assertEquals(0, new BulkHashUpgrader.FileCheckpointStore(new File(temporaryFolder.getRoot(), "missing")).load());
+    }
+
+    @Test
+    public void testSinkFailureAbortsRun() throws Exception {
+        MemoryCheckpointStore checkpointStore = new MemoryCheckpointStore(0);
+        CollectingSink sink = new CollectingSink() {
+            @Override
+            public void upgraded(String id, String bkdfPasswordHashFormat2) throws Exception {
+                if (id.equals("id3")) {
+                    throw new IllegalStateException("db down");
+                }
+                super.upgraded(id, bkdfPasswordHashFormat2);
+            }
+        };
+
+        try {
+            new BulkHashUpgrader(upgrader, 6, 1, 1, 1, checkpointStore).upgrade(records, sink);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("db down", e.getCause().getMessage());
+        }
+        assertEquals(3, checkpointStore.value);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCostFactor() {
+        new BulkHashUpgrader(upgrader, 32, new MemoryCheckpointStore(0));
+    }
+
+    private static class CollectingSink implements BulkHashUpgrader.Sink {
+        final Map<String, String> upgraded = new ConcurrentHashMap<>();
+        final Map<String, Exception> failed = new ConcurrentHashMap<>();
+
+        @Override
+        public void upgraded(String id, String bkdfPasswordHashFormat2) throws Exception {
+            upgraded.put(id, bkdfPasswordHashFormat2);
+        }
+
+        @Override
+        public void failed(String id, Exception cause) {
+            failed.put(id, cause);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    private static final class MemoryCheckpointStore implements BulkHashUpgrader.CheckpointStore {
+        volatile long value;
+
+        MemoryCheckpointStore(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public long load() {
+            return value;
+        }
+
+        @Override
+        public void save(long completedRecords) {
+            value = completedRecords;
+        }
+    }
+}
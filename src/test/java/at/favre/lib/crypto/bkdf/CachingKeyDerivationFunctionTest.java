@@ -0,0 +1,219 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachingKeyDerivationFunctionTest {
+    private static final byte[] INFO = Bytes.from("aes-key").array();
+
+    private RecordingKdf delegate;
+    private ManualTicker ticker;
+    private CachingKeyDerivationFunction kdf;
+
+    @Before
+    public void setup() {
+        delegate = new RecordingKdf(new KeyDerivationFunction.Default(Version.HKDF_HMAC512));
+        ticker = new ManualTicker();
+        kdf = new CachingKeyDerivationFunction(delegate, 2, TimeUnit.SECONDS.toNanos(10), ticker, new SecureRandom());
+    }
+
+    @Test
+    public void testSameResultAsUncached() {
+        KeyDerivationFunction reference = new KeyDerivationFunction.Default(Version.HKDF_HMAC512);
+        char[] pw = "secret1234 !_".toCharArray();
+        byte[] salt = Bytes.random(16).array();
+
+        byte[] expected = reference.derive(salt, pw, 4, INFO, 32);
+        assertArrayEquals(expected, kdf.derive(salt, pw, 4, INFO, 32));
+        assertArrayEquals(expected, kdf.derive(salt, pw, 4, INFO, 32));
+
+        List<KeyDerivationFunction.KdfConfig> configList = Arrays.asList(
+                new KeyDerivationFunction.KdfConfig(INFO, 32),
+                new KeyDerivationFunction.KdfConfig(Bytes.from("mac-key").array(), 16));
+        List<byte[]> expectedList = reference.deriveMulti(salt, Bytes.from(pw).array(), 4, configList);
+        List<byte[]> actualList = kdf.deriveMulti(salt, Bytes.from(pw).array(), 4, configList);
+        for (int i = 0; i < expectedList.size(); i++) {
+            assertArrayEquals(expectedList.get(i), actualList.get(i));
+        }
+        assertEquals(1, delegate.stretched.size());
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        byte[] salt = Bytes.random(16).array();
+        byte[] otherSalt = Bytes.random(16).array();
+
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw2".toCharArray(), 4, INFO, 16);
+        kdf.derive(otherSalt, "pw1".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw1".toCharArray(), 5, INFO, 16);
+
+        CachingKeyDerivationFunction.Stats stats = kdf.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(4, stats.misses);
+        assertEquals(4, delegate.stretched.size());
+    }
+
+    @Test
+    public void testLruEvictionWipesKey() {
+        byte[] salt = Bytes.random(16).array();
+
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw2".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw3".toCharArray(), 4, INFO, 16);
+
+        assertEquals(2, kdf.size());
+        assertEquals(1, kdf.getStats().evictions);
+        assertFalse(delegate.stretched.get(0).isDestroyed());
+        assertTrue(delegate.stretched.get(1).isDestroyed());
+        assertFalse(delegate.stretched.get(2).isDestroyed());
+
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        assertEquals(3, delegate.stretched.size());
+    }
+
+    @Test
+    public void testTtlExpiry() {
+        byte[] salt = Bytes.random(16).array();
+        byte[] first = kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(9);
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        assertEquals(1, delegate.stretched.size());
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        assertArrayEquals(first, kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16));
+        assertEquals(2, delegate.stretched.size());
+        assertTrue(delegate.stretched.get(0).isDestroyed());
+        assertEquals(1, kdf.getStats().evictions);
+    }
+
+    @Test
+    public void testCleanUp() {
+        byte[] salt = Bytes.random(16).array();
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        ticker.nanos += TimeUnit.SECONDS.toNanos(5);
+        kdf.derive(salt, "pw2".toCharArray(), 4, INFO, 16);
+        ticker.nanos += TimeUnit.SECONDS.toNanos(5);
+
+        kdf.cleanUp();
+        assertEquals(1, kdf.size());
+        assertTrue(delegate.stretched.get(0).isDestroyed());
+        assertFalse(delegate.stretched.get(1).isDestroyed());
+    }
+
+    @Test
+    public void testStretchReturnsIndependentCopy() {
+        byte[] salt = Bytes.random(16).array();
+        byte[] ikm = Bytes.from("pw1").array();
+
+        StretchedKey stretchedKey = kdf.stretch(salt, ikm, 4);
+        byte[] expected = stretchedKey.expand(INFO, 16);
+        stretchedKey.destroy();
+
+        try (StretchedKey second = kdf.stretch(salt, ikm, 4)) {
+            assertArrayEquals(expected, second.expand(INFO, 16));
+        }
+        assertEquals(1, kdf.getStats().hits);
+        assertFalse(delegate.stretched.get(0).isDestroyed());
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        byte[] salt = Bytes.random(16).array();
+        kdf.derive(salt, "pw1".toCharArray(), 4, INFO, 16);
+        kdf.derive(salt, "pw2".toCharArray(), 4, INFO, 16);
+
+        kdf.invalidateAll();
+        assertEquals(0, kdf.size());
+        assertEquals(0, kdf.getStats().evictions);
+        for (StretchedKey stretchedKey : delegate.stretched) {
+            assertTrue(stretchedKey.isDestroyed());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxEntries() {
+        new CachingKeyDerivationFunction(delegate, 0, 1, TimeUnit.SECONDS);
+    }
+
+    private static final class ManualTicker implements Ticker {
+        private long nanos;
+
+        @Override
+        public long nanos() {
+            return nanos;
+        }
+    }
+
+    private static final class RecordingKdf implements KeyDerivationFunction {
+        private final KeyDerivationFunction delegate;
+        private final List<StretchedKey> stretched = new ArrayList<>();
+
+        RecordingKdf(KeyDerivationFunction delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte) {
+            return delegate.derive(salt, password, costFactor, infoParam, outLengthByte);
+        }
+
+        @Override
+        public byte[] derive(byte[] salt, char[] password, int costFactor, byte[] infoParam, int outLengthByte, BkdfWorkspace workspace) {
+            return delegate.derive(salt, password, costFactor, infoParam, outLengthByte, workspace);
+        }
+
+        @Override
+        public byte[] derive(byte[] salt, byte[] ikm, int costFactor, byte[] infoParam, int outLengthByte) {
+            return delegate.derive(salt, ikm, costFactor, infoParam, outLengthByte);
+        }
+
+        @Override
+        public List<byte[]> deriveMulti(byte[] salt, byte[] ikm, int costFactor, List<KdfConfig> configList) {
+            return delegate.deriveMulti(salt, ikm, costFactor, configList);
+        }
+
+        @Override
+        public StretchedKey stretch(byte[] salt, char[] password, int costFactor) {
+            return record(delegate.stretch(salt, password, costFactor));
+        }
+
+        @Override
+        public StretchedKey stretch(byte[] salt, byte[] ikm, int costFactor) {
+            return record(delegate.stretch(salt, ikm, costFactor));
+        }
+
+        private synchronized StretchedKey record(StretchedKey stretchedKey) {
+            stretched.add(stretchedKey);
+            return stretchedKey;
+        }
+
+        @Override
+        public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs) {
+            return delegate.deriveAll(inputs);
+        }
+
+        @Override
+        public List<BatchResult<byte[]>> deriveAll(List<KdfInput> inputs, ExecutorService executor) {
+            return delegate.deriveAll(inputs, executor);
+        }
+
+        @Override
+        public Version getHashVersion() {
+            return delegate.getHashVersion();
+        }
+    }
+}
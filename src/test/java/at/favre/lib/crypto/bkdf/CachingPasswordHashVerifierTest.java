@@ -0,0 +1,157 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.crypto.bkdf.util.CountingVerifier;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachingPasswordHashVerifierTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    private CountingVerifier delegate;
+    private ManualTicker ticker;
+    private CachingPasswordHashVerifier verifier;
+    private String hash;
+
+    @Before
+    public void setup() {
+        delegate = new CountingVerifier(BKDF.createPasswordHashVerifier(new HashPolicy(Version.HKDF_HMAC512, 4)));
+        ticker = new ManualTicker();
+        verifier = new CachingPasswordHashVerifier(delegate, 4, 2, TimeUnit.SECONDS.toNanos(10), ticker, new SecureRandom());
+        hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 4);
+    }
+
+    @Test
+    public void testCachesPositiveResult() {
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertTrue(verifier.verify(PASSWORD, HashData.parse(hash)));
+        assertEquals(1, delegate.calls.get());
+        assertEquals(2, verifier.getStats().hits);
+        assertEquals(1, verifier.getStats().misses);
+    }
+
+    @Test
+    public void testCacheSharedBetweenPasswordTypes() {
+        BkdfWorkspace workspace = new BkdfWorkspace();
+        ByteBuffer utf8Password = ByteBuffer.allocateDirect(6).put("secret".getBytes(StandardCharsets.UTF_8));
+        utf8Password.flip();
+        ByteBuffer storedHash = ByteBuffer.wrap(hash.getBytes(StandardCharsets.US_ASCII));
+        assertTrue(verifier.verify(CharBuffer.wrap(PASSWORD), hash, workspace));
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertTrue(verifier.verify(utf8Password, storedHash, workspace));
+        assertFalse(verifier.verify("wrong", hash, workspace));
+        assertEquals(2, delegate.calls.get());
+        assertEquals(2, verifier.getStats().hits);
+    }
+
+    @Test
+    public void testNeverCachesNegativeResult() {
+        assertFalse(verifier.verify("wrong".toCharArray(), hash));
+        assertFalse(verifier.verify("wrong".toCharArray(), hash));
+        assertEquals(2, delegate.calls.get());
+        assertEquals(0, verifier.size());
+    }
+
+    @Test
+    public void testWrongPasswordAfterCachedSuccess() {
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertFalse(verifier.verify("wrong".toCharArray(), hash));
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testChangedStoredHashMisses() {
+        assertTrue(verifier.verify(PASSWORD, hash));
+        String newHash = BKDF.createPasswordHasher().hash(PASSWORD, 4);
+        assertTrue(verifier.verify(PASSWORD, newHash));
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testTtl() {
+        assertTrue(verifier.verify(PASSWORD, hash));
+        ticker.nanos += TimeUnit.SECONDS.toNanos(9);
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertEquals(1, delegate.calls.get());
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertEquals(2, delegate.calls.get());
+        assertEquals(1, verifier.getStats().evictions);
+    }
+
+    @Test
+    public void testInvalidate() {
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertTrue(verifier.invalidate(hash));
+        assertFalse(verifier.invalidate(hash));
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertEquals(2, delegate.calls.get());
+
+        verifier.invalidateAll();
+        assertEquals(0, verifier.size());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        PasswordHasher hasher = BKDF.createPasswordHasher();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(verifier.verify(PASSWORD, hasher.hash(PASSWORD, 4)));
+        }
+        assertTrue(verifier.size() <= 4);
+        assertEquals(10 - verifier.size(), verifier.getStats().evictions);
+    }
+
+    @Test
+    public void testVerifyAndRehash() {
+        PasswordHashVerifier.VerificationResult result = verifier.verifyAndRehash(PASSWORD, hash);
+        assertTrue(result.verified);
+        assertFalse(result.isRehashed());
+        assertFalse(verifier.verifyAndRehash(PASSWORD, hash).isRehashed());
+        assertEquals(1, delegate.calls.get());
+
+        HashPolicy stronger = new HashPolicy(Version.HKDF_HMAC512, 5);
+        result = verifier.verifyAndRehash(PASSWORD, hash, stronger);
+        assertTrue(result.verified);
+        assertTrue(result.isRehashed());
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testVerifyAndRehashDoesNotTrustPlainVerify() {
+        String weakHash = BKDF.createPasswordHasher(Version.HKDF_HMAC512_BCRYPT_24_BYTE).hash(PASSWORD, 4);
+        assertTrue(verifier.verify(PASSWORD, weakHash));
+        assertTrue(verifier.verifyAndRehash(PASSWORD, weakHash).isRehashed());
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testVerifyAll() {
+        List<BatchResult<Boolean>> results = verifier.verifyAll(Arrays.asList(
+                new PasswordHashVerifier.Credential(PASSWORD, hash),
+                new PasswordHashVerifier.Credential(PASSWORD, hash),
+                new PasswordHashVerifier.Credential("wrong".toCharArray(), hash)));
+        assertTrue(results.get(0).get());
+        assertTrue(results.get(1).get());
+        assertFalse(results.get(2).get());
+    }
+
+    private static final class ManualTicker implements Ticker {
+        private long nanos;
+
+        @Override
+        public long nanos() {
+            return nanos;
+        }
+    }
+}
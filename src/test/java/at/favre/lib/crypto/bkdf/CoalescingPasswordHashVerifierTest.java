@@ -0,0 +1,118 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.crypto.bkdf.util.CountingVerifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CoalescingPasswordHashVerifierTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+    private static final int THREADS = 8;
+
+    private CountDownLatch gate;
+    private CountingVerifier delegate;
+    private CoalescingPasswordHashVerifier verifier;
+    private ExecutorService executor;
+    private String hash;
+
+    @Before
+    public void setup() {
+        gate = new CountDownLatch(1);
+        delegate = new CountingVerifier(BKDF.createPasswordHashVerifier(), gate);
+        verifier = new CoalescingPasswordHashVerifier(delegate);
+        executor = Executors.newFixedThreadPool(THREADS);
+        hash = BKDF.createPasswordHasher().hash(PASSWORD, 4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentIdenticalVerificationsShareComputation() throws Exception {
+        List<Future<Boolean>> futures = submit(PASSWORD, hash, THREADS);
+        awaitCoalesced(THREADS - 1);
+        gate.countDown();
+
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        assertEquals(1, delegate.calls.get());
+        assertEquals(1, verifier.getStats().computations);
+        assertEquals(0, verifier.inFlightCount());
+    }
+
+    @Test
+    public void testDifferentPasswordsAreNotCoalesced() throws Exception {
+        gate.countDown();
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertFalse(verifier.verify("wrong".toCharArray(), hash));
+        assertTrue(verifier.verify(PASSWORD, HashData.parse(hash)));
+        assertEquals(3, delegate.calls.get());
+        assertEquals(0, verifier.getStats().coalesced);
+    }
+
+    @Test
+    public void testNoCachingAfterCompletion() {
+        gate.countDown();
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertEquals(2, delegate.calls.get());
+        assertEquals(0, verifier.inFlightCount());
+    }
+
+    @Test
+    public void testExceptionIsSharedAndEntryRemoved() throws Exception {
+        List<Future<Boolean>> futures = submit(PASSWORD, "AQQ=", THREADS);
+        awaitCoalesced(THREADS - 1);
+        gate.countDown();
+
+        Throwable first = null;
+        for (Future<Boolean> future : futures) {
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                if (first == null) {
+                    first = e.getCause();
+                }
+                assertSame(first, e.getCause());
+            }
+        }
+        assertEquals(1, delegate.calls.get());
+        assertEquals(0, verifier.inFlightCount());
+    }
+
+    private List<Future<Boolean>> submit(final char[] password, final String storedHash, int count) {
+        List<Future<Boolean>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verifier.verify(password, storedHash);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private void awaitCoalesced(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (verifier.getStats().coalesced < expected) {
+            assertTrue("timeout waiting for coalesced calls", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
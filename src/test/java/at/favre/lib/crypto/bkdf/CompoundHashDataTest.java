@@ -4,6 +4,7 @@ import at.favre.lib.bytes.Bytes;
 import at.favre.lib.crypto.bkdf.util.TestCaseCompoundHashData;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 
@@ -112,4 +113,21 @@ public class CompoundHashDataTest {
             assertArrayEquals(testDatum.hashData.getAsBlobMessageFormat(), Bytes.parseBase64(testDatum.base64Encoded).array());
         }
     }
+
+    @Test
+    public void testWriteTo() {
+        CompoundHashData data = new CompoundHashData(Arrays.asList(new CompoundHashData.Config(Version.HKDF_HMAC512, (byte) 4), new CompoundHashData.Config(Version.HKDF_HMAC512_BCRYPT_24_BYTE, (byte) 6)), Bytes.random(16).array(), Bytes.random(Version.MAX_BCRYPT_HASH_LENGTH_BYTE).array());
+        byte[] blob = data.getAsBlobMessageFormat();
+        assertEquals(blob.length, data.encodedLength());
+
+        byte[] out = new byte[blob.length + 4];
+        assertEquals(2 + blob.length, data.writeTo(out, 2));
+        assertArrayEquals(blob, Bytes.wrap(out).copy(2, blob.length).array());
+
+        ByteBuffer buffer = ByteBuffer.allocate(blob.length + 1);
+        buffer.put((byte) 0);
+        data.writeTo(buffer);
+        assertEquals(blob.length + 1, buffer.position());
+        assertArrayEquals(blob, Bytes.wrap(buffer.array()).copy(1, blob.length).array());
+    }
 }
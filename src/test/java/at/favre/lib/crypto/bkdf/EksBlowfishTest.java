@@ -0,0 +1,100 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+import at.favre.lib.crypto.bkdf.testdata.PasswordHashTestData;
+import at.favre.lib.crypto.bkdf.util.TestCaseHasher;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EksBlowfishTest {
+
+    @Test
+    public void testSameAsBcryptLibrary() {
+        Random random = new Random(8731);
+        for (int keyLength = 0; keyLength <= EksBlowfish.MAX_KEY_LENGTH_BYTE; keyLength++) {
+            byte[] key = new byte[keyLength];
+            byte[] salt = new byte[16];
+            random.nextBytes(key);
+            random.nextBytes(salt);
+            int cost = 4 + (keyLength % 3);
+            boolean only23 = keyLength % 2 == 0;
+
+            byte[] expected = BCrypt.with(new BCrypt.Version(new byte[]{0x32, 0x61}, only23, true,
+                    BCrypt.Version.DEFAULT_MAX_PW_LENGTH_BYTE, null, null)).hashRaw(cost, salt, key).rawHash;
+            byte[] actual = EksBlowfish.hashRaw(cost, salt, key, only23 ? 23 : 24);
+
+            assertArrayEquals("key length " + keyLength, expected, actual);
+        }
+    }
+
+    @Test
+    public void testInterleavedSameAsSingleLane() {
+        Random random = new Random(1337);
+        for (int count = 1; count <= 5; count++) {
+            byte[][] salts = new byte[count][16];
+            byte[][] keys = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                keys[i] = new byte[64 - i * 7];
+                random.nextBytes(salts[i]);
+                random.nextBytes(keys[i]);
+            }
+
+            byte[][] hashes = EksBlowfish.hashRawInterleaved(5, salts, keys, 24);
+            assertEquals(count, hashes.length);
+            for (int i = 0; i < count; i++) {
+                assertArrayEquals(EksBlowfish.hashRaw(5, salts[i], keys[i], 24), hashes[i]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInterleavedSaltCountMismatch() {
+        EksBlowfish.hashRawInterleaved(4, new byte[][]{new byte[16]}, new byte[][]{new byte[64], new byte[64]}, 23);
+    }
+
+    @Test
+    public void testReferenceTestData() {
+        testReferenceTestData(PasswordHashTestData.TEST_DATA_V1);
+        testReferenceTestData(PasswordHashTestData.TEST_DATA_V2);
+    }
+
+    private void testReferenceTestData(TestCaseHasher[] testCases) {
+        for (TestCaseHasher testCase : testCases) {
+            HashData hashData = HashData.parse(testCase.hash);
+            if (hashData.cost > 8) {
+                continue;
+            }
+            byte[] extractedPw = hashData.version.getHkdf().extract((byte[]) null,
+                    new String(testCase.password).getBytes(StandardCharsets.UTF_8));
+            byte[] hash = EksBlowfish.hashRaw(hashData.cost, hashData.rawSalt, extractedPw,
+                    hashData.version.getHashByteLength());
+            assertEquals(hashData.version.getHashByteLength(), hash.length);
+            assertArrayEquals(hashData.rawHash, hash);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCost() {
+        EksBlowfish.hashRaw(3, new byte[16], new byte[64], 23);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSalt() {
+        EksBlowfish.hashRaw(4, new byte[15], new byte[64], 23);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLongKey() {
+        EksBlowfish.hashRaw(4, new byte[16], new byte[EksBlowfish.MAX_KEY_LENGTH_BYTE + 1], 23);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidHashLength() {
+        EksBlowfish.hashRaw(4, new byte[16], new byte[64], 16);
+    }
+}
@@ -0,0 +1,86 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.hkdf.HKDF;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EngineRegistryTest {
+
+    @Test
+    public void testForCode() {
+        for (Version version : Version.VERSIONS) {
+            EngineRegistry.Engine engine = EngineRegistry.forCode(version.getVersionCode());
+            assertSame(version, engine.version);
+            assertSame(version.getHkdf(), engine.hkdf);
+            assertNotNull(engine.bcrypt);
+        }
+    }
+
+    @Test
+    public void testEksBlowfishSameAsBcryptLibrary() {
+        byte[] salt = new byte[16];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (byte) (i * 31);
+        }
+        for (Version version : Version.VERSIONS) {
+            EngineRegistry.Engine library = new EngineRegistry.Engine(version, false);
+            EngineRegistry.Engine eksBlowfish = new EngineRegistry.Engine(version, true);
+            for (int cost = 4; cost < 7; cost++) {
+                assertArrayEquals(library.hashPassword(BkdfListener.Operation.HASH, "secret".toCharArray(), salt, cost),
+                        eksBlowfish.hashPassword(BkdfListener.Operation.HASH, "secret".toCharArray(), salt, cost));
+            }
+        }
+    }
+
+    @Test
+    public void testWorkspaceHashSameWithBothEngines() {
+        byte[] salt = new byte[16];
+        byte[] pwBytes = "secret".getBytes(StandardCharsets.UTF_8);
+        BkdfWorkspace workspace = new BkdfWorkspace();
+        for (Version version : Version.VERSIONS) {
+            byte[] expected = new EngineRegistry.Engine(version, false).hash(BkdfListener.Operation.HASH, pwBytes, salt, 5);
+            for (boolean useEksBlowfish : new boolean[]{false, true}) {
+                byte[] out = new byte[expected.length + 1];
+                new EngineRegistry.Engine(version, useEksBlowfish).hash(BkdfListener.Operation.HASH, pwBytes, pwBytes.length,
+                        salt, 5, workspace, out, 1);
+                assertArrayEquals(expected, Arrays.copyOfRange(out, 1, out.length));
+                workspace.wipe();
+            }
+        }
+    }
+
+    @Test(expected = Version.UnsupportedBkdfVersionException.class)
+    public void testForUnknownCode() {
+        EngineRegistry.forCode((byte) 0xFF);
+    }
+
+    @Test
+    public void testForVersionIsCached() {
+        assertSame(EngineRegistry.forVersion(Version.HKDF_HMAC512), EngineRegistry.forVersion(Version.HKDF_HMAC512));
+        assertSame(EngineRegistry.forCode((byte) 0x02), EngineRegistry.forVersion(Version.HKDF_HMAC512_BCRYPT_24_BYTE));
+    }
+
+    @Test
+    public void testForCustomVersion() {
+        Version custom = new Version.Default(HKDF.fromHmacSha256(), 23, (byte) 0x01);
+        EngineRegistry.Engine engine = EngineRegistry.forVersion(custom);
+        assertSame(custom, engine.version);
+        assertNotSame(EngineRegistry.forCode((byte) 0x01), engine);
+        assertEquals(23, engine.hash(BkdfListener.Operation.HASH, new byte[16], new byte[16], 4).length);
+    }
+
+    @Test
+    public void testHashLength() {
+        assertEquals(Version.MIN_BCRYPT_HASH_LENGTH_BYTE, EngineRegistry.forVersion(Version.HKDF_HMAC512).hashPassword(BkdfListener.Operation.HASH, "secret".toCharArray(), new byte[16], 4).length);
+        assertEquals(Version.MAX_BCRYPT_HASH_LENGTH_BYTE, EngineRegistry.forVersion(Version.HKDF_HMAC512_BCRYPT_24_BYTE).hashPassword(BkdfListener.Operation.HASH, "secret".toCharArray(), new byte[16], 4).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHashPasswordInvalidSalt() {
+        EngineRegistry.forVersion(Version.HKDF_HMAC512).hashPassword(BkdfListener.Operation.HASH, "secret".toCharArray(), new byte[15], 4);
+    }
+}
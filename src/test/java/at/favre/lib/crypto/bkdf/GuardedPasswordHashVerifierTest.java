@@ -0,0 +1,166 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.crypto.bkdf.util.CountingVerifier;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GuardedPasswordHashVerifierTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+    private static final char[] WRONG = "wrong".toCharArray();
+    private static final long INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private CountingVerifier delegate;
+    private ManualTicker ticker;
+    private GuardedPasswordHashVerifier verifier;
+    private String hash;
+
+    @Before
+    public void setup() {
+        delegate = new CountingVerifier(BKDF.createPasswordHashVerifier(new HashPolicy(Version.HKDF_HMAC512, 4)));
+        ticker = new ManualTicker();
+        verifier = new GuardedPasswordHashVerifier(delegate, 3, INTERVAL, ticker);
+        hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 4);
+    }
+
+    @Test
+    public void testRejectsAfterMaxFailures() {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(verifier.verify(WRONG, hash));
+        }
+        assertTrue(verifier.isBlocked(hash));
+
+        try {
+            verifier.verify(PASSWORD, hash);
+            fail();
+        } catch (GuardedPasswordHashVerifier.TooManyFailuresException e) {
+            assertEquals(1, e.getRetryAfter(TimeUnit.MINUTES));
+        }
+        assertEquals(3, delegate.calls.get());
+
+        GuardedPasswordHashVerifier.Stats stats = verifier.getStats();
+        assertEquals(1, stats.rejected);
+        assertEquals(1L << 4, stats.savedIterations);
+        assertEquals(1, stats.trackedKeys);
+    }
+
+    @Test
+    public void testFailuresDecay() {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(verifier.verify(WRONG, hash));
+        }
+        ticker.nanos += INTERVAL;
+        assertFalse(verifier.isBlocked(hash));
+        assertFalse(verifier.verify(WRONG, hash));
+        assertTrue(verifier.isBlocked(hash));
+
+        ticker.nanos += 3 * INTERVAL;
+        verifier.cleanUp();
+        assertEquals(0, verifier.getStats().trackedKeys);
+    }
+
+    @Test
+    public void testSuccessClearsFailures() {
+        assertFalse(verifier.verify(WRONG, hash));
+        assertFalse(verifier.verify(WRONG, hash));
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertFalse(verifier.verify(WRONG, hash));
+        assertFalse(verifier.verify(WRONG, hash));
+        assertFalse(verifier.isBlocked(hash));
+    }
+
+    @Test
+    public void testAccountKey() {
+        String otherHash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 4);
+        assertFalse(verifier.verify("user1", WRONG, hash));
+        assertFalse(verifier.verify("user1", WRONG, otherHash));
+        assertFalse(verifier.verifyAndRehash("user1", WRONG, hash, new HashPolicy(Version.HKDF_HMAC512, 4)).verified);
+        assertTrue(verifier.isBlocked("user1"));
+        assertFalse(verifier.isBlocked(hash));
+
+        verifier.reset("user1");
+        assertTrue(verifier.verify("user1", PASSWORD, hash));
+    }
+
+    @Test
+    public void testMalformedHashIsNotCounted() {
+        for (int i = 0; i < 5; i++) {
+            try {
+                verifier.verify(WRONG, "AQQ=");
+                fail();
+            } catch (RuntimeException e) {
+                assertFalse(e instanceof GuardedPasswordHashVerifier.TooManyFailuresException);
+            }
+        }
+        assertFalse(verifier.isBlocked("AQQ="));
+    }
+
+    @Test
+    public void testHashDataAndVerifyAndRehashShareKey() {
+        assertFalse(verifier.verify(WRONG, HashData.parse(hash)));
+        assertFalse(verifier.verifyAndRehash(WRONG, hash).verified);
+        assertFalse(verifier.verifyAndRehash(WRONG, hash, new HashPolicy(Version.HKDF_HMAC512, 4)).verified);
+        assertTrue(verifier.isBlocked(hash));
+    }
+
+    @Test
+    public void testConcurrentGuessesCannotExceedMaxFailures() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        CountingVerifier blockingDelegate = new CountingVerifier(BKDF.createPasswordHashVerifier(), gate);
+        final GuardedPasswordHashVerifier guard = new GuardedPasswordHashVerifier(blockingDelegate, 3, INTERVAL, ticker);
+        final AtomicInteger rejected = new AtomicInteger();
+        final int threads = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            assertFalse(guard.verify(WRONG, hash));
+                        } catch (GuardedPasswordHashVerifier.TooManyFailuresException e) {
+                            rejected.incrementAndGet();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            // all attempts are in flight (blocked in the delegate) or rejected before the first one completes
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (blockingDelegate.calls.get() + rejected.get() < threads && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            gate.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(3, blockingDelegate.calls.get());
+        assertEquals(threads - 3, rejected.get());
+        assertTrue(guard.isBlocked(hash));
+    }
+
+    private static final class ManualTicker implements Ticker {
+        private long nanos;
+
+        @Override
+        public long nanos() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HashChainCompactorTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    private HashChainCompactor compactor;
+    private PasswordHashVerifier verifier;
+
+    @Before
+    public void setup() {
+        verifier = BKDF.createPasswordHashVerifier();
+        compactor = new HashChainCompactor(verifier, StripedSaltSupplier.shared());
+    }
+
+    @Test
+    public void testCompactChain() {
+        String hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 4);
+        String chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(6, hash).getAsEncodedMessageFormat();
+        chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(Version.HKDF_HMAC512_BCRYPT_24_BYTE, 4, chain).getAsEncodedMessageFormat();
+
+        HashMessageInspector inspector = new HashMessageInspector();
+        inspector.inspect(chain);
+        long chainIterations = inspector.iterations();
+        assertEquals(4, inspector.configCount());
+
+        PasswordHashVerifier.VerificationResult result = compactor.verifyAndCompact(PASSWORD, chain);
+        assertTrue(result.verified);
+        assertTrue(result.isRehashed());
+        assertTrue(verifier.verify(PASSWORD, result.rehashedBkdfPasswordHashFormat2));
+
+        assertEquals(HashMessageInspector.Format.PLAIN, inspector.inspect(result.rehashedBkdfPasswordHashFormat2));
+        assertEquals(Version.HKDF_HMAC512_BCRYPT_24_BYTE.getVersionCode(), inspector.versionCode(0));
+        assertEquals(7, inspector.cost(0));
+        assertTrue(inspector.iterations() >= chainIterations);
+
+        HashChainCompactor.Stats stats = compactor.getStats();
+        assertEquals(1, stats.verified);
+        assertEquals(1, stats.compacted);
+        assertEquals(3, stats.removedLinks);
+    }
+
+    @Test(timeout = 60_000)
+    public void testDoNotCompactChainStrongerThanSingleHash() {
+        // bcrypt with cost 31 cannot run in a test, so the verifier only accepts the password
+        PasswordHashVerifier accepting = (PasswordHashVerifier) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PasswordHashVerifier.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return true;
+                    }
+                });
+        String chain = new CompoundHashData(Arrays.asList(new CompoundHashData.Config(Version.HKDF_HMAC512, (byte) 31),
+                new CompoundHashData.Config(Version.HKDF_HMAC512, (byte) 4)), new byte[16], new byte[23]).getAsEncodedMessageFormat();
+
+        PasswordHashVerifier.VerificationResult result = new HashChainCompactor(accepting, StripedSaltSupplier.shared())
+                .verifyAndCompact(PASSWORD, chain);
+        assertTrue(result.verified);
+        assertFalse(result.isRehashed());
+    }
+
+    @Test
+    public void testDoNotCompactPlainOrWrongPassword() {
+        String hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 4);
+        PasswordHashVerifier.VerificationResult result = compactor.verifyAndCompact(PASSWORD, hash);
+        assertTrue(result.verified);
+        assertFalse(result.isRehashed());
+
+        String chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(5, hash).getAsEncodedMessageFormat();
+        result = compactor.verifyAndCompact("wrong".toCharArray(), chain);
+        assertFalse(result.verified);
+        assertFalse(result.isRehashed());
+
+        assertEquals(1, compactor.getStats().verified);
+        assertEquals(0, compactor.getStats().compacted);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidHash() {
+        compactor.verifyAndCompact(PASSWORD, "invalid");
+    }
+
+    @Test
+    public void testCostFactorFor() {
+        assertEquals(4, HashChainCompactor.costFactorFor(0));
+        assertEquals(4, HashChainCompactor.costFactorFor(1));
+        assertEquals(4, HashChainCompactor.costFactorFor(16));
+        assertEquals(5, HashChainCompactor.costFactorFor(17));
+        assertEquals(11, HashChainCompactor.costFactorFor(2048));
+        assertEquals(12, HashChainCompactor.costFactorFor(2048 + 1024));
+        assertEquals(31, HashChainCompactor.costFactorFor(1L << 40));
+    }
+
+    @Test
+    public void testVerifyAndRehashKeepsChainStrength() {
+        String hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 6);
+        String chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(7, hash).getAsEncodedMessageFormat();
+
+        PasswordHashVerifier.VerificationResult result = verifier.verifyAndRehash(PASSWORD, chain,
+                new HashPolicy(Version.HKDF_HMAC512, 4, 1));
+        assertTrue(result.isRehashed());
+
+        HashMessageInspector inspector = new HashMessageInspector();
+        inspector.inspect(result.rehashedBkdfPasswordHashFormat2);
+        assertEquals(7, inspector.cost(0));
+    }
+}
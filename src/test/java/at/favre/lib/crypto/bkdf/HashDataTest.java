@@ -4,6 +4,8 @@ import at.favre.lib.bytes.Bytes;
 import at.favre.lib.crypto.bkdf.util.TestCaseHashData;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.Assert.*;
 
 public class HashDataTest {
@@ -170,4 +172,21 @@ public class HashDataTest {
             assertArrayEquals(testDatum.hashData.getAsBlobMessageFormat(), Bytes.parseBase64(testDatum.base64Encoded).array());
         }
     }
+
+    @Test
+    public void testWriteTo() {
+        HashData data = new HashData((byte) 4, Version.HKDF_HMAC512, Bytes.random(16).array(), Bytes.random(Version.MIN_BCRYPT_HASH_LENGTH_BYTE).array());
+        byte[] blob = data.getAsBlobMessageFormat();
+        assertEquals(blob.length, data.encodedLength());
+
+        byte[] out = new byte[blob.length + 4];
+        assertEquals(2 + blob.length, data.writeTo(out, 2));
+        assertArrayEquals(blob, Bytes.wrap(out).copy(2, blob.length).array());
+
+        ByteBuffer buffer = ByteBuffer.allocate(blob.length + 1);
+        buffer.put((byte) 0);
+        data.writeTo(buffer);
+        assertEquals(blob.length + 1, buffer.position());
+        assertArrayEquals(blob, Bytes.wrap(buffer.array()).copy(1, blob.length).array());
+    }
 }
@@ -0,0 +1,147 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HashMessageInspectorTest {
+    private HashData hashData;
+    private CompoundHashData compoundHashData;
+    private HashMessageInspector inspector;
+
+    @Before
+    public void setup() {
+        String hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash("secret".toCharArray(), 4);
+        hashData = HashData.parse(hash);
+        compoundHashData = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(Version.HKDF_HMAC512_BCRYPT_24_BYTE, 5, hash);
+        inspector = new HashMessageInspector();
+    }
+
+    @Test
+    public void testInspectPlain() {
+        assertEquals(HashMessageInspector.Format.PLAIN, inspector.inspect(hashData.getAsEncodedMessageFormat()));
+        assertPlain();
+        assertEquals(HashMessageInspector.Format.PLAIN, inspector.inspect(hashData.getAsBlobMessageFormat(), 0));
+        assertPlain();
+        assertFalse(HashMessageInspector.isCompound(hashData.getAsEncodedMessageFormat()));
+    }
+
+    private void assertPlain() {
+        assertEquals(HashMessageInspector.Format.PLAIN, inspector.format());
+        assertEquals(1, inspector.configCount());
+        assertEquals(Version.HKDF_HMAC512.getVersionCode(), inspector.versionCode(0));
+        assertEquals(4, inspector.cost(0));
+        assertEquals(16, inspector.iterations());
+        assertEquals(hashData.encodedLength(), inspector.encodedLength());
+    }
+
+    @Test
+    public void testInspectCompound() {
+        assertEquals(HashMessageInspector.Format.COMPOUND, inspector.inspect(compoundHashData.getAsEncodedMessageFormat()));
+        assertCompound();
+        assertEquals(HashMessageInspector.Format.COMPOUND, inspector.inspect(compoundHashData.getAsBlobMessageFormat(), 0));
+        assertCompound();
+        assertTrue(HashMessageInspector.isCompound(compoundHashData.getAsEncodedMessageFormat()));
+    }
+
+    private void assertCompound() {
+        assertEquals(2, inspector.configCount());
+        assertEquals(Version.HKDF_HMAC512.getVersionCode(), inspector.versionCode(0));
+        assertEquals(4, inspector.cost(0));
+        assertEquals(Version.HKDF_HMAC512_BCRYPT_24_BYTE.getVersionCode(), inspector.versionCode(1));
+        assertEquals(5, inspector.cost(1));
+        assertEquals(16 + 32, inspector.iterations());
+        assertEquals(compoundHashData.encodedLength(), inspector.encodedLength());
+    }
+
+    @Test
+    public void testInspectLongChain() {
+        List<CompoundHashData.Config> configs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            configs.add(new CompoundHashData.Config(Version.HKDF_HMAC512, (byte) (4 + i % 20)));
+        }
+        CompoundHashData longChain = new CompoundHashData(configs, Bytes.random(16).array(), Bytes.random(23).array());
+        String encoded = longChain.getAsEncodedMessageFormat();
+
+        assertTrue(HashMessageInspector.isCompound(encoded));
+        assertTrue(BKDF.createPasswordHashUpgrader().isCompoundHashMessage(encoded));
+        assertEquals(HashMessageInspector.Format.COMPOUND, inspector.inspect(encoded));
+        assertEquals(200, inspector.configCount());
+        assertEquals(4 + 199 % 20, inspector.cost(199));
+
+        // scratch buffer must be reused correctly for a shorter message afterwards
+        assertEquals(HashMessageInspector.Format.COMPOUND, inspector.inspect(compoundHashData.getAsEncodedMessageFormat()));
+        assertCompound();
+    }
+
+    @Test
+    public void testInspectConcatenatedBlobs() {
+        byte[] plain = hashData.getAsBlobMessageFormat();
+        byte[] compound = compoundHashData.getAsBlobMessageFormat();
+        byte[] buffer = Bytes.wrap(plain).append(compound).append(plain).array();
+        byte[] copy = buffer.clone();
+
+        int count = 0;
+        for (int offset = 0; offset < buffer.length; offset += inspector.encodedLength()) {
+            assertNotEquals(HashMessageInspector.Format.UNKNOWN, inspector.inspect(buffer, offset));
+            count++;
+        }
+        assertEquals(3, count);
+
+        inspector.inspect(hashData.getAsEncodedMessageFormat());
+        assertArrayEquals(copy, buffer);
+    }
+
+    @Test
+    public void testInspectUnknown() {
+        String plain = hashData.getAsEncodedMessageFormat();
+        String compound = compoundHashData.getAsEncodedMessageFormat();
+        byte[] blob = hashData.getAsBlobMessageFormat();
+
+        assertUnknown("");
+        assertUnknown("A");
+        assertUnknown("$$$$");
+        assertUnknown(plain.substring(0, 30));
+        assertUnknown(compound.substring(0, 45));
+        assertUnknown(Bytes.from((byte) 0x7A, (byte) 4).append(Bytes.random(39)).encodeBase64Url());
+        assertUnknown(Bytes.from(PasswordHashUpgrader.COMPOUND_FORMAT_VERSION, (byte) 0).append(Bytes.random(39)).encodeBase64Url());
+        assertUnknown(Bytes.from(PasswordHashUpgrader.COMPOUND_FORMAT_VERSION, (byte) 2, (byte) 1, (byte) 4, (byte) 0x7A, (byte) 4)
+                .append(Bytes.random(40)).encodeBase64Url());
+
+        assertEquals(HashMessageInspector.Format.UNKNOWN, inspector.inspect(new byte[0], 0));
+        assertEquals(HashMessageInspector.Format.UNKNOWN, inspector.inspect(blob, 1));
+        assertEquals(HashMessageInspector.Format.UNKNOWN, inspector.inspect(Arrays.copyOf(blob, blob.length - 1), 0));
+        assertEquals(HashMessageInspector.Format.UNKNOWN, inspector.inspect(blob, -1));
+    }
+
+    private void assertUnknown(String message) {
+        assertEquals(HashMessageInspector.Format.UNKNOWN, inspector.inspect(message));
+        assertEquals(HashMessageInspector.Format.UNKNOWN, inspector.format());
+    }
+
+    @Test
+    public void testLenientLikeParser() {
+        String standardAlphabet = Bytes.wrap(compoundHashData.getAsBlobMessageFormat()).encodeBase64();
+        assertEquals(HashMessageInspector.Format.COMPOUND, inspector.inspect(standardAlphabet));
+        assertTrue(HashMessageInspector.isCompound(standardAlphabet));
+        assertEquals(HashMessageInspector.Format.PLAIN, inspector.inspect(hashData.getAsEncodedMessageFormat().replace("=", "")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAccessAfterUnknown() {
+        inspector.inspect("invalid");
+        inspector.cost(0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testConfigIndexOutOfRange() {
+        inspector.inspect(hashData.getAsEncodedMessageFormat());
+        inspector.cost(1);
+    }
+}
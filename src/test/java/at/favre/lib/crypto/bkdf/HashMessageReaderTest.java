@@ -0,0 +1,110 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HashMessageReaderTest {
+    private HashData hashData;
+    private CompoundHashData compoundHashData;
+    private HashMessageReader reader;
+
+    @Before
+    public void setup() {
+        String hash = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash("secret".toCharArray(), 4);
+        hashData = HashData.parse(hash);
+        compoundHashData = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(Version.HKDF_HMAC512_BCRYPT_24_BYTE, 5, hash);
+        reader = new HashMessageReader();
+    }
+
+    @Test
+    public void testReadFormat1() {
+        reader.wrap(hashData.getAsBlobMessageFormat(), 0);
+        assertFalse(reader.isCompound());
+        assertEquals(1, reader.configCount());
+        assertEquals(Version.HKDF_HMAC512.getVersionCode(), reader.versionCode(0));
+        assertEquals(Version.HKDF_HMAC512, reader.version(0));
+        assertEquals(4, reader.cost(0));
+        assertEquals(Version.MIN_BCRYPT_HASH_LENGTH_BYTE, reader.hashLength());
+        assertEquals(hashData.encodedLength(), reader.encodedLength());
+        assertTrue(reader.hashEqualsConstantTime(hashData.rawHash));
+        assertFalse(reader.hashEqualsConstantTime(new byte[Version.MIN_BCRYPT_HASH_LENGTH_BYTE]));
+        assertFalse(reader.hashEqualsConstantTime(new byte[0]));
+        assertEquals(hashData, reader.toHashData());
+        assertEquals(CompoundHashData.from(hashData), reader.toCompoundHashData());
+    }
+
+    @Test
+    public void testReadCompound() {
+        reader.wrap(compoundHashData.getAsBlobMessageFormat(), 0);
+        assertTrue(reader.isCompound());
+        assertEquals(2, reader.configCount());
+        assertEquals(Version.HKDF_HMAC512, reader.version(0));
+        assertEquals(4, reader.cost(0));
+        assertEquals(Version.HKDF_HMAC512_BCRYPT_24_BYTE, reader.version(1));
+        assertEquals(5, reader.cost(1));
+        assertEquals(Version.MAX_BCRYPT_HASH_LENGTH_BYTE, reader.hashLength());
+        assertEquals(compoundHashData.encodedLength(), reader.encodedLength());
+
+        byte[] salt = new byte[16];
+        reader.copySaltTo(salt, 0);
+        assertArrayEquals(compoundHashData.rawSalt, salt);
+        assertEquals(compoundHashData, reader.toCompoundHashData());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompoundToHashData() {
+        reader.wrap(compoundHashData.getAsBlobMessageFormat(), 0).toHashData();
+    }
+
+    @Test
+    public void testScanConcatenatedDirectBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3 + hashData.encodedLength() + compoundHashData.encodedLength());
+        buffer.position(3);
+        hashData.writeTo(buffer);
+        compoundHashData.writeTo(buffer);
+        buffer.flip();
+
+        reader.wrap(buffer, 3);
+        assertFalse(reader.isCompound());
+        assertEquals(hashData, reader.toHashData());
+
+        reader.wrap(buffer, 3 + reader.encodedLength());
+        assertTrue(reader.isCompound());
+        assertEquals(compoundHashData, reader.toCompoundHashData());
+        assertEquals(buffer.limit(), 3 + hashData.encodedLength() + reader.encodedLength());
+    }
+
+    @Test
+    public void testHeapBufferSlice() {
+        byte[] blob = Bytes.from(new byte[5], compoundHashData.getAsBlobMessageFormat()).array();
+        ByteBuffer slice = ByteBuffer.wrap(blob, 5, blob.length - 5).slice();
+        assertEquals(compoundHashData, reader.wrap(slice, 0).toCompoundHashData());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        byte[] blob = hashData.getAsBlobMessageFormat();
+        reader.wrap(Arrays.copyOf(blob, blob.length - 1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompoundWithoutConfig() {
+        reader.wrap(new byte[]{PasswordHashUpgrader.COMPOUND_FORMAT_VERSION, 0}, 0);
+    }
+
+    @Test(expected = Version.UnsupportedBkdfVersionException.class)
+    public void testUnknownVersion() {
+        reader.wrap(new byte[]{0x7F, 4}, 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidConfigIndex() {
+        reader.wrap(hashData.getAsBlobMessageFormat(), 0).cost(1);
+    }
+}
@@ -0,0 +1,112 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HashPolicyTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    private String hash5;
+    private String compound6;
+
+    @Before
+    public void setup() {
+        hash5 = BKDF.createPasswordHasher(Version.HKDF_HMAC512).hash(PASSWORD, 5);
+        compound6 = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(6, hash5).getAsEncodedMessageFormat();
+    }
+
+    @Test
+    public void testNeedsRehash() {
+        assertFalse(new HashPolicy(Version.HKDF_HMAC512, 5).needsRehash(hash5));
+        assertFalse(new HashPolicy(Version.HKDF_HMAC512, 4).needsRehash(hash5));
+        assertTrue(new HashPolicy(Version.HKDF_HMAC512, 6).needsRehash(hash5));
+        assertTrue(new HashPolicy(Version.HKDF_HMAC512_BCRYPT_24_BYTE, 5).needsRehash(hash5));
+
+        assertFalse(new HashPolicy(Version.HKDF_HMAC512, 6).needsRehash(compound6));
+        assertTrue(new HashPolicy(Version.HKDF_HMAC512, 7).needsRehash(compound6));
+        assertTrue(new HashPolicy(Version.HKDF_HMAC512, 6, 1).needsRehash(compound6));
+        assertFalse(new HashPolicy(Version.HKDF_HMAC512, 6, 2).needsRehash(compound6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNeedsRehashInvalidMessage() {
+        new HashPolicy(Version.HKDF_HMAC512, 5).needsRehash("not a hash");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCost() {
+        new HashPolicy(Version.HKDF_HMAC512, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChainLength() {
+        new HashPolicy(Version.HKDF_HMAC512, 5, 0);
+    }
+
+    @Test
+    public void testVerifyAndRehash() {
+        HashPolicy policy = new HashPolicy(Version.HKDF_HMAC512_BCRYPT_24_BYTE, 6, 1);
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(policy);
+
+        PasswordHashVerifier.VerificationResult result = verifier.verifyAndRehash(PASSWORD, hash5);
+        assertTrue(result.verified);
+        assertTrue(result.isRehashed());
+        assertFalse(policy.needsRehash(result.rehashedBkdfPasswordHashFormat2));
+        assertTrue(verifier.verify(PASSWORD, result.rehashedBkdfPasswordHashFormat2));
+
+        result = verifier.verifyAndRehash(PASSWORD, result.rehashedBkdfPasswordHashFormat2);
+        assertTrue(result.verified);
+        assertFalse(result.isRehashed());
+
+        result = verifier.verifyAndRehash("wrong".toCharArray(), compound6);
+        assertFalse(result.verified);
+        assertFalse(result.isRehashed());
+
+        result = verifier.verifyAndRehash(PASSWORD, compound6);
+        assertTrue(result.verified);
+        assertTrue(result.isRehashed());
+    }
+
+    @Test
+    public void testVerifyAndRehashWithExplicitPolicy() {
+        PasswordHashVerifier.VerificationResult result = BKDF.createPasswordHashVerifier()
+                .verifyAndRehash(PASSWORD, hash5, new HashPolicy(Version.HKDF_HMAC512, 5));
+        assertTrue(result.verified);
+        assertNull(result.rehashedBkdfPasswordHashFormat2);
+    }
+
+    @Test
+    public void testVerifyAndRehashUsesSaltSupplier() {
+        final AtomicInteger salts = new AtomicInteger();
+        PasswordHashVerifier verifier = new PasswordHashVerifier.Default(BKDF.createPasswordHashUpgrader(),
+                new HashPolicy(Version.HKDF_HMAC512, 6), new SaltSupplier() {
+            @Override
+            public void nextSalt(byte[] salt) {
+                Arrays.fill(salt, (byte) salts.incrementAndGet());
+            }
+        });
+        String first = verifier.verifyAndRehash(PASSWORD, hash5).rehashedBkdfPasswordHashFormat2;
+        String second = verifier.verifyAndRehash(PASSWORD, hash5).rehashedBkdfPasswordHashFormat2;
+        assertEquals(2, salts.get());
+        assertArrayEquals(Bytes.allocate(16, (byte) 1).array(), HashData.parse(first).rawSalt);
+        assertArrayEquals(Bytes.allocate(16, (byte) 2).array(), HashData.parse(second).rawSalt);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVerifyAndRehashWithoutPolicy() {
+        BKDF.createPasswordHashVerifier().verifyAndRehash(PASSWORD, hash5);
+    }
+
+    @Test
+    public void testEqualsHashCode() {
+        assertEquals(new HashPolicy(Version.HKDF_HMAC512, 5), new HashPolicy(Version.HKDF_HMAC512, 5, HashPolicy.MAX_CHAIN_LENGTH));
+        assertEquals(new HashPolicy(Version.HKDF_HMAC512, 5).hashCode(), new HashPolicy(Version.HKDF_HMAC512, 5).hashCode());
+        assertNotEquals(new HashPolicy(Version.HKDF_HMAC512, 5), new HashPolicy(Version.HKDF_HMAC512, 6));
+    }
+}
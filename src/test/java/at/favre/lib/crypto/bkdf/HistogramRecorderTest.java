@@ -0,0 +1,110 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static at.favre.lib.crypto.bkdf.BkdfListener.Operation;
+import static at.favre.lib.crypto.bkdf.BkdfListener.Phase;
+import static org.junit.Assert.*;
+
+public class HistogramRecorderTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    private HistogramRecorder recorder;
+
+    @Before
+    public void setup() {
+        recorder = new HistogramRecorder();
+        BkdfInstrumentation.setListener(recorder);
+    }
+
+    @After
+    public void tearDown() {
+        BkdfInstrumentation.setListener(BkdfListener.NOOP);
+    }
+
+    @Test
+    public void testRecordHashAndVerify() {
+        String hash = BKDF.createPasswordHasher().hash(PASSWORD, 4);
+        assertTrue(BKDF.createPasswordHashVerifier().verify(PASSWORD, hash));
+
+        assertEquals(1, recorder.snapshot(Operation.HASH).count);
+        assertEquals(1, recorder.snapshot(Operation.HASH, Phase.HKDF_EXTRACT).count);
+        assertEquals(1, recorder.snapshot(Operation.HASH, Phase.BCRYPT).count);
+        assertEquals(1, recorder.snapshot(Operation.HASH, Phase.ENCODE).count);
+        assertEquals(0, recorder.snapshot(Operation.HASH, Phase.PARSE).count);
+
+        assertEquals(1, recorder.snapshot(Operation.VERIFY).count);
+        assertEquals(1, recorder.snapshot(Operation.VERIFY, Phase.PARSE).count);
+        assertEquals(1, recorder.snapshot(Operation.VERIFY, Phase.BCRYPT).count);
+        assertEquals(1, recorder.chainLengthCount(Operation.VERIFY, 1));
+
+        HistogramRecorder.Snapshot bcrypt = recorder.snapshot(Operation.VERIFY, Phase.BCRYPT);
+        assertTrue(bcrypt.totalNanos > 0);
+        assertTrue(bcrypt.percentileNanos(0.5) >= bcrypt.meanNanos());
+        assertTrue(recorder.snapshot(Operation.VERIFY).totalNanos >= bcrypt.totalNanos);
+    }
+
+    @Test
+    public void testRecordCompound() {
+        String hash = BKDF.createPasswordHasher().hash(PASSWORD, 4);
+        String compound = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(6, hash).getAsEncodedMessageFormat();
+        assertTrue(BKDF.createPasswordHashVerifier().verify(PASSWORD, compound));
+
+        assertEquals(1, recorder.snapshot(Operation.UPGRADE).count);
+        assertEquals(1, recorder.chainLengthCount(Operation.UPGRADE, 3));
+        assertEquals(2, recorder.snapshot(Operation.UPGRADE, Phase.DERIVE_SALT).count);
+
+        assertEquals(1, recorder.snapshot(Operation.VERIFY).count);
+        assertEquals(1, recorder.chainLengthCount(Operation.VERIFY, 3));
+        assertEquals(3, recorder.snapshot(Operation.VERIFY, Phase.BCRYPT).count);
+        assertEquals(2, recorder.snapshot(Operation.VERIFY, Phase.DERIVE_SALT).count);
+    }
+
+    @Test
+    public void testRecordDerive() {
+        BKDF.createKdf().deriveMulti(new byte[16], new byte[16], 4, Arrays.asList(
+                new KeyDerivationFunction.KdfConfig(null, 16), new KeyDerivationFunction.KdfConfig(null, 32)));
+
+        assertEquals(1, recorder.snapshot(Operation.DERIVE).count);
+        assertEquals(1, recorder.snapshot(Operation.DERIVE, Phase.BCRYPT).count);
+        assertEquals(2, recorder.snapshot(Operation.DERIVE, Phase.HKDF_EXPAND).count);
+
+        recorder.reset();
+        assertEquals(0, recorder.snapshot(Operation.DERIVE).count);
+        assertEquals(0, recorder.snapshot(Operation.DERIVE).percentileNanos(0.99));
+    }
+
+    @Test
+    public void testNoopDoesNotRecord() {
+        BkdfInstrumentation.setListener(BkdfListener.NOOP);
+        BKDF.createPasswordHasher().hash(PASSWORD, 4);
+        assertEquals(0, recorder.snapshot(Operation.HASH).count);
+        assertSame(BkdfListener.NOOP, BkdfInstrumentation.getListener());
+    }
+
+    @Test
+    public void testBucketsAndPercentiles() {
+        assertEquals(0, HistogramRecorder.bucket(0));
+        assertEquals(0, HistogramRecorder.bucket(-5));
+        assertEquals(1, HistogramRecorder.bucket(1));
+        assertEquals(11, HistogramRecorder.bucket(1024));
+        assertEquals(HistogramRecorder.BUCKET_COUNT - 1, HistogramRecorder.bucket(Long.MAX_VALUE));
+
+        for (int i = 0; i < 99; i++) {
+            recorder.onPhase(Operation.HASH, Phase.BCRYPT, Version.DEFAULT_VERSION, 4, 1000);
+        }
+        recorder.onPhase(Operation.HASH, Phase.BCRYPT, Version.DEFAULT_VERSION, 4, 1_000_000);
+
+        HistogramRecorder.Snapshot snapshot = recorder.snapshot(Operation.HASH, Phase.BCRYPT);
+        assertEquals(100, snapshot.count);
+        assertEquals(99, snapshot.bucketCount(HistogramRecorder.bucket(1000)));
+        assertEquals(1024, snapshot.percentileNanos(0.5));
+        assertEquals(1024, snapshot.percentileNanos(0.99));
+        assertEquals(1L << 20, snapshot.percentileNanos(1.0));
+        assertEquals((99 * 1000 + 1_000_000) / 100, snapshot.meanNanos());
+    }
+}
@@ -0,0 +1,128 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class InterleavedBatchTest {
+
+    @Test
+    public void testMixedCostsAndVersions() {
+        testMixedCostsAndVersions(true);
+        testMixedCostsAndVersions(false);
+    }
+
+    private static void testMixedCostsAndVersions(boolean useEksBlowfish) {
+        Random random = new Random(42);
+        List<InterleavedBatch.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            byte[] salt = new byte[16];
+            byte[] pwBytes = new byte[8 + i];
+            random.nextBytes(salt);
+            random.nextBytes(pwBytes);
+            Version version = i % 2 == 0 ? Version.HKDF_HMAC512 : Version.HKDF_HMAC512_BCRYPT_24_BYTE;
+            jobs.add(new InterleavedBatch.Job(new EngineRegistry.Engine(version, useEksBlowfish), pwBytes, salt, 4 + i % 3));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<byte[]> expected = expected(jobs);
+            assertResults(expected, InterleavedBatch.execute(BkdfListener.Operation.HASH, copy(jobs), executor));
+            assertResults(expected, InterleavedBatch.execute(BkdfListener.Operation.HASH, copy(jobs), BkdfExecutors.sharedBatchPool()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<byte[]> expected(List<InterleavedBatch.Job> jobs) {
+        List<byte[]> expected = new ArrayList<>(jobs.size());
+        for (InterleavedBatch.Job job : jobs) {
+            expected.add(job.engine.hash(BkdfListener.Operation.HASH, job.pwBytes, job.salt, job.costFactor));
+        }
+        return expected;
+    }
+
+    private static List<InterleavedBatch.Job> copy(List<InterleavedBatch.Job> jobs) {
+        List<InterleavedBatch.Job> copy = new ArrayList<>(jobs.size());
+        for (InterleavedBatch.Job job : jobs) {
+            copy.add(new InterleavedBatch.Job(job.engine, job.pwBytes.clone(), job.salt, job.costFactor));
+        }
+        return copy;
+    }
+
+    private static void assertResults(List<byte[]> expected, List<BatchResult<byte[]>> results) {
+        assertEquals(expected.size(), results.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), results.get(i).get());
+        }
+    }
+
+    @Test
+    public void testFailureFailsOnlyItsJob() {
+        EngineRegistry.Engine engine = EngineRegistry.forVersion(Version.HKDF_HMAC512);
+        List<InterleavedBatch.Job> jobs = Arrays.asList(
+                new InterleavedBatch.Job(engine, new byte[4], new byte[16], 4),
+                new InterleavedBatch.Job(engine, new byte[4], new byte[15], 4),
+                new InterleavedBatch.Job(engine, new byte[4], new byte[16], 4),
+                new InterleavedBatch.Job(engine, new byte[0], new byte[16], 4));
+        byte[] expected = engine.hash(BkdfListener.Operation.HASH, new byte[4], new byte[16], 4);
+
+        List<BatchResult<byte[]>> results = InterleavedBatch.execute(BkdfListener.Operation.HASH, jobs, BkdfExecutors.sharedBatchPool());
+        assertArrayEquals(expected, results.get(0).get());
+        assertTrue(results.get(1).getError() instanceof IllegalArgumentException);
+        assertArrayEquals(expected, results.get(2).get());
+        assertTrue(results.get(3).getError() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testWipesPasswords() {
+        EngineRegistry.Engine engine = EngineRegistry.forVersion(Version.HKDF_HMAC512);
+        byte[] pwBytes = {1, 2, 3, 4};
+        byte[] invalidPwBytes = {5, 6, 7, 8};
+        List<InterleavedBatch.Job> jobs = Arrays.asList(
+                new InterleavedBatch.Job(engine, pwBytes, new byte[16], 4),
+                new InterleavedBatch.Job(engine, invalidPwBytes, new byte[15], 4));
+
+        InterleavedBatch.execute(BkdfListener.Operation.HASH, jobs, BkdfExecutors.sharedBatchPool());
+        assertArrayEquals(new byte[4], pwBytes);
+        assertArrayEquals(new byte[4], invalidPwBytes);
+    }
+
+    @Test
+    public void testTasksPerEngine() {
+        EngineRegistry.Engine libraryEngine = new EngineRegistry.Engine(Version.HKDF_HMAC512, false);
+        EngineRegistry.Engine eksBlowfishEngine = new EngineRegistry.Engine(Version.HKDF_HMAC512, true);
+        List<InterleavedBatch.Job> library = new ArrayList<>();
+        List<InterleavedBatch.Job> eksBlowfish = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            library.add(new InterleavedBatch.Job(libraryEngine, new byte[4], new byte[16], 4));
+            if (i < 7) {
+                eksBlowfish.add(new InterleavedBatch.Job(eksBlowfishEngine, new byte[4], new byte[16], 4));
+            }
+        }
+
+        List<int[]> tasks = InterleavedBatch.tasks(library);
+        assertEquals(8, tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            assertArrayEquals(new int[]{i}, tasks.get(i));
+        }
+        tasks = InterleavedBatch.tasks(eksBlowfish);
+        assertEquals(4, tasks.size());
+        assertArrayEquals(new int[]{0, 1}, tasks.get(0));
+        assertArrayEquals(new int[]{6}, tasks.get(3));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(InterleavedBatch.execute(BkdfListener.Operation.HASH, Collections.<InterleavedBatch.Job>emptyList(),
+                BkdfExecutors.sharedBatchPool()).isEmpty());
+    }
+}
@@ -105,6 +105,38 @@ public class KeyDerivationFunctionTest {
         testVerifyReferenceTest(Version.HKDF_HMAC512, KdfTestData.TEST_DATA_V1_16_OUT);
     }
 
+    @Test
+    public void testStretchSameAsReference() {
+        KeyDerivationFunction kdf = BKDF.createKdf(Version.HKDF_HMAC512_BCRYPT_24_BYTE);
+        for (TestCaseKdf testCase : KdfTestData.TEST_DATA_V2_72_OUT) {
+            try (StretchedKey stretchedKey = kdf.stretch(testCase.salt, testCase.password, testCase.cost)) {
+                assertArrayEquals(testCase.hash, stretchedKey.expand(testCase.info, testCase.outLength));
+                assertArrayEquals(testCase.hash, stretchedKey.expand(testCase.info, testCase.outLength));
+            }
+        }
+    }
+
+    @Test
+    public void testStretchExpandOnDemand() {
+        byte[] salt = Bytes.random(16).array();
+        byte[] ikm = Bytes.random(24).array();
+        StretchedKey stretchedKey = kdf.stretch(salt, ikm, 4);
+
+        assertEquals(Version.HKDF_HMAC512, stretchedKey.getVersion());
+        assertEquals(4, stretchedKey.getCostFactor());
+        assertArrayEquals(kdf.derive(salt, ikm, 4, Bytes.from("file").array(), 32), stretchedKey.expand(Bytes.from("file").array(), 32));
+        assertArrayEquals(kdf.derive(salt, ikm, 4, null, 16), stretchedKey.expand(null, 16));
+        assertFalse(stretchedKey.isDestroyed());
+
+        stretchedKey.destroy();
+        assertTrue(stretchedKey.isDestroyed());
+        try {
+            stretchedKey.expand(null, 16);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
     private void testVerifyReferenceTest(Version version, TestCaseKdf[] data) {
         KeyDerivationFunction kdf = BKDF.createKdf(version);
         for (TestCaseKdf testCase : data) {
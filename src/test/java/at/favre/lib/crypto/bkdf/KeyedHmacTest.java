@@ -0,0 +1,160 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.hkdf.HKDF;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class KeyedHmacTest {
+
+    @Test
+    public void testDigestAlgorithmOf() {
+        assertEquals("SHA-512", KeyedHmac.digestAlgorithmOf(HKDF.fromHmacSha512()));
+        assertEquals("SHA-256", KeyedHmac.digestAlgorithmOf(HKDF.fromHmacSha256()));
+    }
+
+    @Test
+    public void testMacSameAsJce() throws Exception {
+        testMacSameAsJce("SHA-512", "HmacSHA512");
+        testMacSameAsJce("SHA-256", "HmacSHA256");
+    }
+
+    private void testMacSameAsJce(String digestAlgorithm, String macAlgorithm) throws Exception {
+        Mac mac = Mac.getInstance(macAlgorithm);
+        KeyedHmac reusable = KeyedHmac.reusable(digestAlgorithm);
+        for (int keyLength : new int[]{1, 16, 64, 128, 129, 300}) {
+            byte[] key = Bytes.random(keyLength).array();
+            KeyedHmac hmac = new KeyedHmac(digestAlgorithm, key);
+            reusable.init(Arrays.copyOf(key, keyLength + 5), keyLength);
+            mac.init(new SecretKeySpec(key, macAlgorithm));
+            for (int dataLength : new int[]{0, 1, 200}) {
+                byte[] data = Bytes.random(dataLength + 2).array();
+                byte[] expected = mac.doFinal(Arrays.copyOfRange(data, 2, data.length));
+                assertArrayEquals(expected, hmac.mac(Arrays.copyOfRange(data, 2, data.length)));
+
+                byte[] out = new byte[hmac.macLength() + 3];
+                reusable.mac(data, 2, dataLength, out, 3);
+                assertArrayEquals(expected, Arrays.copyOfRange(out, 3, out.length));
+            }
+        }
+    }
+
+    @Test
+    public void testExtractSameAsHkdf() {
+        KeyedHmac extractor = new KeyedHmac("SHA-512", null);
+        for (int length = 1; length < 300; length += 7) {
+            byte[] ikm = Bytes.random(length).array();
+            assertArrayEquals(HKDF.fromHmacSha512().extract((byte[]) null, ikm), extractor.mac(ikm));
+        }
+    }
+
+    @Test
+    public void testReusableExtractSameAsHkdf() {
+        KeyedHmac extractor = KeyedHmac.reusable("SHA-512");
+        for (int length = 1; length < 300; length += 7) {
+            byte[] ikm = Bytes.random(length).array();
+            byte[] out = new byte[extractor.macLength()];
+            extractor.mac(ikm, 0, length, out, 0);
+            assertArrayEquals(HKDF.fromHmacSha512().extract((byte[]) null, ikm), out);
+        }
+    }
+
+    @Test
+    public void testExpandSameAsHkdf() {
+        byte[] suffix = "bkdf".getBytes();
+        KeyedHmac reusable = KeyedHmac.reusable("SHA-512");
+        for (byte[] prk : new byte[][]{Bytes.random(16).array(), Bytes.random(64).array()}) {
+            KeyedHmac hmac = new KeyedHmac("SHA-512", prk);
+            reusable.init(prk, prk.length);
+            for (int length : new int[]{1, 16, 64, 65, 200, 255 * 64}) {
+                for (byte[] info : new byte[][]{null, "aes".getBytes()}) {
+                    byte[] expected = HKDF.fromHmacSha512().expand(prk, Bytes.wrapNullSafe(info).append(suffix).array(), length);
+                    assertArrayEquals(expected, hmac.expand(info, suffix, length));
+                    assertArrayEquals(expected, reusable.expand(info, suffix, length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResetKeepsKeyAndWipeRemovesIt() {
+        KeyedHmac hmac = KeyedHmac.reusable("SHA-256");
+        hmac.init(new byte[]{1, 2, 3}, 3);
+        byte[] expected = hmac.mac(new byte[]{4});
+        hmac.reset();
+        assertArrayEquals(expected, hmac.mac(new byte[]{4}));
+
+        hmac.wipe();
+        assertFalse(Arrays.equals(expected, hmac.mac(new byte[]{4})));
+        hmac.init(new byte[]{1, 2, 3}, 3);
+        assertArrayEquals(expected, hmac.mac(new byte[]{4}));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInitFixedKey() {
+        new KeyedHmac("SHA-512", null).init(new byte[16], 16);
+    }
+
+    @Test
+    public void testExpandContiguous() {
+        KeyedHmac hmac = new KeyedHmac("SHA-256", Bytes.random(32).array());
+        byte[][] infos = {null, "a".getBytes(), "mac".getBytes(), new byte[0]};
+        int[] lengths = {16, 1, 100, 32};
+        byte[] all = new byte[149];
+        int offset = 0;
+        for (int i = 0; i < infos.length; i++) {
+            hmac.expand(infos[i], "bkdf".getBytes(), all, offset, lengths[i]);
+            offset += lengths[i];
+        }
+        offset = 0;
+        for (int i = 0; i < infos.length; i++) {
+            assertArrayEquals(hmac.expand(infos[i], "bkdf".getBytes(), lengths[i]), Arrays.copyOfRange(all, offset, offset + lengths[i]));
+            offset += lengths[i];
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpandInvalidLength() {
+        new KeyedHmac("SHA-512", new byte[64]).expand(null, new byte[0], new byte[16], 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpandTooLong() {
+        new KeyedHmac("SHA-512", new byte[64]).expand(null, new byte[0], 255 * 64 + 1);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final KeyedHmac hmac = new KeyedHmac("SHA-512", Bytes.random(64).array());
+        final byte[] expected = hmac.expand("info".getBytes(), new byte[0], 100);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 200; j++) {
+                            assertArrayEquals(expected, hmac.expand("info".getBytes(), new byte[0], 100));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
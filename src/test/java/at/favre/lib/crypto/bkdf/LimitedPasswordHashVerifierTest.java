@@ -0,0 +1,84 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.crypto.bkdf.util.CountingVerifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LimitedPasswordHashVerifierTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    private CountDownLatch gate;
+    private CountingVerifier delegate;
+    private AdaptiveConcurrencyLimiter limiter;
+    private LimitedPasswordHashVerifier verifier;
+    private ExecutorService executor;
+    private String hash;
+
+    @Before
+    public void setup() {
+        gate = new CountDownLatch(1);
+        delegate = new CountingVerifier(BKDF.createPasswordHashVerifier(), gate);
+        limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0);
+        verifier = new LimitedPasswordHashVerifier(delegate, limiter);
+        executor = Executors.newFixedThreadPool(2);
+        hash = BKDF.createPasswordHasher().hash(PASSWORD, 4);
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testVerify() {
+        gate.countDown();
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertFalse(verifier.verify("wrong".toCharArray(), hash));
+        assertTrue(verifier.verify(PASSWORD, HashData.parse(hash)));
+        assertTrue(verifier.verifyAndRehash(PASSWORD, hash, new HashPolicy(Version.HKDF_HMAC512, 4)).verified);
+        assertEquals(0, limiter.getStats().inFlight);
+    }
+
+    @Test
+    public void testRejectWhenLimitReached() throws Exception {
+        Future<Boolean> running = verifier.verifyAsync(PASSWORD, hash, executor);
+        while (delegate.calls.get() == 0) {
+            Thread.sleep(5);
+        }
+        try {
+            verifier.verify(PASSWORD, hash);
+            fail();
+        } catch (AdaptiveConcurrencyLimiter.ConcurrencyLimitExceededException e) {
+            assertEquals(1, limiter.getStats().rejected);
+        }
+        gate.countDown();
+        assertTrue(running.get());
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void testAsyncCarriesDeadline() throws Exception {
+        Future<Boolean> future;
+        try (AdaptiveConcurrencyLimiter.DeadlineScope ignored = AdaptiveConcurrencyLimiter.withDeadline(-1, TimeUnit.SECONDS)) {
+            future = verifier.verifyAsync(PASSWORD, hash, executor);
+        }
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AdaptiveConcurrencyLimiter.DeadlineExceededException);
+        }
+        assertEquals(0, delegate.calls.get());
+    }
+}
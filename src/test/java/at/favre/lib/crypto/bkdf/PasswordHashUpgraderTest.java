@@ -92,6 +92,28 @@ public class PasswordHashUpgraderTest {
         testMultiUpgrade(hasher, "~!@#$%^&*()      ~!@#$%^&*()PNBFRD".toCharArray(), 5, arr);
     }
 
+    @Test
+    public void testUpgradeAllTo() {
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            hashes.add(hasher.hash(("secret" + i).toCharArray(), 4 + i % 3));
+        }
+        hashes.add(upgrader.upgradePasswordHashWith(5, hashes.get(0)).getAsEncodedMessageFormat());
+        hashes.add("not-a-valid-hash");
+        hashes.add(hasher.hash("strong".toCharArray(), 8));
+
+        List<BatchResult<CompoundHashData>> results = upgrader.upgradeAllTo(8, hashes);
+        assertEquals(hashes.size(), results.size());
+        for (int i = 0; i < 6; i++) {
+            CompoundHashData expected = upgrader.upgradePasswordHashTo(8, hashes.get(i));
+            assertEquals(expected, results.get(i).get());
+            assertTrue(verifier.verify((i < 5 ? "secret" + i : "secret0").toCharArray(), results.get(i).get().getAsEncodedMessageFormat()));
+        }
+        assertFalse(results.get(6).isSuccess());
+        assertTrue(results.get(7).getError() instanceof IllegalArgumentException);
+        assertTrue(upgrader.upgradeAllTo(8, Collections.<String>emptyList()).isEmpty());
+    }
+
     @Test
     public void testUpgradePath() {
         testUpgradePath(Collections.singletonList(4), 12, new Integer[]{11, 10, 9, 8, 7, 6, 5, 4});
@@ -6,8 +6,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class PasswordHasherTest {
@@ -30,6 +33,33 @@ public class PasswordHasherTest {
         assertTrue(verifier.verify(pw, hash));
     }
 
+    @Test
+    public void testAsyncHashAndVerify() throws Exception {
+        char[] pw = "secret".toCharArray();
+        String hash = hasher.hashAsync(pw, 5).get();
+
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier();
+        assertTrue(verifier.verifyAsync(pw, hash).get());
+        assertFalse(verifier.verifyAsync("wrong".toCharArray(), hash).get());
+    }
+
+    @Test
+    public void testAsyncWithCustomExecutor() throws Exception {
+        ExecutorService executor = BkdfExecutors.newHashingExecutor(2, 4);
+        try {
+            char[] pw = "secret".toCharArray();
+            String hash = hasher.hashAsync(pw, 4, executor).get();
+            assertTrue(BKDF.createPasswordHashVerifier().verifyAsync(pw, hash, executor).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testAsyncFailsInFuture() throws Exception {
+        hasher.hashAsync("secret".toCharArray(), 3).get();
+    }
+
     @Test
     public void testVerifyReferenceTest1() {
         testVerifyReferenceTest(PasswordHashTestData.TEST_DATA_V1);
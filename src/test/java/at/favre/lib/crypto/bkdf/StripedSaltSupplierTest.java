@@ -0,0 +1,112 @@
+package at.favre.lib.crypto.bkdf;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StripedSaltSupplierTest {
+    private CountingSecureRandom seedSource;
+    private ManualTicker ticker;
+
+    @Before
+    public void setup() {
+        seedSource = new CountingSecureRandom();
+        ticker = new ManualTicker();
+    }
+
+    @Test
+    public void testUniqueSaltsAcrossBlocks() {
+        // 24 byte blocks so salts straddle block boundaries
+        StripedSaltSupplier supplier = new StripedSaltSupplier(seedSource, 24, TimeUnit.HOURS.toNanos(1), ticker);
+        Set<Bytes> salts = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] salt = new byte[16];
+            supplier.nextSalt(salt);
+            assertTrue(salts.add(Bytes.wrap(salt)));
+        }
+        assertEquals(1, seedSource.calls.get());
+    }
+
+    @Test
+    public void testReseedOnSchedule() {
+        StripedSaltSupplier supplier = new StripedSaltSupplier(seedSource, 16, 1000, ticker);
+        byte[] salt = new byte[16];
+        supplier.nextSalt(salt);
+        supplier.nextSalt(salt);
+        assertEquals(1, seedSource.calls.get());
+
+        ticker.nanos += 1000;
+        supplier.nextSalt(salt);
+        assertEquals(2, seedSource.calls.get());
+    }
+
+    @Test
+    public void testConcurrentThreadsGetUniqueSalts() throws Exception {
+        final StripedSaltSupplier supplier = new StripedSaltSupplier();
+        final Set<Bytes> salts = Collections.synchronizedSet(new HashSet<Bytes>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] salt = new byte[16];
+                        supplier.nextSalt(salt);
+                        if (!salts.add(Bytes.wrap(salt))) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, duplicates.get());
+        assertEquals(8000, salts.size());
+    }
+
+    @Test
+    public void testUsedByHasher() {
+        PasswordHasher hasher = BKDF.createPasswordHasher(Version.HKDF_HMAC512, new StripedSaltSupplier(seedSource, 64, 1000, ticker));
+        HashData first = hasher.hashRaw("secret".toCharArray(), 4);
+        HashData second = hasher.hashRaw("secret".toCharArray(), 4);
+        assertFalse(Bytes.wrap(first.rawSalt).equals(second.rawSalt));
+        assertTrue(BKDF.createPasswordHashVerifier().verify("secret".toCharArray(), first));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockTooSmall() {
+        new StripedSaltSupplier(seedSource, 15, 1, TimeUnit.HOURS);
+    }
+
+    private static final class CountingSecureRandom extends SecureRandom {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            calls.incrementAndGet();
+            super.nextBytes(bytes);
+        }
+    }
+
+    private static final class ManualTicker implements Ticker {
+        private long nanos;
+
+        @Override
+        public long nanos() {
+            return nanos;
+        }
+    }
+}
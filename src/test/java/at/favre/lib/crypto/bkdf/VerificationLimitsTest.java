@@ -0,0 +1,96 @@
+package at.favre.lib.crypto.bkdf;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VerificationLimitsTest {
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    @Test
+    public void testWithinLimits() {
+        VerificationLimits limits = new VerificationLimits(6, 3, 1L << 7);
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(null, limits);
+        String hash = BKDF.createPasswordHasher().hash(PASSWORD, 6);
+        String chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashTo(6, BKDF.createPasswordHasher().hash(PASSWORD, 4))
+                .getAsEncodedMessageFormat();
+
+        assertTrue(verifier.verify(PASSWORD, hash));
+        assertTrue(verifier.verify(PASSWORD, HashData.parse(hash)));
+        assertTrue(verifier.verify(PASSWORD, chain));
+        assertEquals(0, limits.getExceededCount());
+    }
+
+    @Test
+    public void testCostFactorExceeded() {
+        VerificationLimits limits = new VerificationLimits(12, 3, Long.MAX_VALUE);
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(null, limits);
+        HashData hashData = HashData.parse(BKDF.createPasswordHasher().hash(PASSWORD, 4));
+        HashData tampered = new HashData((byte) 31, hashData.version, hashData.rawSalt, hashData.rawHash);
+
+        assertRejected(verifier, tampered.getAsEncodedMessageFormat());
+        try {
+            verifier.verify(PASSWORD, tampered);
+            fail();
+        } catch (VerificationLimits.LimitExceededException e) {
+            assertTrue(e.getMessage().contains("cost factor"));
+        }
+        assertEquals(2, limits.getExceededCount());
+    }
+
+    @Test
+    public void testChainLengthExceeded() {
+        VerificationLimits limits = new VerificationLimits(31, 2, Long.MAX_VALUE);
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(null, limits);
+        String chain = BKDF.createPasswordHasher().hash(PASSWORD, 4);
+        for (int i = 0; i < 2; i++) {
+            chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(Version.HKDF_HMAC512, 4, chain).getAsEncodedMessageFormat();
+        }
+
+        assertRejected(verifier, chain);
+        assertEquals(1, limits.getExceededCount());
+    }
+
+    @Test
+    public void testTotalIterationsExceeded() {
+        VerificationLimits limits = new VerificationLimits(31, 255, 1L << 6);
+        PasswordHashVerifier verifier = BKDF.createPasswordHashVerifier(null, limits);
+        String chain = BKDF.createPasswordHasher().hash(PASSWORD, 5);
+        chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(Version.HKDF_HMAC512, 5, chain).getAsEncodedMessageFormat();
+        assertTrue(verifier.verify(PASSWORD, chain));
+
+        chain = BKDF.createPasswordHashUpgrader().upgradePasswordHashWith(Version.HKDF_HMAC512, 4, chain).getAsEncodedMessageFormat();
+        assertRejected(verifier, chain);
+        assertRejected(verifier, BKDF.createPasswordHasher().hash(PASSWORD, 7));
+        assertEquals(2, limits.getExceededCount());
+    }
+
+    @Test
+    public void testUnknownFormatIsLeftToParser() {
+        new VerificationLimits(4, 1, 16).check(new HashMessageInspector(), "not a hash");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxCost() {
+        new VerificationLimits(32, 1, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxChain() {
+        new VerificationLimits(10, 0, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxIterations() {
+        new VerificationLimits(10, 1, 15);
+    }
+
+    private static void assertRejected(PasswordHashVerifier verifier, String hash) {
+        try {
+            verifier.verify(PASSWORD, hash);
+            fail();
+        } catch (VerificationLimits.LimitExceededException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package at.favre.lib.crypto.bkdf.util;
+
+import at.favre.lib.crypto.bkdf.BatchResult;
+import at.favre.lib.crypto.bkdf.BkdfWorkspace;
+import at.favre.lib.crypto.bkdf.HashData;
+import at.favre.lib.crypto.bkdf.HashPolicy;
+import at.favre.lib.crypto.bkdf.PasswordHashVerifier;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifier which counts how often the (expensive) delegate was called; used to test decorating verifiers
+ */
+public final class CountingVerifier implements PasswordHashVerifier {
+    private final PasswordHashVerifier delegate;
+    private final CountDownLatch gate;
+    public final AtomicInteger calls = new AtomicInteger();
+
+    public CountingVerifier(PasswordHashVerifier delegate) {
+        this(delegate, new CountDownLatch(0));
+    }
+
+    /**
+     * Create a counting verifier whose synchronous verify methods block until the gate is released
+     *
+     * @param delegate to count
+     * @param gate     the verify methods block until this latch is released
+     */
+    public CountingVerifier(PasswordHashVerifier delegate, CountDownLatch gate) {
+        this.delegate = delegate;
+        this.gate = gate;
+    }
+
+    private void enter() {
+        calls.incrementAndGet();
+        try {
+            gate.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2) {
+        enter();
+        return delegate.verify(password, bkdfPasswordHashFormat2);
+    }
+
+    @Override
+    public boolean verify(char[] password, String bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        enter();
+        return delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+    }
+
+    @Override
+    public boolean verify(CharSequence password, CharSequence bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        enter();
+        return delegate.verify(password, bkdfPasswordHashFormat2, workspace);
+    }
+
+    @Override
+    public boolean verify(ByteBuffer utf8Password, ByteBuffer bkdfPasswordHashFormat2, BkdfWorkspace workspace) {
+        enter();
+        return delegate.verify(utf8Password, bkdfPasswordHashFormat2, workspace);
+    }
+
+    @Override
+    public boolean verify(char[] password, HashData hashData) {
+        enter();
+        return delegate.verify(password, hashData);
+    }
+
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2) {
+        enter();
+        return delegate.verifyAndRehash(password, bkdfPasswordHashFormat2);
+    }
+
+    @Override
+    public VerificationResult verifyAndRehash(char[] password, String bkdfPasswordHashFormat2, HashPolicy policy) {
+        enter();
+        return delegate.verifyAndRehash(password, bkdfPasswordHashFormat2, policy);
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2) {
+        calls.incrementAndGet();
+        return delegate.verifyAsync(password, bkdfPasswordHashFormat2);
+    }
+
+    @Override
+    public Future<Boolean> verifyAsync(char[] password, String bkdfPasswordHashFormat2, ExecutorService executor) {
+        calls.incrementAndGet();
+        return delegate.verifyAsync(password, bkdfPasswordHashFormat2, executor);
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials) {
+        calls.addAndGet(credentials.size());
+        return delegate.verifyAll(credentials);
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyAll(List<Credential> credentials, ExecutorService executor) {
+        calls.addAndGet(credentials.size());
+        return delegate.verifyAll(credentials, executor);
+    }
+}